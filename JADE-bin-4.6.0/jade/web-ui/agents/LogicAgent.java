@@ -9,27 +9,67 @@ import jade.lang.acl.ACLMessage;
 import jade.lang.acl.MessageTemplate;
 import jade.core.behaviours.*;
 import jade.proto.SubscriptionInitiator;
+import jade.proto.SubscriptionResponder;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
 import java.util.*;
-import java.util.regex.*;
 
 import org.jpl7.Query;
 import org.jpl7.Term;
 
+import utils.AgentExecutor;
+import utils.AnswerTemplates;
+import utils.ClauseReader;
+import utils.DirectProlog;
+import utils.FrontendChannel;
+import utils.KnowledgeImage;
+import utils.KnowledgeJournal;
 import utils.LLMService;
+import utils.PredicateCatalog;
+import utils.PrologEnginePool;
+import utils.QueryCache;
+import utils.RequestHeader;
 
 public class LogicAgent extends Agent {
 
     private AID queryAgent = null;
     private final String KB_FILE = "web-ui/kb/knowledge.pl";
+    // Filled during setup (indexKnowledgeFile on the agent thread, then the journal replay) before the pool
+    // serves any write; afterwards touched only by the writer engine
     private final Set<String> dynamicPredicates = new HashSet<>();
+    private PrologEnginePool engines;
+    private static final int PAGE_SIZE = parsePageSize();
+    // Per-query budgets (0 disables): wall-clock time and Prolog inferences
+    private static final long QUERY_TIMEOUT_MS = parseLimit("LOGIC_QUERY_TIMEOUT_MS", 5_000L);
+    private static final long QUERY_MAX_INFERENCES = parseLimit("LOGIC_QUERY_MAX_INFERENCES", 10_000_000L);
+    // Minimum interval between two partial answers of a streamed humanization
+    private static final long STREAM_THROTTLE_MS = parseLimit("LLM_STREAM_THROTTLE_MS", 250L);
+    private final java.util.concurrent.atomic.AtomicLong queriesTimedOut = new java.util.concurrent.atomic.AtomicLong();
+    private final java.util.concurrent.atomic.AtomicLong queriesOverInferenceLimit = new java.util.concurrent.atomic.AtomicLong();
+    // Runs a goal under an alarm (removed when the query is closed) and an inference budget.
+    // Unlike call_with_time_limit/2 it keeps the goal nondeterministic, so solutions can still be paged.
+    private static final String LIMITED_CALL_RULE =
+            "dabs_limited_call(Goal, Seconds, Inferences) :- "
+          + "setup_call_cleanup("
+          + "(Seconds > 0 -> alarm(Seconds, throw(time_limit_exceeded), Id, [remove(false)]) ; Id = none), "
+          + "(Inferences > 0 -> call_with_inference_limit(Goal, Inferences, R), "
+          + "(R == inference_limit_exceeded -> throw(inference_limit_exceeded) ; true) ; call(Goal)), "
+          + "(Id == none -> true ; remove_alarm(Id)))";
+    private KnowledgeJournal journal;
+    private KnowledgeImage image;
+    private final java.util.concurrent.atomic.AtomicInteger appendsSinceImage = new java.util.concurrent.atomic.AtomicInteger();
+    private final QueryCache answerCache = new QueryCache(QueryCache.configuredCapacity());
+    private final AnswerTemplates answerTemplates = AnswerTemplates.fromEnv();
+    private final PredicateCatalog catalog = new PredicateCatalog();
+    private SubscriptionResponder catalogPublisher;
+    // Rule head (name/arity) -> predicates used in its bodies, to invalidate cached goals through rules
+    private final Map<String, Set<String>> ruleDependencies = new java.util.concurrent.ConcurrentHashMap<>();
+    private AgentExecutor executor;
 
     protected void setup() {
+        executor = AgentExecutor.install(this);
 
         System.out.println("🟢 LogicAgent ready");
 
@@ -50,21 +90,60 @@ public class LogicAgent extends Agent {
         }
         
         // === SWI-Prolog initialization ===
+        engines = new PrologEnginePool(PrologEnginePool.configuredSize());
+        System.out.println("🧵 Prolog engine pool started with " + engines.size() + " reader engines");
         try {
-            String consult = "consult('" + KB_FILE + "')";
-            Query q = new Query(consult);
-            System.out.println("🧠 Loading knowledge.pl: " + (q.hasSolution() ? "OK" : "FAILED"));
+            KnowledgeJournal.recover(KB_FILE); // before the image check and the consult
+        } catch (IOException e) {
+            System.err.println("[!] Unable to repair knowledge.pl after an interrupted fold: " + e.getMessage());
+        }
+        image = new KnowledgeImage(KB_FILE);
+        long startNanos = System.nanoTime();
+        String loadMode = "source";
+        int replayed = 0;
+        try {
+            loadMode = loadKnowledgeBase();
         } catch (org.jpl7.PrologException pe) {
             String msg = pe.getMessage();
             System.err.println("PrologException (query): " + msg);
             if (msg != null && msg.toLowerCase().contains("existence_error")) {
-                sendAnswerToFrontend("I don't know. No information in the knowledge base.");
+                sendAnswerToFrontend(null, "I don't know. No information in the knowledge base.");
             } else {
-                sendAnswerToFrontend("I don't know. Unable to evaluate the question.");
+                sendAnswerToFrontend(null, "I don't know. Unable to evaluate the question.");
             }
         } catch (Exception e) {
             System.err.println("❌ Error during Prolog consult: " + e.getMessage());
         }
+        installQueryLimits();
+        LLMService.warmUp(); // while the KB is indexed, not on the first humanized answer
+        indexKnowledgeFile();
+        try {
+            replayed = openJournal();
+        } catch (Exception e) {
+            System.err.println("❌ Error replaying the KB journal: " + e.getMessage());
+        }
+        System.out.println("⏱ KB startup: " + (System.nanoTime() - startNanos) / 1_000_000 + " ms (mode="
+                + loadMode + ", journal lines replayed=" + replayed + ")");
+        if (image.isEnabled() && !"image".equals(loadMode)) {
+            image.rebuildAsync(); // so the next boot can skip the source consult
+        }
+        loadCatalog();
+
+        // ParserAgents subscribe to the predicate catalog: a snapshot now, deltas after every assert
+        catalogPublisher = new SubscriptionResponder(this, MessageTemplate.and(
+                MessageTemplate.MatchOntology(PredicateCatalog.ONTOLOGY),
+                MessageTemplate.or(MessageTemplate.MatchPerformative(ACLMessage.SUBSCRIBE),
+                        MessageTemplate.MatchPerformative(ACLMessage.CANCEL)))) {
+            @Override
+            protected ACLMessage handleSubscription(ACLMessage subscribe) {
+                SubscriptionResponder.Subscription sub = createSubscription(subscribe);
+                sub.notify(catalogMessage(subscribe.createReply(), catalog.snapshotMessage()));
+                System.out.println("📗 Predicate catalog subscribed by " + subscribe.getSender().getLocalName()
+                        + " (" + catalog.describe() + ")");
+                return null;
+            }
+        };
+        addBehaviour(catalogPublisher);
 
         
         addBehaviour(new CyclicBehaviour(this) {
@@ -78,11 +157,23 @@ public class LogicAgent extends Agent {
                     reply.setPerformative(ACLMessage.INFORM);
                     reply.setContent("pong");
                     send(reply);
+                } else if ("stats".equals(content)) {
+                    ACLMessage reply = msg.createReply();
+                    reply.setPerformative(ACLMessage.INFORM);
+                    reply.setContent(engines.describe() + " " + answerCache.describe() + " " + answerTemplates.describe()
+                            + " limits.timeouts=" + queriesTimedOut.get()
+                            + " limits.inferences=" + queriesOverInferenceLimit.get()
+                            + " " + catalog.describe()
+                            + (journal != null ? " " + journal.describe() : "")
+                            + " " + LLMService.describe()
+                            + " " + FrontendChannel.get().describe()
+                            + " " + executor.describe());
+                    send(reply);
                 }
             }
         });
 
-        
+        // Parsing stays on the agent thread; Prolog work is handed to the engine pool
         addBehaviour(new CyclicBehaviour() {
             public void action() {
                 ACLMessage msg = receive(MessageTemplate.MatchPerformative(ACLMessage.INFORM));
@@ -91,7 +182,7 @@ public class LogicAgent extends Agent {
                     System.out.println("📩 Message received by LogicAgent: " + content);
 
                     // Logical Prasing and valid inputs
-                    handleInput(content);
+                    handleInput(content, msg.getConversationId());
 
                     System.out.println("✅ LogicAgent ready to receive a new message...");
 
@@ -102,296 +193,520 @@ public class LogicAgent extends Agent {
         });
     }
 
-    private void handleInput(String input) {
-        // Extract expected type if present as prefix: ##TYPE:<type>## <formula>
-        String expectedType = "auto";
-        input = input == null ? "" : input.trim();
-        if (input.startsWith("##TYPE:")) {
-            int end = input.indexOf("##", 7);
-            if (end > 7) {
-                expectedType = input.substring(7, end).trim().toLowerCase();
-                input = input.substring(end + 2).trim();
-            }
-        }
+    private void handleInput(String input, String reqId) {
+        // Extract expected type and query options if present as prefix: ##TYPE:<type>;LIMIT:<n>;...## <formula>
+        RequestHeader header = RequestHeader.parse(input);
+        String expectedType = header.get("TYPE", "auto").toLowerCase();
+        input = header.body();
 
-        // Base sanitization: remove code fences/backticks and extra spaces
+        // Base sanitization: remove code fences/backticks; comments, layout and the final dot are handled by the reader
         input = input.replace("```prolog", "").replace("```", "").replace("`", "").trim();
 
-        // 1) Remove single-line Prolog comments: everything after % until newline
-        input = input.replaceAll("(?m)%.*$", "");
-
-        // 2) Normalize whitespace to a single line
-        input = input.replaceAll("\n|\r", " ").replaceAll("\\s+", " ").trim();
-
-        // 3) If final dot is missing, add it for robustness
-        int dot = input.indexOf('.') ;
-        if (dot >= 0) {
-            input = input.substring(0, dot + 1).trim();
-        } else {
-            input = input + ".";
+        // One pass over the text: everything below works on the clause AST
+        ClauseReader.Clause clause;
+        try {
+            clause = ClauseReader.read(input);
+        } catch (IllegalArgumentException e) {
+            System.out.println("⚠️ Clausola non leggibile (" + e.getMessage() + "): " + input);
+            sendAnswerToFrontend(reqId, "❌ Error: the input is not a valid Prolog clause.");
+            return;
         }
 
-        if (input.startsWith("?-")) {
-            
-            String cleaned = input.substring(2).trim(); // rimuove "?-"
-            if (cleaned.endsWith(".")) {
-                cleaned = cleaned.substring(0, cleaned.length() - 1).trim(); // rimuove il punto finale
-            }
+        if (clause.kind == ClauseReader.Clause.Kind.QUERY) {
+            String cleaned = clause.text();
             System.out.println("🧹 Query sanificata: " + cleaned);
-            handleQuery(cleaned);
+            handleQuery(cleaned, clause.functors(), header, reqId);
             return;
         }
 
-        
-        String cleaned = input.substring(0, input.length() - 1).trim();
+        String cleaned = clause.text();
         System.out.println("🧹 Clausola sanificata: " + cleaned);
 
-        
-        if (indexOfTopLevel(cleaned, ":-") >= 0) {
-            handlePrologRule(cleaned);
-        } else if (hasTopLevelComma(cleaned)) {
-           
-            if ("fact".equals(expectedType)) {
-                if (hasVariables(cleaned)) {
-                    System.out.println("⚠️ Input marcato come FATTO ma contiene variabili/congiunzione: scarto → " + cleaned);
-                    return;
-                }
-                System.out.println("ℹ️ Input FATTO con lista di fatti multipli: assert multipli");
-                for (String part : splitTopLevelByComma(cleaned)) {
-                    String fact = part.trim();
-                    if (fact.isEmpty()) continue;
-                    if (indexOfTopLevel(fact, ":-") >= 0) {
-                        System.out.println("⚠️ Parti con ':-' non sono fatti: salto → " + fact);
-                        continue;
+        switch (clause.kind) {
+            case RULE:
+                handlePrologRule(clause, reqId);
+                break;
+            case DIRECTIVE:
+                System.out.println("⚠️ Direttiva non ammessa: " + cleaned);
+                sendAnswerToFrontend(reqId, "❌ Error: directives are not accepted.");
+                break;
+            case CONJUNCTION:
+                if ("fact".equals(expectedType)) {
+                    if (clause.hasVariables()) {
+                        System.out.println("⚠️ Input marcato come FATTO ma contiene variabili/congiunzione: scarto → " + cleaned);
+                        return;
                     }
-                    handlePrologFact(fact);
-                }
-            } else if (hasVariables(cleaned)) {
-                
-                System.out.println("ℹ️ Rilevata congiunzione di goal con variabili: eseguo come query");
-                handleQuery(cleaned);
-            } else {
-                
-                System.out.println("ℹ️ Rilevata lista di fatti multipli: eseguo assert multipli");
-                for (String part : splitTopLevelByComma(cleaned)) {
-                    String fact = part.trim();
-                    if (fact.isEmpty()) continue;
-                    if (indexOfTopLevel(fact, ":-") >= 0) {
-                        System.out.println("⚠️ Parti con ':-' non sono fatti: salto → " + fact);
-                        continue;
-                    }
-                    handlePrologFact(fact);
+                    System.out.println("ℹ️ Input FATTO con lista di fatti multipli: assert multipli");
+                    assertEach(clause, reqId);
+                } else if (clause.hasVariables()) {
+                    System.out.println("ℹ️ Rilevata congiunzione di goal con variabili: eseguo come query");
+                    handleQuery(cleaned, clause.functors(), header, reqId);
+                } else {
+                    System.out.println("ℹ️ Rilevata lista di fatti multipli: eseguo assert multipli");
+                    assertEach(clause, reqId);
                 }
-            }
-        } else {
-            handlePrologFact(cleaned);
+                break;
+            default:
+                handlePrologFact(cleaned, clause.headKey(), reqId);
         }
     }
 
-    
-    private boolean hasTopLevelComma(String s) {
-        int depth = 0;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '(') depth++;
-            else if (c == ')') depth = Math.max(0, depth - 1);
-            else if (c == ',' && depth == 0) return true;
-        }
-        return false;
-    }
-
-    
-    private int indexOfTopLevel(String s, String token) {
-        int depth = 0;
-        for (int i = 0; i <= s.length() - token.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '(') { depth++; continue; }
-            if (c == ')') { depth = Math.max(0, depth - 1); continue; }
-            if (depth == 0 && s.startsWith(token, i)) return i;
-        }
-        return -1;
-    }
-
-    
-    private boolean hasVariables(String s) {
-        return java.util.regex.Pattern.compile("\\b([A-Z_][A-Za-z0-9_]*)\\b").matcher(s).find();
-    }
-
-    
-    private java.util.List<String> splitTopLevelByComma(String s) {
-        java.util.List<String> parts = new java.util.ArrayList<>();
-        int depth = 0;
-        int start = 0;
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '(') depth++;
-            else if (c == ')') depth = Math.max(0, depth - 1);
-            else if (c == ',' && depth == 0) {
-                parts.add(s.substring(start, i));
-                start = i + 1;
+    private void assertEach(ClauseReader.Clause conjunction, String reqId) {
+        for (ClauseReader.Term part : conjunction.conjuncts()) {
+            String fact = conjunction.text(part);
+            if (part.is(":-", 2)) {
+                System.out.println("⚠️ Parti con ':-' non sono fatti: salto → " + fact);
+                continue;
             }
+            handlePrologFact(fact, part.key(), reqId);
         }
-        if (start < s.length()) parts.add(s.substring(start));
-        return parts;
     }
 
-    private void handlePrologFact(String fact) {
-        declareDynamic(fact);
+    private void handlePrologFact(String fact, String key, String reqId) {
+        engines.submitWrite(() -> { assertFact(fact, key, reqId); return null; });
+    }
+
+    private void assertFact(String fact, String key, String reqId) {
+        declareDynamic(key);
         String prologCmd = "assertz(" + fact + ")";
         System.out.println("🛠 Final Prolog command: " + prologCmd);
         try {
             Query q = new Query(prologCmd);
             if (q.hasSolution()) {
                 System.out.println("📚 Fact added to Prolog: " + fact);
-                appendToKnowledgeFile(fact + ".");
-                // Notify the frontend that the fact was inserted correctly
-                sendAnswerToFrontend("✅ Fact inserted: " + fact + ".");
+                if (key != null) answerCache.invalidate(key);
+                catalogChanged(key);
+                // Notify the frontend once the fact is committed to the journal
+                appendToKnowledgeFile(fact + ".").whenComplete((ok, err) -> {
+                    if (err != null) {
+                        System.err.println("❌ Journal error (fact): " + err.getMessage());
+                        sendAnswerToFrontend(reqId, "❌ Error: the fact was asserted but could not be saved.");
+                    } else {
+                        sendAnswerToFrontend(reqId, "✅ Fact inserted: " + fact + ".");
+                    }
+                });
             } else {
                 System.out.println("⚠️ Prolog did not accept the fact.");
-                sendAnswerToFrontend("❌ Error: the fact was not accepted.");
+                sendAnswerToFrontend(reqId, "❌ Error: the fact was not accepted.");
             }
         } catch (Exception e) {
             System.err.println("❌ Prolog error (fact): " + e.getMessage());
-            sendAnswerToFrontend("❌ Error while inserting the fact.");
+            sendAnswerToFrontend(reqId, "❌ Error while inserting the fact.");
         }
     }
     
 
-    private void handlePrologRule(String rule) {
-        declareDynamic(rule);
+    private void handlePrologRule(ClauseReader.Clause clause, String reqId) {
+        engines.submitWrite(() -> { assertRule(clause, reqId); return null; });
+    }
+
+    private void assertRule(ClauseReader.Clause clause, String reqId) {
+        String rule = clause.text();
+        String key = clause.headKey();
+        declareDynamic(key);
         String prologCmd = "assertz((" + rule + "))";
         try {
             Query q = new Query(prologCmd);
             if (q.hasSolution()) {
                 System.out.println("📚 Rule added to Prolog: " + rule);
-                appendToKnowledgeFile(rule + ".");
-                // Notify the frontend that the rule was inserted correctly
-                sendAnswerToFrontend("✅ Rule inserted: " + rule + ".");
+                recordRule(clause);
+                if (key != null) answerCache.invalidate(key);
+                catalogChanged(key);
+                // Notify the frontend once the rule is committed to the journal
+                appendToKnowledgeFile(rule + ".").whenComplete((ok, err) -> {
+                    if (err != null) {
+                        System.err.println("❌ Journal error (rule): " + err.getMessage());
+                        sendAnswerToFrontend(reqId, "❌ Error: the rule was asserted but could not be saved.");
+                    } else {
+                        sendAnswerToFrontend(reqId, "✅ Rule inserted: " + rule + ".");
+                    }
+                });
             } else {
                 System.out.println("⚠️ Prolog did not accept the rule.");
-                sendAnswerToFrontend("❌ Error: the rule was not accepted.");
+                sendAnswerToFrontend(reqId, "❌ Error: the rule was not accepted.");
             }
         } catch (Exception e) {
             System.err.println("❌ Prolog error (rule): " + e.getMessage());
-            sendAnswerToFrontend("❌ Error while inserting the rule.");
+            sendAnswerToFrontend(reqId, "❌ Error while inserting the rule.");
         }
     }
 
-    private void handleQuery(String query) {
-        System.out.println("🔍 Running query: " + query);
+    private void handleQuery(String query, Set<String> called, RequestHeader options, String reqId) {
+        engines.submitRead(() -> { runQuery(query, called, options, reqId); return null; });
+    }
+
+    // Solutions are pulled one at a time (hasMoreSolutions/nextSolution): a result that fits in one page
+    // is humanized as before, larger ones are streamed to the frontend page by page without materializing them
+    private void runQuery(String query, Set<String> called, RequestHeader options, String reqId) {
+        String mode = options.get("MODE", "all").toLowerCase();
+        int offset = Math.max(0, options.getInt("OFFSET", 0));
+        int limit = options.getInt("LIMIT", -1);
+        String cacheKey = QueryCache.normalize(query)
+                + ("all".equals(mode) && offset == 0 && limit < 0 ? "" : "#" + mode + ":" + offset + ":" + limit);
+        String cached = answerCache.get(cacheKey);
+        if (cached != null) {
+            System.out.println("⚡ Cached answer for: " + query);
+            sendAnswerToFrontend(reqId, cached);
+            return;
+        }
+        final long stamp = answerCache.stamp();
+        final Set<String> dependencies = goalDependencies(called);
+        final String noAnswer = DirectProlog.NO_ANSWER;
+
+        System.out.println("🔍 Running query: " + query + (options.isEmpty() ? "" : " " + options.prefix().trim()));
+        Query q = null;
         try {
-            Query q = new Query(query);
-            if (q.hasSolution()) {
-                Map<String, Term>[] solutions = q.allSolutions();
-                String logicResult;
-
-                if (solutions.length > 0 && !solutions[0].isEmpty()) {
-                    StringBuilder result = new StringBuilder();
-                    for (Map<String, Term> solution : solutions) {
-                        for (String var : solution.keySet()) {
-                            result.append(var)
-                                .append(" = ")
-                                .append(solution.get(var))
-                                .append("; ");
-                        }
-                    }
-                    logicResult = result.toString().trim();
-                } else {
-                    
-                    logicResult = "✅ The query is true.";
+            q = new Query(limitedGoal(query));
+
+            if ("count".equals(mode)) {
+                long count = 0;
+                while ((limit < 0 || count < limit) && q.hasMoreSolutions()) {
+                    q.nextSolution();
+                    count++;
                 }
+                String answer = count == 0 ? noAnswer : "🔢 The query has " + count + (count == 1 ? " solution." : " solutions.");
+                answerCache.put(cacheKey, dependencies, answer, stamp);
+                sendAnswerToFrontend(reqId, answer);
+                return;
+            }
 
-                System.out.println("✅ Logical result: " + logicResult);
+            int skipped = 0;
+            while (skipped < offset && q.hasMoreSolutions()) {
+                q.nextSolution();
+                skipped++;
+            }
 
-                
-                LLMService.humanizeAnswer(logicResult, query, new LLMService.LLMCallback() {
-                    @Override
-                    public void onSuccess(String result) {
-                        sendAnswerToFrontend(result);
-                    }
+            StringBuilder page = new StringBuilder();
+            List<Map<String, String>> rows = new ArrayList<>(); // first page only, for the answer templates
+            int inPage = 0, pages = 0;
+            long delivered = 0;
+            boolean groundTrue = false;
+            while ((limit < 0 || delivered < limit) && q.hasMoreSolutions()) {
+                Map<String, Term> solution = q.nextSolution();
+                if (solution.isEmpty()) {
+                    groundTrue = true; // no variables: one proof is enough
+                    break;
+                }
+                if (inPage == PAGE_SIZE) {
+                    pages++;
+                    sendAnswerToFrontend(reqId, "[page " + pages + "] " + page.toString().trim());
+                    page.setLength(0);
+                    rows.clear();
+                    inPage = 0;
+                }
+                appendSolution(page, solution);
+                if (pages == 0) rows.add(bindings(solution));
+                inPage++;
+                delivered++;
+            }
 
-                    @Override
-                    public void onError(String error) {
-                        System.err.println("⚠️ LLM error: " + error);
-                        sendAnswerToFrontend("⚠️ Error generating the natural-language answer.");
-                    }
-                });
+            if (pages > 0) {
+                pages++;
+                sendAnswerToFrontend(reqId, "[page " + pages + "] " + page.toString().trim()
+                        + " (end: " + delivered + " solutions from offset " + offset + ")");
+                return;
+            }
+            if (!groundTrue && delivered == 0) {
+                // ❌ No answer
+                answerCache.put(cacheKey, dependencies, noAnswer, stamp);
+                sendAnswerToFrontend(reqId, noAnswer);
+                return;
+            }
+
+            String logicResult = groundTrue ? "✅ The query is true." : page.toString().trim();
+            System.out.println("✅ Logical result: " + logicResult);
 
+            String local = answerTemplates.render(query, rows);
+            if (local != null) {
+                System.out.println("🧩 Answer rendered from template");
+                answerCache.put(cacheKey, dependencies, local, stamp);
+                sendAnswerToFrontend(reqId, local);
+                return;
+            }
+            // The raw result goes out now; "⏳" answers are provisional and replaced by the next one
+            sendAnswerToFrontend(reqId, "⏳ " + logicResult);
+            final long[] lastPartial = {System.currentTimeMillis()};
+            LLMService.humanizeAnswer(logicResult, query, new LLMService.StreamCallback() {
+                @Override
+                public void onPartial(String textSoFar) {
+                    long now = System.currentTimeMillis();
+                    if (now - lastPartial[0] < STREAM_THROTTLE_MS) return;
+                    lastPartial[0] = now;
+                    sendAnswerToFrontend(reqId, "⏳ " + textSoFar);
+                }
+
+                @Override
+                public void onSuccess(String result) {
+                    answerTemplates.learn(query, rows, result);
+                    answerCache.put(cacheKey, dependencies, result, stamp);
+                    sendAnswerToFrontend(reqId, result);
+                }
+
+                @Override
+                public void onError(String error) {
+                    System.err.println("⚠️ LLM error: " + error);
+                    sendAnswerToFrontend(reqId, "⚠️ Error generating the natural-language answer.");
+                }
+            });
+        } catch (org.jpl7.PrologException pe) {
+            String msg = String.valueOf(pe.getMessage());
+            if (msg.contains("time_limit_exceeded")) {
+                queriesTimedOut.incrementAndGet();
+                System.err.println("⏱️ Query cancelled (time limit): " + query);
+                sendAnswerToFrontend(reqId, "⏱️ The query was cancelled: it took longer than " + QUERY_TIMEOUT_MS + " ms.");
+            } else if (msg.contains("inference_limit_exceeded")) {
+                queriesOverInferenceLimit.incrementAndGet();
+                System.err.println("⏱️ Query cancelled (inference limit): " + query);
+                sendAnswerToFrontend(reqId, "⏱️ The query was cancelled: it needed more than " + QUERY_MAX_INFERENCES + " inferences.");
             } else {
-                // ❌ No answer
-                sendAnswerToFrontend("❌ There is no information in the knowledge base to answer this question.");
+                System.err.println("❌ Prolog error (query): " + msg);
+                sendAnswerToFrontend(reqId, noAnswer);
             }
         } catch (Exception e) {
             System.err.println("❌ Prolog error (query): " + e.getMessage());
-            sendAnswerToFrontend("❌ There is no information in the knowledge base to answer this question.");
+            sendAnswerToFrontend(reqId, noAnswer);
+        } finally {
+            if (q != null && q.isOpen()) {
+                q.close();
+            }
         }
     }
 
+    private static void appendSolution(StringBuilder out, Map<String, Term> solution) {
+        for (Map.Entry<String, Term> binding : solution.entrySet()) {
+            out.append(binding.getKey())
+                .append(" = ")
+                .append(binding.getValue())
+                .append("; ");
+        }
+    }
 
-    private void sendAnswerToFrontend(String response) {
-        String host = System.getenv().getOrDefault("FRONT_HOST", "127.0.0.1");
-        int port; try { port = Integer.parseInt(System.getenv().getOrDefault("FRONT_PORT", "5002")); } catch (Exception e) { port = 5002; }
-        try (Socket socket = new Socket(host, port);
-             OutputStreamWriter writer = new OutputStreamWriter(socket.getOutputStream())) {
-            writer.write(response + "\n");
-            writer.flush();
-            System.out.println("📤 Answer sent to the frontend: " + response);
-        } catch (IOException e) {
-            System.err.println("❌ Error sending to frontend: " + e.getMessage());
+    private static Map<String, String> bindings(Map<String, Term> solution) {
+        Map<String, String> out = new HashMap<>();
+        for (Map.Entry<String, Term> binding : solution.entrySet()) {
+            out.put(binding.getKey(), binding.getValue().toString());
         }
+        return out;
     }
 
-    private void declareDynamic(String clause) {
-        if (clause == null) {
-            return;
+    // Predicates a goal depends on: the ones it calls plus, transitively, the bodies of their rules
+    private Set<String> goalDependencies(Set<String> called) {
+        Set<String> deps = new HashSet<>();
+        Deque<String> todo = new ArrayDeque<>(called);
+        while (!todo.isEmpty()) {
+            String p = todo.pop();
+            if (!deps.add(p)) continue;
+            Set<String> body = ruleDependencies.get(p);
+            if (body != null) todo.addAll(body);
         }
-        String trimmed = clause.trim();
-        if (trimmed.isEmpty()) {
-            return;
+        return deps;
+    }
+
+    private void recordRule(ClauseReader.Clause clause) {
+        String head = clause.headKey();
+        if (clause.kind != ClauseReader.Clause.Kind.RULE || head == null) return;
+        ruleDependencies.computeIfAbsent(head, k -> java.util.concurrent.ConcurrentHashMap.newKeySet())
+                .addAll(clause.functors());
+    }
+
+    private void installQueryLimits() {
+        try {
+            boolean ok = engines.submitWrite(() ->
+                    new Query("use_module(library(time))").hasSolution()
+                    && new Query("assertz((" + LIMITED_CALL_RULE + "))").hasSolution()).get();
+            System.out.println("⏱ Query limits: timeout=" + QUERY_TIMEOUT_MS + " ms, inferences=" + QUERY_MAX_INFERENCES
+                    + (ok ? "" : " (NOT installed)"));
+        } catch (Exception e) {
+            System.err.println("❌ Unable to install query limits: " + e.getMessage());
         }
-        int ruleSep = indexOfTopLevel(trimmed, ":-");
-        if (ruleSep >= 0) {
-            trimmed = trimmed.substring(0, ruleSep).trim();
-        }
-        String name;
-        int arity = 0;
-        int paren = trimmed.indexOf('(');
-        if (paren < 0) {
-            name = trimmed;
-        } else {
-            name = trimmed.substring(0, paren).trim();
-            int close = trimmed.lastIndexOf(')');
-            if (close > paren) {
-                String args = trimmed.substring(paren + 1, close).trim();
-                if (!args.isEmpty()) {
-                    arity = splitTopLevelByComma(args).size();
+    }
+
+    private static String limitedGoal(String query) {
+        return "dabs_limited_call((" + query + "), "
+                + String.format(java.util.Locale.ROOT, "%.3f", QUERY_TIMEOUT_MS / 1000.0) + ", "
+                + QUERY_MAX_INFERENCES + ")";
+    }
+
+    // Load the KB from the precompiled image when it matches knowledge.pl, from source otherwise
+    private String loadKnowledgeBase() throws Exception {
+        if (image.isFresh()) {
+            try {
+                if (engines.submitWrite(() -> new Query(image.loadGoal()).hasSolution()).get()) {
+                    System.out.println("🧠 Loading knowledge image: OK");
+                    return "image";
                 }
+            } catch (java.util.concurrent.ExecutionException ee) {
+                System.err.println("[!] KB image not loadable, consulting the source: " + ee.getCause().getMessage());
             }
         }
-        if (name == null || name.isEmpty()) {
+        String consult = "consult('" + KB_FILE + "')";
+        boolean loaded;
+        try {
+            loaded = engines.submitWrite(() -> new Query(consult).hasSolution()).get();
+        } catch (java.util.concurrent.ExecutionException ee) {
+            // Surface the Prolog error thrown on the writer engine as before
+            throw ee.getCause() instanceof RuntimeException ? (RuntimeException) ee.getCause() : ee;
+        }
+        System.out.println("🧠 Loading knowledge.pl: " + (loaded ? "OK" : "FAILED"));
+        return "source";
+    }
+
+    // Dynamic declarations and rules already in knowledge.pl, read clause by clause (a rule may span lines)
+    private void indexKnowledgeFile() {
+        String text;
+        try {
+            text = new String(java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(KB_FILE)), java.nio.charset.StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("[!] Unable to read rules from knowledge.pl: " + e.getMessage());
+            return;
+        }
+        for (ClauseReader.Clause clause : ClauseReader.readAll(text)) {
+            String declared = clause.declaredDynamic();
+            if (declared != null) {
+                dynamicPredicates.add(declared);
+            } else {
+                recordRule(clause);
+            }
+        }
+    }
+
+    // Open the journal and replay the segments not yet folded into knowledge.pl
+    private int openJournal() throws Exception {
+        try {
+            journal = KnowledgeJournal.fromEnv(KB_FILE);
+        } catch (IOException e) {
+            System.err.println("[!] KB journal unavailable, writing to knowledge.pl directly: " + e.getMessage());
+            return 0;
+        }
+        if (image.isEnabled()) {
+            journal.setOnFolded(image::rebuildAsync);
+        }
+        int replayed = engines.submitWrite(() -> {
+            int[] count = {0};
+            journal.replay(line -> { replayLine(line); count[0]++; });
+            return count[0];
+        }).get();
+        System.out.println("📒 KB journal ready, " + replayed + " lines replayed (" + journal.describe() + ")");
+        return replayed;
+    }
+
+    private void replayLine(String line) {
+        try {
+            ClauseReader.Clause clause = ClauseReader.read(line);
+            String declared = clause.declaredDynamic();
+            if (declared != null) {
+                dynamicPredicates.add(declared);
+                new Query("dynamic(" + ClauseReader.quotedKey(declared) + ")").hasSolution();
+            } else if (clause.kind == ClauseReader.Clause.Kind.RULE) {
+                new Query("assertz((" + clause.text() + "))").hasSolution();
+                recordRule(clause);
+            } else {
+                new Query("assertz(" + clause.text() + ")").hasSolution();
+            }
+        } catch (Exception e) {
+            System.err.println("[!] Unable to replay journal line (" + line + "): " + e.getMessage());
+        }
+    }
+
+    // name/arity → clause count of the user predicates currently in Prolog (our dabs_* helpers excluded)
+    private void loadCatalog() {
+        try {
+            Map<String, Integer> counts = engines.submitWrite(() -> {
+                Map<String, Integer> out = new HashMap<>();
+                Query q = new Query("current_predicate(N/A), \\+ sub_atom(N, 0, _, _, dabs_), functor(H, N, A), "
+                        + "\\+ predicate_property(H, imported_from(_)), \\+ predicate_property(H, built_in), "
+                        + "predicate_property(H, number_of_clauses(C))");
+                for (Map<String, Term> row : q.allSolutions()) {
+                    out.put(row.get("N").name() + "/" + row.get("A").intValue(), row.get("C").intValue());
+                }
+                return out;
+            }).get();
+            catalog.load(counts);
+            System.out.println("📗 Predicate catalog loaded (" + catalog.describe() + ")");
+        } catch (Exception e) {
+            System.err.println("[!] Unable to build the predicate catalog: " + e.getMessage());
+        }
+    }
+
+    // Asserts run on the writer engine; the delta is published from the agent thread
+    private void catalogChanged(String key) {
+        catalog.addClause(key);
+        executor.post(this::publishCatalogDelta);
+    }
+
+    private void publishCatalogDelta() {
+        if (catalogPublisher == null) return; // still in setup: subscribers will get the full snapshot
+        String delta = catalog.drainDelta();
+        if (delta == null) return; // already sent with an earlier one
+        for (Object o : catalogPublisher.getSubscriptions()) {
+            SubscriptionResponder.Subscription sub = (SubscriptionResponder.Subscription) o;
+            sub.notify(catalogMessage(sub.getMessage().createReply(), delta));
+        }
+    }
+
+    private static ACLMessage catalogMessage(ACLMessage reply, String content) {
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setOntology(PredicateCatalog.ONTOLOGY);
+        reply.setContent(content);
+        return reply;
+    }
+
+    // Answers go back on the shared frontend channel, tagged with the id of the request they answer
+    private void sendAnswerToFrontend(String reqId, String response) {
+        FrontendChannel.get().send(reqId, response);
+    }
+
+    private void declareDynamic(String key) {
+        if (key == null) {
             return;
         }
-        String key = name + "/" + arity;
         if (!dynamicPredicates.add(key)) {
             return;
         }
-        String directive = ":- dynamic " + name + "/" + arity + ".";
+        String directive = ":- dynamic " + ClauseReader.quotedKey(key) + ".";
         appendToKnowledgeFile(directive);
         try {
-            Query q = new Query("dynamic(" + key + ")");
+            Query q = new Query("dynamic(" + ClauseReader.quotedKey(key) + ")");
             q.hasSolution();
         } catch (Exception e) {
             System.err.println("[!] Unable to declare predicate dynamic (" + key + "): " + e.getMessage());
         }
     }
 
-    private void appendToKnowledgeFile(String line) {
+    private java.util.concurrent.CompletableFuture<Void> appendToKnowledgeFile(String line) {
+        if (journal != null) {
+            // Every N appends fold the journal into knowledge.pl; the image is rebuilt after the fold
+            if (image.isEnabled() && appendsSinceImage.incrementAndGet() >= KnowledgeImage.rebuildEvery()) {
+                appendsSinceImage.set(0);
+                journal.checkpoint();
+            }
+            return journal.append(line).whenComplete((ok, err) -> {
+                if (err != null) System.err.println("[!] Error writing to the KB journal: " + err.getMessage());
+            });
+        }
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(KB_FILE, true))) {
             writer.write(line);
             writer.newLine();
         } catch (IOException e) {
             System.err.println("[!] Error writing to knowledge.pl: " + e.getMessage());
         }
+        return java.util.concurrent.CompletableFuture.completedFuture(null);
+    }
+
+    private static long parseLimit(String name, long def) {
+        try {
+            return Math.max(0L, Long.parseLong(System.getenv().getOrDefault(name, String.valueOf(def))));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private static int parsePageSize() {
+        try {
+            return Math.max(1, Integer.parseInt(System.getenv().getOrDefault("LOGIC_PAGE_SIZE", "50")));
+        } catch (NumberFormatException e) {
+            return 50;
+        }
     }
 
     protected void takeDown() {
@@ -400,6 +715,18 @@ public class LogicAgent extends Agent {
         } catch (FIPAException fe) {
             fe.printStackTrace();
         }
+        if (engines != null) {
+            engines.shutdown();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (image != null) {
+            image.shutdown();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
         System.out.println("🔴 LogicAgent terminated.");
     }
 
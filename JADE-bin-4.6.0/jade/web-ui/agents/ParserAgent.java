@@ -8,28 +8,39 @@ import jade.domain.FIPAAgentManagement.*;
 import jade.domain.FIPAException;
 import jade.domain.DFService;
 import jade.proto.SubscriptionInitiator;
-import jade.proto.AchieveREInitiator;
 
 import okhttp3.*;
+import utils.AgentExecutor;
+import utils.DirectProlog;
+import utils.FrontendChannel;
 import utils.LLMService;
+import utils.PeerHealth;
+import utils.PredicateCatalog;
+import utils.RequestHeader;
+import utils.RetryDispatcher;
+import utils.ServiceDirectory;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
-import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class ParserAgent extends Agent {
-    // Avoid retrying logic AIDs known to be unreachable for a short period
-    private final java.util.Map<String, Long> suppressLogicUntil = new java.util.HashMap<>();
-    private static final long SUPPRESS_MS = 60_000L; // 60s backoff for unreachable AIDs
+    private final PredicateCatalog catalog = new PredicateCatalog();
+    private final AtomicLong directInputs = new AtomicLong();
+    private final AtomicLong knownFailures = new AtomicLong();
+    private ServiceDirectory directory;
+    // LogicAgents known to be unreachable are skipped for a while
+    private PeerHealth health;
+    private RetryDispatcher dispatcher;
+    // LLM callbacks arrive on OkHttp threads: their results are handed to the agent thread
+    private AgentExecutor executor;
 
     protected void setup() {
         System.out.println("🟢 ParserAgent started");
+        executor = AgentExecutor.install(this);
 
         // DF registration
         ServiceDescription sd = new ServiceDescription();
@@ -47,6 +58,13 @@ public class ParserAgent extends Agent {
             fe.printStackTrace();
         }
 
+        // LogicAgents are looked up locally; the DF pushes changes
+        directory = ServiceDirectory.fromEnv(this);
+        directory.watch("logic");
+        health = PeerHealth.fromEnv(this);
+        health.start();
+        dispatcher = RetryDispatcher.fromEnv(this, health);
+
         // Respond to application-level pings from the Monitor
         addBehaviour(new CyclicBehaviour(this) {
             @Override
@@ -59,15 +77,32 @@ public class ParserAgent extends Agent {
                     reply.setPerformative(ACLMessage.INFORM);
                     reply.setContent("pong");
                     send(reply);
+                } else if ("stats".equals(content)) {
+                    ACLMessage reply = msg.createReply();
+                    reply.setPerformative(ACLMessage.INFORM);
+                    reply.setContent(catalog.describe() + " parser.direct=" + directInputs.get()
+                            + " parser.known_failures=" + knownFailures.get() + " " + directory.describe()
+                            + " " + health.describe() + " " + dispatcher.describe()
+                            + " " + executor.describe() + " " + LLMService.describe());
+                    send(reply);
                 }
             }
         });
 
-        // Behaviour to receive messages (excludes ping replies: content = "pong")
+        // Predicate catalog replica, kept up to date by the LogicAgent; translations read it instead of knowledge.pl
+        LLMService.usePredicateCatalog(catalog);
+        subscribeToCatalog();
+        LLMService.warmUp(); // TLS handshake now, not on the first translation
+
+        // Behaviour to receive messages (excludes ping replies: content = "pong", catalog updates and DF notifications)
         addBehaviour(new CyclicBehaviour() {
             private final jade.lang.acl.MessageTemplate MT = jade.lang.acl.MessageTemplate.and(
                     jade.lang.acl.MessageTemplate.MatchPerformative(ACLMessage.INFORM),
-                    jade.lang.acl.MessageTemplate.not(jade.lang.acl.MessageTemplate.MatchContent("pong"))
+                    jade.lang.acl.MessageTemplate.and(
+                            jade.lang.acl.MessageTemplate.not(jade.lang.acl.MessageTemplate.MatchContent("pong")),
+                            jade.lang.acl.MessageTemplate.and(
+                                    jade.lang.acl.MessageTemplate.not(jade.lang.acl.MessageTemplate.MatchOntology(PredicateCatalog.ONTOLOGY)),
+                                    jade.lang.acl.MessageTemplate.not(ServiceDirectory.NOTIFICATIONS)))
             );
 
             public void action() {
@@ -82,9 +117,9 @@ public class ParserAgent extends Agent {
 
                     // Distinguish between UserAgent and QueryAgent
                     if (s.equals("user") || s.startsWith("user-")) {
-                        handleUserMessage(input, "fact");
+                        handleUserMessage(input, "fact", msg.getConversationId());
                     } else if (s.equals("query") || s.startsWith("query-")) {
-                        handleUserMessage(input, "query");
+                        handleUserMessage(input, "query", msg.getConversationId());
                     } else {
                         System.out.println("⚠️ Unknown sender. Treated as fact.");
                         // TODO: handle other input types
@@ -101,9 +136,64 @@ public class ParserAgent extends Agent {
         });
     }
 
-    private void handleUserMessage(String userInput,String type) {
+    // Subscribes to the catalog of the first LogicAgent in the DF, retrying until one is registered
+    private void subscribeToCatalog() {
+        addBehaviour(new TickerBehaviour(this, 2000) {
+            protected void onTick() {
+                java.util.List<AID> logicAgents = directory.providers("logic");
+                if (logicAgents.isEmpty()) return;
+                AID logic = logicAgents.get(0);
+                ACLMessage subscribe = new ACLMessage(ACLMessage.SUBSCRIBE);
+                subscribe.addReceiver(logic);
+                subscribe.setOntology(PredicateCatalog.ONTOLOGY);
+                subscribe.setConversationId("catalog-" + System.currentTimeMillis());
+                myAgent.addBehaviour(new SubscriptionInitiator(myAgent, subscribe) {
+                    @Override
+                    protected void handleInform(ACLMessage inform) {
+                        health.alive(inform.getSender());
+                        if (!catalog.apply(inform.getContent())) {
+                            System.out.println("🔁 Predicate catalog out of sync, subscribing again");
+                            resubscribe(this, logic);
+                        }
+                    }
 
-        LLMService.translateToLogic(userInput,type, new LLMService.LLMCallback() {
+                    @Override
+                    protected void handleFailure(ACLMessage failure) {
+                        System.out.println("⚠️ Predicate catalog subscription failed, retrying");
+                        resubscribe(this, logic);
+                    }
+
+                    @Override
+                    protected void handleRefuse(ACLMessage refuse) {
+                        resubscribe(this, logic);
+                    }
+                });
+                System.out.println("📗 Subscribed to the predicate catalog of " + logic.getLocalName());
+                stop();
+            }
+        });
+    }
+
+    private void resubscribe(SubscriptionInitiator current, AID logic) {
+        current.cancel(logic, true);
+        subscribeToCatalog();
+    }
+
+    // reqId: id of the frontend request (ACL conversation-id), carried along so the answer reaches its caller
+    private void handleUserMessage(String userInput, String type, String reqId) {
+        // Options from the frontend (e.g. ##LIMIT:10;OFFSET:0## ...) travel with the formula, not to the LLM
+        RequestHeader header = RequestHeader.parse(userInput);
+
+        // Input that is already Prolog over known predicates needs no translation
+        String direct = DirectProlog.recognize(header.body(), type, catalog);
+        if (direct != null) {
+            directInputs.incrementAndGet();
+            System.out.println("⚡ Direct Prolog, no LLM call: " + direct);
+            sendToLogicAgent(direct, type, header, reqId);
+            return;
+        }
+
+        LLMService.translateToLogic(header.body(),type, new LLMService.LLMCallback() {
             public void onSuccess(String result) {
                 try {
                     JSONObject root = new JSONObject(result);
@@ -120,9 +210,16 @@ public class ParserAgent extends Agent {
                     }
 
                     System.out.println("✔ Formula logic obtained: " + content);
+
+                    // The question cannot be asked with the known predicates: the LogicAgent would only say so
+                    if (type.equalsIgnoreCase("query") && DirectProlog.isKnownFailure(content)) {
+                        knownFailures.incrementAndGet();
+                        notifyFrontend(reqId, DirectProlog.NO_ANSWER);
+                        return;
+                    }
     
-                    // TODO: Send formula to LogicAgent with retry every 2 seconds
-                    sendToLogicAgent(content, type);
+                    String formula = content;
+                    executor.post(() -> sendToLogicAgent(formula, type, header, reqId));
 
     
                 } catch (JSONException e) {
@@ -131,139 +228,36 @@ public class ParserAgent extends Agent {
             }
 
             public void onError(String error) {
+                // Breaker open, queue full or timed out, HTTP failure: the request ends here
                 System.err.println("❌ Error LLM: " + error);
+                notifyFrontend(reqId, "❌ Error: the request could not be translated (" + error + "). Please try again later.");
             }
         });
     }
 
 
-    private void sendToLogicAgent(String formula, String type) {
-        addBehaviour(new TickerBehaviour(this, 2000) {
-            private int attempts = 0;
-            private final int maxAttempts = 5;
-            private boolean inFlight = false;
-
-            protected void onTick() {
-                if (inFlight) {
-                    return; 
-                }
-
-                DFAgentDescription template = new DFAgentDescription();
-                ServiceDescription sd = new ServiceDescription();
-                sd.setType("logic");
-                template.addServices(sd);
-    
-                try {
-                    DFAgentDescription[] result = DFService.search(myAgent, template);
-                    if (result.length > 0) {
-                        
-                        AID logicAgentAID = null;
-                        long now = System.currentTimeMillis();
-                        for (DFAgentDescription d : result) {
-                            AID cand = d.getName();
-                            Long until = suppressLogicUntil.get(cand.getName());
-                            if (until == null || now >= until) { logicAgentAID = cand; break; }
-                        }
-                        if (logicAgentAID == null) {
-                            System.out.println("⏳ Tutti i LogicAgent candidati sono in backoff temporaneo. Riprovo...");
-                            attempts++;
-                            if (attempts >= maxAttempts) {
-                                System.out.println("❌ Impossibile contattare un LogicAgent dopo vari tentativi.");
-                                notifyFrontend("❌ Errore: LogicAgent non disponibile. Impossibile completare la richiesta.");
-                                stop();
-                            }
-                            return;
-                        }
-                        System.out.println("➡️ Destinatario LogicAgent: " + logicAgentAID.getName());
-
-                        // First check reachability with a ping (REQUEST→INFORM)
-                        ACLMessage ping = new ACLMessage(ACLMessage.REQUEST);
-                        ping.addReceiver(logicAgentAID);
-                        ping.setContent("ping");
-                        ping.setReplyByDate(new Date(System.currentTimeMillis() + 1800));
-
-                        inFlight = true;
-                        final TickerBehaviour tb = this;
-                        final AID destAID = logicAgentAID; 
-                        addBehaviour(new AchieveREInitiator(myAgent, ping) {
-                            private boolean anyInform = false;
-
-                            @Override
-                            protected void handleInform(ACLMessage inform) {
-                                anyInform = true;
-                                String prefix = "##TYPE:" + (type == null ? "auto" : type.toLowerCase()) + "## ";
-                                ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
-                                msg.addReceiver(destAID);
-                                msg.setContent(prefix + formula);
-                                send(msg);
-                                System.out.println("📤 Formula sent to LogicAgent: " + prefix + formula);
-                                System.out.println("✅ ParserAgent ready to receive a new message...");
-                                inFlight = false;
-                                tb.stop(); // Ferma il TickerBehaviour
-                            }
-
-                            @Override
-                            protected void handleFailure(ACLMessage failure) {
-                                attempts++;
-                                System.out.println("⚠️ Ping to LogicAgent failed (attempt " + attempts + ")");
-                                suppressLogicUntil.put(destAID.getName(), System.currentTimeMillis() + SUPPRESS_MS);
-                            }
-
-                            @Override
-                            protected void handleRefuse(ACLMessage refuse) {
-                                attempts++;
-                                System.out.println("⚠️ Ping to LogicAgent refused (attempt " + attempts + ")");
-                                suppressLogicUntil.put(destAID.getName(), System.currentTimeMillis() + SUPPRESS_MS);
-                            }
-
-                            @Override
-                            protected void handleAllResultNotifications(java.util.Vector notifications) {
-                                // Se nessun INFORM ricevuto, considera timeout
-                                if (!anyInform) {
-                                    attempts++;
-                                    System.out.println("⏱️ Ping timeout LogicAgent (attempt " + attempts + ")");
-                                    suppressLogicUntil.put(destAID.getName(), System.currentTimeMillis() + SUPPRESS_MS);
-                                }
-                                if (attempts >= maxAttempts) {
-                                    System.out.println("❌ Unable to contact LogicAgent after several attempts.");
-                                    notifyFrontend("❌ Error: LogicAgent unavailable. Cannot complete the request.");
-                                    tb.stop();
-                                }
-                                inFlight = false;
-                            }
-                        });
-                    } else {
-                        System.out.println("🔁 LogicAgent not found, retrying...");
-                        attempts++;
-                        if (attempts >= maxAttempts) {
-                            System.out.println("❌ Unable to contact LogicAgent after several attempts.");
-                            notifyFrontend("❌ Error: LogicAgent unavailable. Cannot complete the request.");
-                            stop();
-                        }
-                    }
-                } catch (FIPAException e) {
-                    e.printStackTrace();
-                }
-            }
+    // Sent at once; retried with backoff (and to another LogicAgent if one is unreachable) until the deadline
+    private void sendToLogicAgent(String formula, String type, RequestHeader header, String reqId) {
+        String prefix = header.set("TYPE", type == null ? "auto" : type.toLowerCase()).prefix();
+        ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
+        msg.setContent(prefix + formula);
+        msg.setConversationId(reqId);
+        dispatcher.dispatch(() -> directory.providers("logic"), msg, reason -> {
+            System.out.println("❌ Unable to contact LogicAgent (" + reason + ").");
+            notifyFrontend(reqId, "❌ Error: LogicAgent unavailable. Cannot complete the request.");
         });
+        System.out.println("📤 Formula sent to LogicAgent: " + prefix + formula);
     }
 
-    // Notify errors to the frontend (reuses channel 5002)
-    private void notifyFrontend(String message) {
-        String host = System.getenv().getOrDefault("FRONT_HOST", "127.0.0.1");
-        int port; try { port = Integer.parseInt(System.getenv().getOrDefault("FRONT_PORT", "5002")); } catch (Exception e) { port = 5002; }
-        try (Socket socket = new Socket(host, port);
-             OutputStreamWriter writer = new OutputStreamWriter(socket.getOutputStream())) {
-            writer.write(message + "\n");
-            writer.flush();
-            System.out.println("📤 Error notified to the frontend: " + message);
-        } catch (IOException e) {
-            System.err.println("❌ Error sending error to the frontend: " + e.getMessage());
-        }
+    // Notify errors to the frontend (shared channel to port 5002)
+    private void notifyFrontend(String reqId, String message) {
+        FrontendChannel.get().send(reqId, message);
     }
     
     @Override
     protected void takeDown() {
+        if (directory != null) directory.close();
+        if (executor != null) executor.shutdown();
         try { DFService.deregister(this); } catch (FIPAException ignored) {}
         System.out.println("ParserAgent deregistered from DF");
         super.takeDown();
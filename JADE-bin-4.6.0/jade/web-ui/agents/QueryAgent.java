@@ -2,21 +2,32 @@ package agents;
 
 import jade.core.Agent;
 import jade.core.AID;
-import jade.core.behaviours.TickerBehaviour;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.*;
 import jade.lang.acl.ACLMessage;
 import jade.domain.FIPAException;
-import jade.proto.AchieveREInitiator;
 
-import java.io.*;
-import java.net.*;
+import utils.AgentExecutor;
+import utils.FrontendChannel;
+import utils.IngestionServer;
+import utils.PeerHealth;
+import utils.RequestHeader;
+import utils.RetryDispatcher;
+import utils.ServiceDirectory;
+
+import java.io.IOException;
 
 public class QueryAgent extends Agent {
-    private final java.util.Map<String, Long> suppressParserUntil = new java.util.HashMap<>();
-    private static final long SUPPRESS_MS = 60_000L;
+    private ServiceDirectory directory;
+    // ParserAgents known to be unreachable are skipped for a while
+    private PeerHealth health;
+    private RetryDispatcher dispatcher;
+    // The socket listener hands each request to the agent thread
+    private AgentExecutor executor;
+    private IngestionServer ingest;
     protected void setup() {
         System.out.println("🟢 QueryAgent started");
+        executor = AgentExecutor.install(this);
 
         // DF registration
         ServiceDescription sd = new ServiceDescription();
@@ -33,7 +44,14 @@ public class QueryAgent extends Agent {
         } catch (FIPAException fe) {
             fe.printStackTrace();
         }
-        
+
+        // ParserAgents are looked up locally; the DF pushes changes
+        directory = ServiceDirectory.fromEnv(this);
+        directory.watch("parser");
+        health = PeerHealth.fromEnv(this);
+        health.start();
+        dispatcher = RetryDispatcher.fromEnv(this, health);
+
         // Respond to application-level pings from the Monitor
         addBehaviour(new jade.core.behaviours.CyclicBehaviour(this) {
             @Override
@@ -46,135 +64,56 @@ public class QueryAgent extends Agent {
                     reply.setPerformative(jade.lang.acl.ACLMessage.INFORM);
                     reply.setContent("pong");
                     send(reply);
+                } else if ("stats".equals(content)) {
+                    jade.lang.acl.ACLMessage reply = msg.createReply();
+                    reply.setPerformative(jade.lang.acl.ACLMessage.INFORM);
+                    reply.setContent(executor.describe() + " " + directory.describe() + " " + health.describe()
+                            + " " + dispatcher.describe() + " " + ingest.describe());
+                    send(reply);
                 }
             }
         });
         
-        // Socket listener on port 5001
-        new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(5001, 0, InetAddress.getByName("0.0.0.0"))) {
-                System.out.println("🌐 Waiting for queries on port 5001...");
-                while (true) {
-                    Socket socket = serverSocket.accept();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                    String query = reader.readLine();
-
-                    if (query != null && !query.trim().isEmpty()) {
-                        System.out.println("🔎 Query received: " + query);
-                        addBehaviour(new SendToParserBehaviour(query));
-                    }
-
-                    socket.getOutputStream().write("✅ Query received.\n".getBytes());
-                    socket.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }).start();
-    }
-
-    private class SendToParserBehaviour extends TickerBehaviour {
-        private String input;
-        private int attempts = 0;
-        private final int maxAttempts = 5;
-
-        public SendToParserBehaviour(String input) {
-            super(QueryAgent.this, 2000);
-            this.input = input;
+        // Socket listener on port 5001: persistent and pipelined connections, one selector thread
+        ingest = IngestionServer.fromEnv("query-ingest", "0.0.0.0", 5001, query -> {
+            System.out.println("🔎 Query received: " + query);
+            // The frontend request id (##REQ:<id>##) travels as the ACL conversation-id
+            RequestHeader header = RequestHeader.parse(query);
+            String reqId = header.get("REQ");
+            header.set("REQ", null);
+            String forward = header.toString();
+            executor.post(() -> sendToParser(forward, reqId));
+            return "✅ Query received.";
+        });
+        try {
+            ingest.start();
+            System.out.println("🌐 Waiting for queries on port 5001...");
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
-        @Override
-        protected void onTick() {
-            DFAgentDescription template = new DFAgentDescription();
-            ServiceDescription sd = new ServiceDescription();
-            sd.setType("parser");
-            template.addServices(sd);
-
-            try {
-                DFAgentDescription[] results = DFService.search(myAgent, template);
-                if (results.length > 0) {
-                    AID parserAID = null;
-                    long now = System.currentTimeMillis();
-                    for (DFAgentDescription d : results) {
-                        AID cand = d.getName();
-                        Long until = suppressParserUntil.get(cand.getName());
-                        if (until == null || now >= until) { parserAID = cand; break; }
-                    }
-                    if (parserAID == null) {
-                        System.out.println("⏳ All candidate ParserAgents are in temporary backoff. Retrying...");
-                        attempts++;
-                        if (attempts >= maxAttempts) {
-                            System.out.println("❌ Unable to contact ParserAgent after several attempts.");
-                            sendErrorToFrontend("❌ Error: ParserAgent unavailable. Please try again later.");
-                            stop();
-                        }
-                        return;
-                    }
-                    // Ping before sending, to avoid false positives if it's still in DF but unreachable
-                    ACLMessage ping = new ACLMessage(ACLMessage.REQUEST);
-                    ping.addReceiver(parserAID);
-                    ping.setContent("ping");
-                    ping.setReplyByDate(new java.util.Date(System.currentTimeMillis() + 1800));
-
-                    final TickerBehaviour tb = this;
-                    final AID destAID = parserAID; 
-                    addBehaviour(new AchieveREInitiator(myAgent, ping) {
-                        private boolean anyInform = false;
-
-                        @Override
-                        protected void handleInform(ACLMessage inform) {
-                            anyInform = true;
-                            ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
-                            msg.addReceiver(destAID);
-                            msg.setContent(input);
-                            send(msg);
-                            System.out.println("📤 Query sent to ParserAgent: " + input);
-                            tb.stop();
-                        }
-
-                        @Override protected void handleFailure(ACLMessage failure) { attempts++; System.out.println("⚠️ Ping to Parser failed (attempt " + attempts + ")"); suppressParserUntil.put(destAID.getName(), System.currentTimeMillis() + SUPPRESS_MS); }
-                        @Override protected void handleRefuse(ACLMessage refuse) { attempts++; System.out.println("⚠️ Ping to Parser refused (attempt " + attempts + ")"); suppressParserUntil.put(destAID.getName(), System.currentTimeMillis() + SUPPRESS_MS); }
-                        @Override
-                        protected void handleAllResultNotifications(java.util.Vector v) {
-                            if (!anyInform) { attempts++; System.out.println("⏱️ Ping timeout Parser (attempt " + attempts + ")"); suppressParserUntil.put(destAID.getName(), System.currentTimeMillis() + SUPPRESS_MS); }
-                            if (attempts >= maxAttempts) {
-                                System.out.println("❌ Unable to contact ParserAgent after several attempts.");
-                                sendErrorToFrontend("❌ Error: ParserAgent unavailable. Please try again later.");
-                                tb.stop();
-                            }
-                        }
-                    });
-                } else {
-                    System.out.println("⌛ ParserAgent not yet available...");
-                    attempts++;
-                    if (attempts >= maxAttempts) {
-                        System.out.println("❌ Unable to contact ParserAgent after several attempts.");
-                        sendErrorToFrontend("❌ Error: ParserAgent unavailable. Please try again later.");
-                        stop();
-                    }
-                }
-            } catch (FIPAException fe) {
-                fe.printStackTrace();
-            }
-        }
+    // Sent at once; retried with backoff (and to another ParserAgent if one is unreachable) until the deadline
+    private void sendToParser(String input, String reqId) {
+        ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
+        msg.setContent(input);
+        msg.setConversationId(reqId);
+        dispatcher.dispatch(() -> directory.providers("parser"), msg, reason -> {
+            System.out.println("❌ Unable to contact ParserAgent (" + reason + ").");
+            sendErrorToFrontend(reqId, "❌ Error: ParserAgent unavailable. Please try again later.");
+        });
     }
 
     // Notify errors to the frontend (same channel used by the LogicAgent)
-    private void sendErrorToFrontend(String message) {
-        String host = System.getenv().getOrDefault("FRONT_HOST", "127.0.0.1");
-        int port; try { port = Integer.parseInt(System.getenv().getOrDefault("FRONT_PORT", "5002")); } catch (Exception e) { port = 5002; }
-        try (Socket socket = new Socket(host, port);
-             OutputStreamWriter writer = new OutputStreamWriter(socket.getOutputStream())) {
-            writer.write(message + "\n");
-            writer.flush();
-            System.out.println("📤 Error notified to the frontend: " + message);
-        } catch (IOException e) {
-            System.err.println("❌ Error sending error to the frontend: " + e.getMessage());
-        }
+    private void sendErrorToFrontend(String reqId, String message) {
+        FrontendChannel.get().send(reqId, message);
     }
 
     @Override
     protected void takeDown() {
+        if (ingest != null) ingest.close();
+        if (directory != null) directory.close();
+        if (executor != null) executor.shutdown();
         try { DFService.deregister(this); } catch (FIPAException ignored) {}
         System.out.println("QueryAgent deregistered from DF");
         super.takeDown();
@@ -2,12 +2,7 @@ package agents;
 
 import jade.core.Agent;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 
 import jade.core.AID;
 import jade.core.behaviours.*;
@@ -16,10 +11,27 @@ import jade.domain.FIPAAgentManagement.*;
 import jade.domain.DFService;
 import jade.domain.FIPAException;
 
+import utils.AgentExecutor;
+import utils.FrontendChannel;
+import utils.IngestionServer;
+import utils.PeerHealth;
+import utils.RequestHeader;
+import utils.RetryDispatcher;
+import utils.ServiceDirectory;
+
 public class UserAgent extends Agent {
+    private ServiceDirectory directory;
+    // ParserAgents known to be unreachable are skipped for a while
+    private PeerHealth health;
+    private RetryDispatcher dispatcher;
+    // The socket listener hands each request to the agent thread
+    private AgentExecutor executor;
+    private IngestionServer ingest;
+
     protected void setup() {
 
         System.out.println("🟢 UserAgent started");
+        executor = AgentExecutor.install(this);
 
         // DF registration
         ServiceDescription sd = new ServiceDescription();
@@ -39,7 +51,13 @@ public class UserAgent extends Agent {
             fe.printStackTrace();
         }
 
-        
+        // ParserAgents are looked up locally; the DF pushes changes
+        directory = ServiceDirectory.fromEnv(this);
+        directory.watch("parser");
+        health = PeerHealth.fromEnv(this);
+        health.start();
+        dispatcher = RetryDispatcher.fromEnv(this, health);
+
         addBehaviour(new CyclicBehaviour(this) {
             @Override
             public void action() {
@@ -51,80 +69,53 @@ public class UserAgent extends Agent {
                     reply.setPerformative(ACLMessage.INFORM);
                     reply.setContent("pong");
                     send(reply);
+                } else if ("stats".equals(content)) {
+                    ACLMessage reply = msg.createReply();
+                    reply.setPerformative(ACLMessage.INFORM);
+                    reply.setContent(executor.describe() + " " + directory.describe() + " " + health.describe()
+                            + " " + dispatcher.describe() + " " + ingest.describe());
+                    send(reply);
                 }
             }
         });
 
-        // Thread socket listener (port 5000)
-        new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(5000, 0, InetAddress.getByName("127.0.0.1"))) {
-                System.out.println("🌐 Waiting for messages on port 5000...");
-                while (true) {
-                    Socket socket = serverSocket.accept();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                    String input = reader.readLine();
-
-                    if (input != null && !input.trim().isEmpty()) {
-                        System.out.println("📨 Message received from the frontend: " + input);
-
-                        addBehaviour(new SendToParserBehaviour(input));
-                    }
-
-                    socket.getOutputStream().write("✅ Fact received.\n".getBytes());
-                    socket.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }).start();
+        // Socket listener (port 5000): persistent and pipelined connections, one selector thread
+        ingest = IngestionServer.fromEnv("user-ingest", "127.0.0.1", 5000, input -> {
+            System.out.println("📨 Message received from the frontend: " + input);
+
+            // The frontend request id (##REQ:<id>##) travels as the ACL conversation-id
+            RequestHeader header = RequestHeader.parse(input);
+            String reqId = header.get("REQ");
+            header.set("REQ", null);
+            String forward = header.toString();
+            executor.post(() -> sendToParser(forward, reqId));
+            return "✅ Fact received.";
+        });
+        try {
+            ingest.start();
+            System.out.println("🌐 Waiting for messages on port 5000...");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
     }
 
-    private class SendToParserBehaviour extends TickerBehaviour {
-        private String input;
-        private int attempts = 0;
-        private final int maxAttempts = 5;
-    
-        public SendToParserBehaviour(String input) {
-            super(UserAgent.this, 2000); // every 2 seconds
-            this.input = input;
-        }
-    
-        @Override
-        protected void onTick() {
-            DFAgentDescription template = new DFAgentDescription();
-            ServiceDescription sd = new ServiceDescription();
-            sd.setType("parser");
-            template.addServices(sd);
-    
-            try {
-                DFAgentDescription[] results = DFService.search(myAgent, template);
-                if (results.length > 0) {
-                    AID parserAID = results[0].getName();
-                    System.out.println("🎯 ParserAgent found: " + parserAID.getLocalName());
-    
-                    ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
-                    msg.addReceiver(parserAID);
-                    msg.setContent(input);
-                    send(msg);
-                    System.out.println("📤 Sent message to ParserAgent: " + input);
-                    stop();
-                } else {
-                    System.out.println("⌛ ParserAgent not yet available...");
-                    attempts++;
-                    if (attempts >= maxAttempts) {
-                        System.out.println("❌ Unable to contact ParserAgent after several attempts.");
-                        notifyFrontend("❌ Error: ParserAgent unavailable. The fact was not processed.");
-                        stop();
-                    }
-                }
-            } catch (FIPAException fe) {
-                fe.printStackTrace();
-            }
-        }
+    // Sent at once; retried with backoff (and to another ParserAgent if one is unreachable) until the deadline
+    private void sendToParser(String input, String reqId) {
+        ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
+        msg.setContent(input);
+        msg.setConversationId(reqId);
+        dispatcher.dispatch(() -> directory.providers("parser"), msg, reason -> {
+            System.out.println("❌ Unable to contact ParserAgent (" + reason + ").");
+            notifyFrontend(reqId, "❌ Error: ParserAgent unavailable. The fact was not processed.");
+        });
     }
+
     @Override
     protected void takeDown() {
+        if (ingest != null) ingest.close();
+        if (directory != null) directory.close();
+        if (executor != null) executor.shutdown();
         try {
             DFService.deregister(this);
             System.out.println("UserAgent deregistered from DF");
@@ -132,17 +123,8 @@ public class UserAgent extends Agent {
         super.takeDown();
     }
 
-    // Notify errors to the frontend (reuses channel 5002)
-    private void notifyFrontend(String message) {
-        String host = System.getenv().getOrDefault("FRONT_HOST", "127.0.0.1");
-        int port; try { port = Integer.parseInt(System.getenv().getOrDefault("FRONT_PORT", "5002")); } catch (Exception e) { port = 5002; }
-        try (java.net.Socket socket = new java.net.Socket(host, port);
-             java.io.OutputStreamWriter writer = new java.io.OutputStreamWriter(socket.getOutputStream())) {
-            writer.write(message + "\n");
-            writer.flush();
-            System.out.println("📤 Error notified to the frontend: " + message);
-        } catch (java.io.IOException e) {
-            System.err.println("❌ Error sending error to the frontend: " + e.getMessage());
-        }
+    // Notify errors to the frontend (shared channel to port 5002)
+    private void notifyFrontend(String reqId, String message) {
+        FrontendChannel.get().send(reqId, message);
     }
 }
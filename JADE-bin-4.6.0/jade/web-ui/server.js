@@ -2,12 +2,14 @@
 const express = require('express');
 const path = require('path');
 const { exec } = require('child_process');
+const crypto = require('crypto');
 
 const app = express();
 const PORT = 4000;
 const QUERY_HOST = process.env.QUERY_HOST || '127.0.0.1';
 const QUERY_PORT = parseInt(process.env.QUERY_PORT || '5001', 10);
 const RESULT_TIMEOUT_MS = parseInt(process.env.RESULT_TIMEOUT_MS || process.env.QUERY_TIMEOUT_MS || '10000', 10);
+const ANSWER_TTL_MS = parseInt(process.env.ANSWER_TTL_MS || '300000', 10);
 
 // Silence logs during tests to avoid breaking the TAP parser
 const isTestEnv = process.env.NODE_ENV === 'test';
@@ -59,11 +61,12 @@ app.post('/send-fact', (req, res) => {
     const net = require('net');
     const fact = req.body.fact;
     log(`📨 Request received from client: ${fact}`);
+    const id = openRequest("⏳ Waiting for confirmation...", "❌ Error: No confirmation from the system (timeout).");
 
     const client = new net.Socket();
     client.connect(5000, '127.0.0.1', () => {
         log('🔌 Connection to UserAgent established');
-        client.write(fact + '\n'); 
+        client.write(`##REQ:${id}## ` + fact + '\n');
         client.end();
         // prepare response area and timeout on GUI side
         latestAnswer = "⏳ Waiting for confirmation...";
@@ -73,7 +76,7 @@ app.post('/send-fact', (req, res) => {
           pendingTimer = null;
           log("⏱️ Confirmation timeout");
         }, RESULT_TIMEOUT_MS);
-        res.status(200).send('Done');
+        res.set('X-Request-Id', id).status(200).send('Done');
     });
 
     client.on('error', (err) => {
@@ -91,9 +94,21 @@ app.post('/send-fact', (req, res) => {
 
 /////////////////////////////////////////////////////////////
 
+// Optional paging options for LogicAgent: limit, offset, mode ("count" for a count-only answer)
+function queryOptionsHeader(body, id) {
+    const fields = [`REQ:${id}`];
+    const limit = parseInt(body.limit, 10);
+    const offset = parseInt(body.offset, 10);
+    if (Number.isInteger(limit) && limit >= 0) fields.push(`LIMIT:${limit}`);
+    if (Number.isInteger(offset) && offset > 0) fields.push(`OFFSET:${offset}`);
+    if (body.mode === 'count') fields.push('MODE:count');
+    return `##${fields.join(';')}## `;
+}
+
 app.post('/send-query', (req, res) => {
     const net = require('net');
-    const query = req.body.message;
+    const id = openRequest("⏳ Waiting for a response...", "❌ Error: No response from LogicAgent (timeout).");
+    const query = queryOptionsHeader(req.body, id) + req.body.message;
     log("🔎 Query received:", query);
 
     latestAnswer = "⏳ Waiting for a response..."; // reset previous answer
@@ -109,7 +124,7 @@ app.post('/send-query', (req, res) => {
         log('🔌 Connection to QueryAgent established');
         client.write(query + '\n');
         client.end();
-        res.status(200).send("Query sent to the multi-agent system.");
+        res.set('X-Request-Id', id).status(200).send("Query sent to the multi-agent system.");
     });
 
     client.on('error', (err) => {
@@ -125,23 +140,109 @@ app.post('/send-query', (req, res) => {
 });
 
 
+// With ?id= the answer of that request, otherwise the latest answer received (older clients)
 app.get('/get-query-result', (req, res) => {
-  res.json({ answer: latestAnswer });
+  const id = req.query.id;
+  if (id) {
+    const entry = requests.get(id);
+    const answer = entry ? entry.answer : "❌ Error: unknown or expired request.";
+    return res.json({ id, answer, pending: isPending(answer) });
+  }
+  res.json({ answer: latestAnswer, pending: isPending(latestAnswer) });
 });
 
+// Still waiting, a provisional answer, or a paged result whose last page ("(end: ...)") has not arrived yet
+function isPending(answer) {
+  return answer.includes("⏳") || (answer.startsWith('[page ') && !answer.includes('(end: '));
+}
+
 
 const net = require("net");
 
 let latestAnswer = "⏳ Waiting for a response...";
 let pendingTimer = null;
 
+// Answers by request id: every request sent to the agents carries ##REQ:<id>## and its answers come back tagged with it
+const requests = new Map();
+
+function openRequest(waiting, timeoutMessage) {
+  const now = Date.now();
+  for (const [key, entry] of requests) {
+    if (now - entry.at > ANSWER_TTL_MS) requests.delete(key);
+  }
+  const id = crypto.randomUUID();
+  const entry = { answer: waiting, at: now, timer: null };
+  entry.timer = setTimeout(() => { entry.answer = timeoutMessage; entry.timer = null; }, RESULT_TIMEOUT_MS);
+  entry.timer.unref();
+  requests.set(id, entry);
+  return id;
+}
+
+// Large results arrive as "[page N] ..." lines: keep the pages of the current answer together
+function mergeAnswer(current, result) {
+  const page = /^\[page (\d+)\]/.exec(result);
+  return page && page[1] !== '1' && current.startsWith('[page ') ? current + '\n' + result : result;
+}
+
+function deliverAnswer(id, result) {
+  log("📥 Answer received from LogicAgent:", id ? `[${id}] ${result}` : result);
+  latestAnswer = mergeAnswer(latestAnswer, result);
+  if (pendingTimer) { clearTimeout(pendingTimer); pendingTimer = null; }
+  const entry = id ? requests.get(id) : null;
+  if (entry) {
+    entry.answer = mergeAnswer(entry.answer, result);
+    entry.at = Date.now();
+    if (entry.timer) { clearTimeout(entry.timer); entry.timer = null; }
+  }
+}
+
+// Agents keep one connection open and announce it with "DABS1\n"; each answer is then a frame:
+// 4-byte big-endian length + JSON {id, answer}. Connections without the preamble carry one plain-text answer.
+const FRAME_PREAMBLE = Buffer.from('DABS1\n');
+const MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
 // 🔁 Socket to receive the response from LogicAgent
 const resultServer = net.createServer((socket) => {
+  let framed = null;
+  let buffer = Buffer.alloc(0);
   socket.on("data", (data) => {
-    const result = data.toString().trim();
-    log("📥 Answer received from LogicAgent:", result);
-    latestAnswer = result;
-    if (pendingTimer) { clearTimeout(pendingTimer); pendingTimer = null; }
+    if (framed === null) {
+      // The preamble may arrive split across reads: decide only once it can be told apart
+      buffer = buffer.length ? Buffer.concat([buffer, data]) : data;
+      const n = Math.min(buffer.length, FRAME_PREAMBLE.length);
+      const prefix = buffer.subarray(0, n).equals(FRAME_PREAMBLE.subarray(0, n));
+      if (prefix && n < FRAME_PREAMBLE.length) return;
+      framed = prefix;
+      data = framed ? buffer.subarray(FRAME_PREAMBLE.length) : buffer;
+      buffer = Buffer.alloc(0);
+    }
+    if (!framed) {
+      deliverAnswer(null, data.toString().trim());
+      return;
+    }
+    buffer = buffer.length ? Buffer.concat([buffer, data]) : data;
+    while (buffer.length >= 4) {
+      const length = buffer.readUInt32BE(0);
+      if (length > MAX_FRAME_BYTES) {
+        error("❌ Oversized frame on result socket, closing it");
+        socket.destroy();
+        return;
+      }
+      if (buffer.length < 4 + length) break;
+      const frame = buffer.subarray(4, 4 + length);
+      buffer = buffer.subarray(4 + length);
+      try {
+        const { id, answer } = JSON.parse(frame.toString('utf8'));
+        deliverAnswer(id || null, String(answer).trim());
+      } catch (err) {
+        error("❌ Invalid frame on result socket:", err.message);
+      }
+    }
+  });
+
+  socket.on("end", () => {
+    // Too short to be a preamble: a plain-text answer
+    if (framed === null && buffer.length) deliverAnswer(null, buffer.toString().trim());
   });
 
   socket.on("error", (err) => {
@@ -167,5 +268,5 @@ if (require.main === module) {
 }
 
 
-module.exports = { app, resultServer, setLatestAnswer: (ans) => { latestAnswer = ans; } };
+module.exports = { app, resultServer, setLatestAnswer: (ans) => { latestAnswer = ans; }, openRequest };
 
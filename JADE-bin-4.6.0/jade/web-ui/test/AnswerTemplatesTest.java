@@ -0,0 +1,68 @@
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import utils.AnswerTemplates;
+
+public class AnswerTemplatesTest {
+
+    private static List<Map<String, String>> binding(String var, String value) {
+        Map<String, String> row = new HashMap<>();
+        row.put(var, value);
+        List<Map<String, String>> rows = new ArrayList<>();
+        rows.add(row);
+        return rows;
+    }
+
+    @Test
+    public void templateIsUsedOnlyOnceTheAgreementThresholdIsReached() {
+        AnswerTemplates t = new AnswerTemplates(true, 5, 2);
+        List<Map<String, String>> none = Collections.emptyList();
+
+        t.learn("?- works_at(mario, unical).", none, "Mario works at Unical.");
+        assertNull(t.render("?- works_at(anna, polimi).", none)); // one answer is not enough
+
+        t.learn("?- works_at(luca, unipi).", none, "Luca works at Unipi.");
+        assertEquals("Anna works at Polimi.", t.render("?- works_at(anna, polimi).", none));
+        assertTrue(t.describe().contains("templates.active=1"));
+    }
+
+    @Test
+    public void differentPhrasingRestartsTheCount() {
+        AnswerTemplates t = new AnswerTemplates(true, 5, 2);
+        List<Map<String, String>> none = Collections.emptyList();
+        t.learn("?- likes(mario, pizza).", none, "Mario likes pizza.");
+        t.learn("?- likes(anna, pasta).", none, "Yes, Anna loves pasta.");
+        assertNull(t.render("?- likes(luca, sushi).", none));
+        t.learn("?- likes(ugo, riso).", none, "Yes, Ugo loves riso.");
+        assertEquals("Yes, Luca loves sushi.", t.render("?- likes(luca, sushi).", none));
+    }
+
+    @Test
+    public void bindingsFillTheSlotsOneSentencePerSolution() {
+        AnswerTemplates t = new AnswerTemplates(true, 5, 1);
+        t.learn("?- teaches(X, logic).", binding("X", "prof_rossi"), "Prof rossi teaches logic.");
+
+        List<Map<String, String>> rows = binding("X", "bianchi");
+        rows.addAll(binding("X", "'Verdi'"));
+        assertEquals("Bianchi teaches logic. Verdi teaches logic.", t.render("?- teaches(X, logic).", rows));
+    }
+
+    @Test
+    public void unsupportedAnswersGoToTheLlm() {
+        AnswerTemplates t = new AnswerTemplates(true, 1, 1);
+        List<Map<String, String>> none = Collections.emptyList();
+        t.learn("?- likes(mario, pizza).", none, "Mario likes pizza.");
+
+        List<Map<String, String>> two = binding("X", "a");
+        two.addAll(binding("X", "b"));
+        assertNull(t.render("?- likes(X, pizza).", two));                        // over HUMANIZER_MAX_LIST
+        assertNull(t.render("?- likes(mario, X), likes(X, pizza).", none));      // conjunction
+        assertNull(t.render("?- likes(X, pizza).", binding("X", "f(a)")));      // compound value
+        assertNull(new AnswerTemplates(false, 5, 1).render("?- likes(mario, pizza).", none));
+    }
+}
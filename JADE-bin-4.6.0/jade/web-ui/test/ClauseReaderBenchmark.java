@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import utils.ClauseReader;
+
+/**
+ * Microbenchmark: the regex/rescan pipeline LogicAgent and LLMService used before ClauseReader
+ * against a single ClauseReader pass. Both sides classify the message, split conjunctions,
+ * look for variables and collect name/arity keys.
+ * Run with: test/run-java-tests.sh --bench
+ */
+public class ClauseReaderBenchmark {
+
+    private static final String[] INPUTS = {
+        "?- parent(X, mary), age(X, N), N >= 18.",
+        "likes(mario, pizza).",
+        "grandparent(X, Z) :- parent(X, Y), parent(Y, Z).",
+        "owns(anna, car), owns(anna, bike), lives(anna, rome).",
+        "```prolog\n% translated\nteaches(prof_rossi, logic_course). % note\n```",
+        "?- findall(X, (student(X), enrolled(X, ai)), L), length(L, N).",
+    };
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        long sink = 0;
+        for (int warm = 0; warm < 3; warm++) {
+            sink += legacy(rounds / 4) + reader(rounds / 4);
+        }
+        long t0 = System.nanoTime();
+        sink += legacy(rounds);
+        long legacyNanos = System.nanoTime() - t0;
+        t0 = System.nanoTime();
+        sink += reader(rounds);
+        long readerNanos = System.nanoTime() - t0;
+        long messages = (long) rounds * INPUTS.length;
+        System.out.printf("legacy regex pipeline: %,d ns/message%n", legacyNanos / messages);
+        System.out.printf("ClauseReader:          %,d ns/message%n", readerNanos / messages);
+        System.out.printf("speed-up: %.1fx (checksum %d)%n", (double) legacyNanos / readerNanos, sink);
+    }
+
+    private static long reader(int rounds) {
+        long n = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String in : INPUTS) {
+                String input = in.replace("```prolog", "").replace("```", "").replace("`", "").trim();
+                ClauseReader.Clause c = ClauseReader.read(input);
+                n += c.text().length() + (c.hasVariables() ? 1 : 0);
+                if (c.kind == ClauseReader.Clause.Kind.CONJUNCTION) {
+                    for (ClauseReader.Term part : c.conjuncts()) n += c.text(part).length() + part.key().length();
+                } else if (c.headKey() != null) {
+                    n += c.headKey().length();
+                }
+                n += c.functors().size() + c.goals().size();
+            }
+        }
+        return n;
+    }
+
+    // ---- the pre-ClauseReader code, kept verbatim in behaviour ----
+
+    private static long legacy(int rounds) {
+        long n = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String in : INPUTS) {
+                String input = in.replace("```prolog", "").replace("```", "").replace("`", "").trim();
+                input = input.replaceAll("(?m)%.*$", "");
+                input = input.replaceAll("\n|\r", " ").replaceAll("\\s+", " ").trim();
+                int dot = input.indexOf('.');
+                input = dot >= 0 ? input.substring(0, dot + 1).trim() : input + ".";
+                String cleaned = input.startsWith("?-") ? input.substring(2).trim() : input;
+                cleaned = cleaned.substring(0, cleaned.length() - 1).trim();
+                n += cleaned.length() + (hasVariables(cleaned) ? 1 : 0);
+                if (indexOfTopLevel(cleaned, ":-") < 0 && hasTopLevelComma(cleaned)) {
+                    for (String part : splitTopLevelByComma(cleaned)) n += part.trim().length() + predicateKey(part).length();
+                } else {
+                    String key = predicateKey(cleaned);
+                    if (key != null) n += key.length();
+                }
+                n += predicatesIn(cleaned).size() + extractFunctorsWithArity(cleaned).size();
+            }
+        }
+        return n;
+    }
+
+    private static boolean hasTopLevelComma(String s) {
+        int depth = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')') depth = Math.max(0, depth - 1);
+            else if (c == ',' && depth == 0) return true;
+        }
+        return false;
+    }
+
+    private static int indexOfTopLevel(String s, String token) {
+        int depth = 0;
+        for (int i = 0; i <= s.length() - token.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '(') { depth++; continue; }
+            if (c == ')') { depth = Math.max(0, depth - 1); continue; }
+            if (depth == 0 && s.startsWith(token, i)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean hasVariables(String s) {
+        return Pattern.compile("\\b([A-Z_][A-Za-z0-9_]*)\\b").matcher(s).find();
+    }
+
+    private static List<String> splitTopLevelByComma(String s) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')') depth = Math.max(0, depth - 1);
+            else if (c == ',' && depth == 0) {
+                parts.add(s.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (start < s.length()) parts.add(s.substring(start));
+        return parts;
+    }
+
+    private static final Pattern FUNCTOR_PATTERN = Pattern.compile("(?<![A-Za-z0-9_'])[a-z][A-Za-z0-9_]*\\(");
+
+    private static Set<String> predicatesIn(String text) {
+        Set<String> out = new HashSet<>();
+        for (String part : splitTopLevelByComma(text)) {
+            String p = part.trim();
+            if (p.matches("[a-z][A-Za-z0-9_]*")) out.add(p + "/0");
+        }
+        Matcher m = FUNCTOR_PATTERN.matcher(text);
+        while (m.find()) {
+            String key = predicateKey(text.substring(m.start()));
+            if (key != null) out.add(key);
+        }
+        return out;
+    }
+
+    private static String predicateKey(String clause) {
+        String trimmed = clause.trim();
+        if (trimmed.isEmpty()) return null;
+        int ruleSep = indexOfTopLevel(trimmed, ":-");
+        if (ruleSep >= 0) trimmed = trimmed.substring(0, ruleSep).trim();
+        int arity = 0;
+        int paren = trimmed.indexOf('(');
+        String name = paren < 0 ? trimmed : trimmed.substring(0, paren).trim();
+        if (paren >= 0) {
+            int close = matchingParen(trimmed, paren);
+            if (close > paren) {
+                String a = trimmed.substring(paren + 1, close).trim();
+                if (!a.isEmpty()) arity = splitTopLevelByComma(a).size();
+            }
+        }
+        return name.isEmpty() ? null : name + "/" + arity;
+    }
+
+    private static int matchingParen(String s, int open) {
+        int depth = 0;
+        for (int i = open; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')' && --depth == 0) return i;
+        }
+        return s.lastIndexOf(')');
+    }
+
+    private static Set<String> extractFunctorsWithArity(String clause) {
+        Set<String> out = new HashSet<>();
+        Matcher m = Pattern.compile("([a-z][a-z0-9_]*)\\s*\\(([^)]*)\\)").matcher(clause);
+        while (m.find()) {
+            String args = m.group(2).trim();
+            int arity = 0;
+            if (!args.isEmpty()) {
+                arity = 1;
+                for (int i = 0, depth = 0; i < args.length(); i++) {
+                    char c = args.charAt(i);
+                    if (c == '(') depth++;
+                    else if (c == ')') depth = Math.max(0, depth - 1);
+                    else if (c == ',' && depth == 0) arity++;
+                }
+            }
+            out.add(m.group(1) + "/" + arity);
+        }
+        return out;
+    }
+}
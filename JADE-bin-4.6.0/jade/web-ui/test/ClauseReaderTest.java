@@ -0,0 +1,91 @@
+import static org.junit.Assert.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+import utils.ClauseReader;
+
+public class ClauseReaderTest {
+    @Test
+    public void queryKeepsQuotedAtomsAndDecimals() {
+        ClauseReader.Clause c = ClauseReader.read("?- parent(X, 'Mary. Ann'), age(X, 3.5).");
+        assertEquals(ClauseReader.Clause.Kind.QUERY, c.kind);
+        assertEquals("parent(X, 'Mary. Ann'), age(X, 3.5)", c.text());
+        assertEquals(new HashSet<>(Arrays.asList("parent/2", "age/2")), c.goals());
+        assertTrue(c.hasVariables());
+    }
+
+    @Test
+    public void ruleHeadAndBodyAreSeparated() {
+        ClauseReader.Clause c = ClauseReader.read("adult(X) :- person(X), \\+ minor(X).");
+        assertEquals(ClauseReader.Clause.Kind.RULE, c.kind);
+        assertEquals("adult/1", c.headKey());
+        assertEquals(new HashSet<>(Arrays.asList("person/1", "minor/1")), c.functors());
+    }
+
+    @Test
+    public void commasInsideListsAndQuotesDoNotSplitFacts() {
+        ClauseReader.Clause c = ClauseReader.read("owns(anna, [car, 'bike, red']), likes(anna, \"a, b\")");
+        assertEquals(ClauseReader.Clause.Kind.CONJUNCTION, c.kind);
+        assertEquals(2, c.conjuncts().size());
+        assertEquals("owns(anna, [car, 'bike, red'])", c.text(c.conjuncts().get(0)));
+        assertEquals("owns/2", c.conjuncts().get(0).key());
+        assertFalse(c.hasVariables());
+    }
+
+    @Test
+    public void commentsAndLayoutAreDroppedFromTheText() {
+        ClauseReader.Clause c = ClauseReader.read("% a comment\nlikes(mario,\n   pizza) /* inline */ . extra(1).");
+        assertEquals(ClauseReader.Clause.Kind.FACT, c.kind);
+        assertEquals("likes(mario, pizza)", c.text());
+    }
+
+    @Test
+    public void operatorsFollowPrecedence() {
+        ClauseReader.Term t = ClauseReader.read("X is 1 + 2 * 3").term;
+        assertTrue(t.is("is", 2));
+        ClauseReader.Term sum = t.args.get(1);
+        assertTrue(sum.is("+", 2));
+        assertTrue(sum.args.get(1).is("*", 2));
+    }
+
+    @Test
+    public void dynamicDirectiveIsRecognized() {
+        ClauseReader.Clause c = ClauseReader.read(":- dynamic likes/2.");
+        assertEquals(ClauseReader.Clause.Kind.DIRECTIVE, c.kind);
+        assertEquals("likes/2", c.declaredDynamic());
+    }
+
+    @Test
+    public void invalidTextIsRejected() {
+        assertNull(ClauseReader.tryRead("likes(mario, pizza"));
+        assertNull(ClauseReader.tryRead("mario likes pizza"));
+        assertNull(ClauseReader.keyOf("'unterminated"));
+    }
+
+    @Test
+    public void quotedFunctorsKeepTheirQuotesInPrologText() {
+        ClauseReader.Clause c = ClauseReader.read("'likes much'(a, b).");
+        assertEquals("likes much/2", c.headKey());
+        assertEquals("'likes much'/2", c.head.quotedKey());
+        assertEquals("'Mario'/0", ClauseReader.read("'Mario'.").head.quotedKey());
+        assertEquals("'it\\'s'/1", ClauseReader.quotedKey("it's/1"));
+        assertEquals("likes/2", ClauseReader.quotedKey("likes/2"));
+        assertEquals("=</2", ClauseReader.quotedKey("=</2"));
+        // the quoted key reads back as the same predicate
+        assertEquals("likes much/2", ClauseReader.read(":- dynamic " + ClauseReader.quotedKey("likes much/2") + ".").declaredDynamic());
+    }
+
+    @Test
+    public void readAllFollowsClausesAcrossLinesAndSkipsBrokenOnes() {
+        java.util.List<ClauseReader.Clause> all = ClauseReader.readAll(
+                "% rules\n:- dynamic likes/2.\nadult(X) :-\n    person(X),\n    age(X, A), A >= 18.\n"
+                + "broken(a, .\nlikes(mario, pizza). likes(anna, pasta).\n");
+        assertEquals(4, all.size());
+        assertEquals("likes/2", all.get(0).declaredDynamic());
+        assertEquals(ClauseReader.Clause.Kind.RULE, all.get(1).kind);
+        assertEquals("adult(X) :- person(X), age(X, A), A >= 18", all.get(1).text());
+        assertTrue(all.get(1).functors().contains("age/2"));
+        assertEquals("likes(mario, pizza)", all.get(2).text());
+        assertEquals("likes(anna, pasta)", all.get(3).text());
+    }
+}
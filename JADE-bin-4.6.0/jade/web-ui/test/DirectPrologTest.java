@@ -0,0 +1,66 @@
+
+import static org.junit.Assert.*;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import utils.DirectProlog;
+import utils.PredicateCatalog;
+
+public class DirectPrologTest {
+    private PredicateCatalog catalog;
+
+    @Before
+    public void setUp() {
+        Map<String, Integer> counts = new HashMap<>();
+        counts.put("likes/2", 3);
+        counts.put("age/2", 2);
+        catalog = new PredicateCatalog();
+        catalog.load(counts);
+    }
+
+    @Test
+    public void queriesOverKnownPredicatesSkipTheLlm() {
+        assertEquals("?- likes(mario, X).", DirectProlog.recognize("?- likes(mario, X).", "query", catalog));
+        assertEquals("?- age(X, A), A > 18.", DirectProlog.recognize("age(X, A), A > 18.", "query", catalog));
+    }
+
+    @Test
+    public void builtinsAloneAreNotAKnowledgeBaseQuestion() {
+        assertNull(DirectProlog.recognize("Rome is nice.", "query", catalog));
+        assertNull(DirectProlog.recognize("?- 1 < 2.", "query", catalog));
+    }
+
+    @Test
+    public void unknownPredicatesAndSentencesTakeTheLlmPath() {
+        assertNull(DirectProlog.recognize("?- loves(mario, X).", "query", catalog));
+        assertNull(DirectProlog.recognize("Who does Mario like?", "query", catalog));
+        assertNull(DirectProlog.recognize("likes(mario, X)", "query", catalog)); // no final dot
+    }
+
+    @Test
+    public void factsNeedAKnownHeadAndNoVariables() {
+        assertEquals("likes(anna, pasta).", DirectProlog.recognize("likes(anna,   pasta).", "fact", catalog));
+        assertNull(DirectProlog.recognize("likes(anna, X).", "fact", catalog));
+        assertNull(DirectProlog.recognize("loves(anna, luca).", "fact", catalog));
+    }
+
+    @Test
+    public void rulesNeedAKnownPredicateInTheirBody() {
+        assertEquals("adult(X) :- age(X, A), A >= 18.",
+                DirectProlog.recognize("adult(X) :- age(X, A), A >= 18.", "fact", catalog));
+        assertNull(DirectProlog.recognize("big(X) :- X > 100.", "fact", catalog));
+        assertNull(DirectProlog.recognize("friend(X) :- knows(X, mario).", "fact", catalog));
+    }
+
+    @Test
+    public void emptyCatalogRecognizesNothing() {
+        assertNull(DirectProlog.recognize("?- likes(mario, X).", "query", new PredicateCatalog()));
+    }
+
+    @Test
+    public void knownFailureIsTheBareFail() {
+        assertTrue(DirectProlog.isKnownFailure("?-  fail ."));
+        assertFalse(DirectProlog.isKnownFailure("?- likes(X, Y)."));
+    }
+}
@@ -0,0 +1,157 @@
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import utils.GuardedBackend;
+import utils.LLMBackend;
+import utils.LLMService;
+
+public class GuardedBackendTest {
+
+    // Keeps the callbacks of the calls it receives; the test decides when and how they end
+    static class Fake implements LLMBackend {
+        final List<LLMService.LLMCallback> calls = new ArrayList<>();
+
+        public String name() {
+            return "fake";
+        }
+
+        public synchronized Pending complete(Request request, LLMService.LLMCallback callback) {
+            calls.add(callback);
+            return Pending.DONE;
+        }
+
+        synchronized LLMService.LLMCallback call(int i) {
+            return calls.get(i);
+        }
+
+        synchronized int count() {
+            return calls.size();
+        }
+    }
+
+    static class Result implements LLMService.LLMCallback {
+        volatile String success, error;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        public void onSuccess(String result) {
+            success = result;
+            done.countDown();
+        }
+
+        public void onError(String e) {
+            error = e;
+            done.countDown();
+        }
+
+        boolean await(long ms) throws InterruptedException {
+            return done.await(ms, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static int stat(GuardedBackend g, String name) {
+        Matcher m = Pattern.compile("guard\\." + name + "=(\\d+)").matcher(g.describe());
+        assertTrue(m.find());
+        return Integer.parseInt(m.group(1));
+    }
+
+    private static Result call(GuardedBackend g) {
+        Result r = new Result();
+        g.complete(null, r);
+        return r;
+    }
+
+    @Test
+    public void limitGrowsWithFastSuccessesAndShrinksOnErrors() {
+        Fake fake = new Fake();
+        GuardedBackend g = new GuardedBackend(fake, 2, 8, 60_000, 16, 60_000, 100, 60_000);
+        for (int i = 0; i < 4; i++) {
+            call(g);
+            fake.call(i).onSuccess("ok"); // 2 → 2.5 → 2.9 → 3.24 → 3.55
+        }
+        assertEquals(3, stat(g, "limit"));
+        call(g);
+        fake.call(4).onError("boom"); // × 0.7
+        assertEquals(2, stat(g, "limit"));
+    }
+
+    @Test
+    public void callsOverTheLimitWaitInOrderAndAFullQueueRejects() throws Exception {
+        Fake fake = new Fake();
+        GuardedBackend g = new GuardedBackend(fake, 1, 1, 60_000, 1, 60_000, 100, 60_000);
+        Result first = call(g);
+        Result second = call(g);
+        Result third = call(g);
+        assertEquals(1, fake.count());
+        assertTrue(third.await(0));
+        assertTrue(third.error.contains("queue full"));
+
+        fake.call(0).onSuccess("one");
+        assertEquals("one", first.success);
+        assertEquals(2, fake.count()); // the queued call took the free slot
+        fake.call(1).onSuccess("two");
+        assertEquals("two", second.success);
+    }
+
+    @Test
+    public void breakerOpensThenLetsOneProbeThrough() throws Exception {
+        Fake fake = new Fake();
+        GuardedBackend g = new GuardedBackend(fake, 4, 4, 60_000, 16, 60_000, 2, 100);
+        call(g);
+        call(g);
+        fake.call(0).onError("down");
+        fake.call(1).onError("down");
+        assertTrue(g.describe().contains("guard.breaker=open"));
+
+        Result fast = call(g);
+        assertTrue(fast.await(0));
+        assertTrue(fast.error.contains("circuit open"));
+        assertEquals(2, fake.count());
+
+        Thread.sleep(150);
+        Result probe = call(g);
+        Result duringProbe = call(g);
+        assertEquals(3, fake.count()); // only the probe reached the backend
+        assertTrue(duringProbe.error.contains("half-open"));
+        fake.call(2).onSuccess("up");
+        assertEquals("up", probe.success);
+        assertTrue(g.describe().contains("guard.breaker=closed"));
+
+        call(g);
+        assertEquals(4, fake.count());
+    }
+
+    @Test
+    public void queuedCallTimesOutWhileTheCallsAheadHang() throws Exception {
+        Fake fake = new Fake();
+        GuardedBackend g = new GuardedBackend(fake, 1, 1, 60_000, 16, 100, 100, 60_000);
+        call(g); // never completes
+        Result queued = call(g);
+        assertTrue(queued.await(2_000));
+        assertTrue(queued.error.contains("waited more than 100 ms"));
+        assertEquals(1, stat(g, "queue_timeouts"));
+        assertEquals(0, stat(g, "queued"));
+    }
+
+    @Test
+    public void cancelledQueuedCallLeavesTheQueueSilently() throws Exception {
+        Fake fake = new Fake();
+        GuardedBackend g = new GuardedBackend(fake, 1, 1, 60_000, 16, 100, 100, 60_000);
+        call(g);
+        Result queued = new Result();
+        LLMBackend.Pending pending = g.complete(null, queued);
+        pending.cancel();
+        assertEquals(0, stat(g, "queued"));
+        assertFalse(queued.await(300)); // no timeout reported for a call the caller gave up
+        assertEquals(0, stat(g, "queue_timeouts"));
+
+        fake.call(0).onSuccess("done");
+        assertEquals(1, fake.count()); // the cancelled call never started
+        assertEquals(0, stat(g, "inflight"));
+    }
+}
@@ -0,0 +1,141 @@
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import utils.HedgedBackend;
+import utils.LLMBackend;
+import utils.LLMService;
+
+public class HedgedBackendTest {
+
+    private static final LLMBackend.Request REQUEST =
+            LLMBackend.Request.translation("Mario likes pizza.", "fact", null, null, "prompt");
+
+    // Keeps the callbacks of its calls and whether they were cancelled; the test decides how they end
+    static class Fake implements LLMBackend {
+        final String name;
+        final List<LLMService.LLMCallback> calls = new ArrayList<>();
+        volatile boolean cancelled;
+        final CountDownLatch called = new CountDownLatch(1);
+
+        Fake(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public synchronized Pending complete(Request request, LLMService.LLMCallback callback) {
+            calls.add(callback);
+            called.countDown();
+            return () -> cancelled = true;
+        }
+
+        synchronized LLMService.LLMCallback call(int i) {
+            return calls.get(i);
+        }
+
+        synchronized int count() {
+            return calls.size();
+        }
+
+        boolean awaitCall() throws InterruptedException {
+            return called.await(2_000, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static class Result implements LLMService.LLMCallback {
+        volatile String success, error;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        public void onSuccess(String result) {
+            success = result;
+            done.countDown();
+        }
+
+        public void onError(String e) {
+            error = e;
+            done.countDown();
+        }
+
+        boolean await(long ms) throws InterruptedException {
+            return done.await(ms, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void hedgeWinsAndThePrimaryIsCancelled() throws Exception {
+        Fake primary = new Fake("primary"), hedge = new Fake("hedge");
+        HedgedBackend h = new HedgedBackend(primary, hedge, 95, 50, 10);
+        Result r = new Result();
+        h.complete(REQUEST, r);
+        assertTrue(hedge.awaitCall());
+
+        hedge.call(0).onSuccess("from hedge");
+        assertEquals("from hedge", r.success);
+        assertTrue(primary.cancelled);
+        assertFalse(hedge.cancelled);
+        primary.call(0).onSuccess("late"); // the loser's answer is dropped
+        assertEquals("from hedge", r.success);
+        assertTrue(h.describe().contains("hedge.wins=1"));
+    }
+
+    @Test
+    public void fastPrimaryIsNeverHedged() throws Exception {
+        Fake primary = new Fake("primary"), hedge = new Fake("hedge");
+        HedgedBackend h = new HedgedBackend(primary, hedge, 95, 50, 10);
+        Result r = new Result();
+        h.complete(REQUEST, r);
+        primary.call(0).onSuccess("fast");
+        assertEquals("fast", r.success);
+        Thread.sleep(150);
+        assertEquals(0, hedge.count());
+        assertTrue(h.describe().contains("hedge.fired=0"));
+    }
+
+    @Test
+    public void errorIsReportedOnlyWhenBothLegsFail() throws Exception {
+        Fake primary = new Fake("primary"), hedge = new Fake("hedge");
+        HedgedBackend h = new HedgedBackend(primary, hedge, 95, 50, 10);
+        Result r = new Result();
+        h.complete(REQUEST, r);
+        assertTrue(hedge.awaitCall());
+
+        primary.call(0).onError("primary down");
+        assertFalse(r.await(100)); // the hedge may still answer
+        hedge.call(0).onError("hedge down");
+        assertTrue(r.await(0));
+        assertEquals("primary down", r.error);
+        assertNull(r.success);
+    }
+
+    @Test
+    public void failedHedgeLeavesThePrimaryRunning() throws Exception {
+        Fake primary = new Fake("primary"), hedge = new Fake("hedge");
+        HedgedBackend h = new HedgedBackend(primary, hedge, 95, 50, 10);
+        Result r = new Result();
+        h.complete(REQUEST, r);
+        assertTrue(hedge.awaitCall());
+
+        hedge.call(0).onError("hedge down");
+        assertFalse(r.await(100));
+        primary.call(0).onSuccess("slow but fine");
+        assertEquals("slow but fine", r.success);
+    }
+
+    @Test
+    public void primaryErrorBeforeTheHedgeDelayIsReportedAtOnce() throws Exception {
+        Fake primary = new Fake("primary"), hedge = new Fake("hedge");
+        HedgedBackend h = new HedgedBackend(primary, hedge, 95, 60_000, 10);
+        Result r = new Result();
+        h.complete(REQUEST, r);
+        primary.call(0).onError("bad request");
+        assertTrue(r.await(0));
+        assertEquals("bad request", r.error);
+        assertEquals(0, hedge.count());
+    }
+}
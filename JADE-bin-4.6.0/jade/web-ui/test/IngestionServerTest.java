@@ -0,0 +1,116 @@
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import utils.IngestionServer;
+
+public class IngestionServerTest {
+
+    private final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+    private IngestionServer server;
+    private int port;
+
+    private void start(int maxFrameBytes) throws Exception {
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        server = new IngestionServer("ingest-test", new InetSocketAddress("127.0.0.1", port), request -> {
+            handled.add(request);
+            return "ack " + request;
+        }, 16, 30_000, maxFrameBytes);
+        server.start();
+    }
+
+    @After
+    public void stop() {
+        if (server != null) server.close();
+    }
+
+    private Socket connect() throws Exception {
+        Socket s = new Socket("127.0.0.1", port);
+        s.setSoTimeout(5_000);
+        return s;
+    }
+
+    private static String readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        for (int n; (n = in.read(buf)) >= 0; ) out.write(buf, 0, n);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void writeFrame(DataOutputStream out, String request) throws Exception {
+        byte[] b = request.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readFrame(DataInputStream in) throws Exception {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void pipelinedLinesAreAcknowledgedInOrder() throws Exception {
+        start(1 << 20);
+        try (Socket s = connect()) {
+            OutputStream out = s.getOutputStream();
+            out.write("likes(mario, pizza).\r\n\nWho likes pizza?\nlast line".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            s.shutdownOutput();
+            // blank lines are skipped; the last line needs no newline; the server closes after the acks
+            assertEquals("ack likes(mario, pizza).\nack Who likes pizza?\nack last line\n", readAll(s.getInputStream()));
+        }
+        assertEquals(Arrays.asList("likes(mario, pizza).", "Who likes pizza?", "last line"), handled);
+    }
+
+    @Test
+    public void framedRequestsGetFramedAcksInOrderOnOneConnection() throws Exception {
+        start(1 << 20);
+        try (Socket s = connect()) {
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            out.write("DAB".getBytes(StandardCharsets.US_ASCII)); // the preamble may arrive in pieces
+            out.flush();
+            Thread.sleep(50);
+            out.write("S1\n".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, "primo\nsu due righe");
+            writeFrame(out, "perché");
+            out.flush();
+            assertEquals("ack primo\nsu due righe", readFrame(in));
+            assertEquals("ack perché", readFrame(in));
+
+            writeFrame(out, "later"); // the connection stays open for more requests
+            out.flush();
+            assertEquals("ack later", readFrame(in));
+        }
+    }
+
+    @Test
+    public void oversizedFrameClosesTheConnection() throws Exception {
+        start(16);
+        try (Socket s = connect()) {
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            out.write("DABS1\n".getBytes(StandardCharsets.US_ASCII));
+            writeFrame(out, "a request that is far over sixteen bytes");
+            out.flush();
+            assertEquals(-1, s.getInputStream().read());
+        }
+        assertTrue(handled.isEmpty());
+        assertTrue(server.describe().contains("ingest.oversized=1"));
+    }
+}
@@ -0,0 +1,81 @@
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.wrapper.AgentContainer;
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In-process JADE main container for the tests of classes that need live agents.
+ * - No MTP and a free local port, so tests do not clash with a running DABS platform
+ * - APDescription.txt goes to a temporary directory, not over the one in web-ui
+ * - {@link Sink} agents keep the messages they receive
+ */
+public class JadeTestPlatform {
+
+    private final AgentContainer container;
+    private final File dir;
+
+    public JadeTestPlatform() throws Exception {
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        Runtime.instance().setCloseVM(false);
+        Profile p = new ProfileImpl("localhost", port, null);
+        p.setParameter(Profile.LOCAL_PORT, String.valueOf(port));
+        p.setParameter("nomtp", "true");
+        p.setParameter(Profile.GUI, "false");
+        dir = Files.createTempDirectory("jade-test").toFile();
+        p.setParameter(Profile.FILE_DIR, dir.getPath() + File.separator);
+        container = Runtime.instance().createMainContainer(p);
+    }
+
+    /** Starts the agent; its setup() has run when this returns, or soon after. */
+    public <A extends Agent> A start(String name, A agent) throws Exception {
+        container.acceptNewAgent(name, agent).start();
+        return agent;
+    }
+
+    /** AID of a local agent that does not exist: messages to it come back as AMS failures. */
+    public AID ghost(String name) throws Exception {
+        return new AID(name + "@" + container.getPlatformName(), AID.ISGUID);
+    }
+
+    public void kill() {
+        try {
+            container.kill();
+        } catch (Exception e) {
+            // already gone
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    static class Sink extends Agent {
+        final BlockingQueue<ACLMessage> received = new LinkedBlockingQueue<>();
+
+        @Override
+        protected void setup() {
+            addBehaviour(new CyclicBehaviour(this) {
+                @Override
+                public void action() {
+                    ACLMessage msg = myAgent.receive();
+                    if (msg == null) { block(); return; }
+                    received.add(msg);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,100 @@
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import utils.KnowledgeJournal;
+
+public class KnowledgeJournalTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private KnowledgeJournal open(File snapshot, File dir) throws Exception {
+        return new KnowledgeJournal(snapshot.getPath(), dir, 0, KnowledgeJournal.Durability.NONE, 1 << 20, 100);
+    }
+
+    private static String read(File f) throws Exception {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void foldAppendsSegmentsAfterTheUntouchedSnapshot() throws Exception {
+        File snapshot = tmp.newFile("knowledge.pl");
+        File dir = new File(tmp.getRoot(), "journal");
+        String original = "% family facts\nfoo(X) :-\n    bar(X).\nbar(1).\nbar(1).";
+        Files.write(snapshot.toPath(), original.getBytes(StandardCharsets.UTF_8));
+
+        KnowledgeJournal journal = open(snapshot, dir);
+        journal.append(":- dynamic baz/1.").get();
+        journal.append("bar(1).").get();
+        journal.append("baz(2).").get();
+        journal.checkpoint().get();
+        journal.close();
+
+        // Multi-line clause, comment and duplicates are kept; the journal lines follow in order
+        assertEquals(original + "\n% journal-fold-begin: 000001\n:- dynamic baz/1.\nbar(1).\nbaz(2).\n"
+                + "% journal-through: 000001\n", read(snapshot));
+        assertFalse(new File(dir, "segment-000001.pl").exists());
+
+        List<String> replayed = new ArrayList<>();
+        open(snapshot, dir).replay(replayed::add);
+        assertTrue(replayed.isEmpty());
+    }
+
+    @Test
+    public void secondFoldOnlyAppendsNewSegments() throws Exception {
+        File snapshot = tmp.newFile("knowledge.pl");
+        File dir = new File(tmp.getRoot(), "journal");
+
+        KnowledgeJournal journal = open(snapshot, dir);
+        journal.append("a(1).").get();
+        journal.checkpoint().get();
+        journal.append("a(2).").get();
+        journal.checkpoint().get();
+        journal.close();
+
+        assertEquals("% journal-fold-begin: 000001\na(1).\n% journal-through: 000001\n"
+                + "% journal-fold-begin: 000002\na(2).\n% journal-through: 000002\n", read(snapshot));
+    }
+
+    @Test
+    public void tornFoldIsCutOffAndItsSegmentReplayed() throws Exception {
+        File snapshot = tmp.newFile("knowledge.pl");
+        File dir = new File(tmp.getRoot(), "journal");
+        dir.mkdirs();
+        String done = "a(0).\n% journal-fold-begin: 000001\na(1).\n% journal-through: 000001\n";
+        // Crash while folding segment 2: begin mark and part of its lines, no end mark
+        Files.write(snapshot.toPath(), (done + "% journal-fold-begin: 000002\na(2).\na(").getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "segment-000002.pl").toPath(), "a(2).\na(3).\n".getBytes(StandardCharsets.UTF_8));
+
+        KnowledgeJournal.recover(snapshot.getPath());
+        assertEquals(done, read(snapshot));
+
+        List<String> replayed = new ArrayList<>();
+        open(snapshot, dir).replay(replayed::add);
+        assertEquals(Arrays.asList("a(2).", "a(3)."), replayed);
+    }
+
+    @Test
+    public void replayReturnsUnfoldedLinesAndSkipsATornOne() throws Exception {
+        File snapshot = tmp.newFile("knowledge.pl");
+        File dir = new File(tmp.getRoot(), "journal");
+
+        KnowledgeJournal journal = open(snapshot, dir);
+        journal.append("likes(mario, pizza).").get();
+        journal.append("likes(anna, pasta).").get();
+        journal.close();
+        // A crash in the middle of a write leaves a partial last line
+        Files.write(new File(dir, "segment-000099.pl").toPath(), "likes(luca, sushi).\nlikes(ugo,".getBytes(StandardCharsets.UTF_8));
+
+        List<String> replayed = new ArrayList<>();
+        open(snapshot, dir).replay(replayed::add);
+        assertEquals(Arrays.asList("likes(mario, pizza).", "likes(anna, pasta).", "likes(luca, sushi)."), replayed);
+    }
+}
@@ -1,7 +1,12 @@
 import static org.junit.Assert.*;
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Test;
+import utils.CassetteBackend;
 import utils.LLMService;
+import utils.RuleBasedBackend;
 
 public class LLMServiceTest {
     @Test
@@ -14,4 +19,30 @@ public class LLMServiceTest {
         assertNotNull("Should receive an error", err.get());
         assertTrue(err.get().contains("Tipo di richiesta LLM sconosciuto"));
     }
+
+    @Test
+    public void humanizeAnswerReplaysRecordedCompletion() throws Exception {
+        File cassette = File.createTempFile("llm-cassette", ".jsonl");
+        cassette.deleteOnExit();
+
+        LLMService.useBackend(CassetteBackend.recording(cassette, new RuleBasedBackend()));
+        assertEquals("rome.", humanize("X = rome; ", "lives(mario, X)"));
+
+        LLMService.useBackend(CassetteBackend.replaying(cassette, "fixed:50", 1));
+        long t0 = System.nanoTime();
+        assertEquals("rome.", humanize("X = rome; ", "lives(mario, X)"));
+        assertTrue("Replay should inject the configured latency", System.nanoTime() - t0 >= 50_000_000L);
+        assertTrue(humanize("X = milan; ", "lives(anna, X)").startsWith("error:"));
+    }
+
+    private static String humanize(String result, String query) throws InterruptedException {
+        AtomicReference<String> out = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        LLMService.humanizeAnswer(result, query, new LLMService.LLMCallback() {
+            public void onSuccess(String r) { out.set(r); done.countDown(); }
+            public void onError(String e) { out.set("error: " + e); done.countDown(); }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return out.get();
+    }
 }
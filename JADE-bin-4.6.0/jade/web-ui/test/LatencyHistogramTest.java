@@ -0,0 +1,33 @@
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import utils.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesAreWithinOneBucketOfTheTrueValue() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int ms = 1; ms <= 100; ms++) h.record(ms * 10L); // 10 ms .. 1000 ms
+        long p50 = h.percentile(50), p95 = h.percentile(95);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.25 + 1);
+        assertTrue(p95 >= 950 && p95 <= 950 * 1.25 + 1);
+        assertTrue(h.percentile(99) >= p95);
+    }
+
+    @Test
+    public void emptyHistogramHasNoPercentile() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(-1, h.percentile(50));
+        assertEquals("x.p50=-1 x.p95=-1 x.p99=-1", h.describe("x"));
+    }
+
+    @Test
+    public void oldSamplesFadeOut() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 999; i++) h.record(10);
+        for (int i = 0; i < 3000; i++) h.record(2000);
+        assertTrue(h.samples() < 1000);
+        assertTrue(h.percentile(50) >= 2000); // the slow traffic now dominates
+    }
+}
@@ -0,0 +1,113 @@
+
+import static org.junit.Assert.*;
+import jade.core.AID;
+import jade.core.Agent;
+import jade.lang.acl.ACLMessage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import utils.PeerHealth;
+
+public class PeerHealthTest {
+
+    private static JadeTestPlatform platform;
+    private static JadeTestPlatform.Sink sink;
+
+    // Agent owning the PeerHealth, so that the AMS failures reach it
+    static class Owner extends Agent {
+        final PeerHealth health;
+        final CountDownLatch ready = new CountDownLatch(1);
+
+        Owner(long suspectMs, long maxSuspectMs) {
+            health = new PeerHealth(this, suspectMs, maxSuspectMs);
+        }
+
+        @Override
+        protected void setup() {
+            health.start();
+            ready.countDown();
+        }
+    }
+
+    @BeforeClass
+    public static void startPlatform() throws Exception {
+        platform = new JadeTestPlatform();
+        sink = platform.start("sink", new JadeTestPlatform.Sink());
+    }
+
+    @AfterClass
+    public static void stopPlatform() {
+        platform.kill();
+    }
+
+    private static Owner owner(String name, long suspectMs, long maxSuspectMs) throws Exception {
+        Owner o = platform.start(name, new Owner(suspectMs, maxSuspectMs));
+        assertTrue(o.ready.await(5, TimeUnit.SECONDS));
+        return o;
+    }
+
+    // Sends to the peer and waits for its delivery failure
+    private static void sendUndelivered(PeerHealth health, AID peer) throws Exception {
+        Semaphore failed = new Semaphore(0);
+        health.send(new ACLMessage(ACLMessage.REQUEST), peer, failed::release);
+        assertTrue(failed.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void undeliveredPeerIsSkippedWhileSuspected() throws Exception {
+        Owner o = owner("owner-skip", 60_000, 60_000);
+        AID ghost = platform.ghost("ghost-skip");
+        assertEquals(ghost, o.health.pick(Arrays.asList(ghost, sink.getAID())));
+
+        sendUndelivered(o.health, ghost);
+        assertEquals(sink.getAID(), o.health.pick(Arrays.asList(ghost, sink.getAID())));
+        assertNull(o.health.pick(Collections.singletonList(ghost)));
+        assertTrue(o.health.describe().contains("peers.undelivered=1"));
+        assertTrue(o.health.describe().contains("peers.suspected=1"));
+    }
+
+    @Test
+    public void suspicionDoublesWithConsecutiveFailures() throws Exception {
+        Owner o = owner("owner-double", 300, 60_000);
+        AID ghost = platform.ghost("ghost-double");
+
+        sendUndelivered(o.health, ghost); // 300 ms
+        Thread.sleep(450);
+        assertEquals(ghost, o.health.pick(Collections.singletonList(ghost)));
+
+        sendUndelivered(o.health, ghost); // 600 ms
+        Thread.sleep(450);
+        assertNull(o.health.pick(Collections.singletonList(ghost)));
+        Thread.sleep(400);
+        assertEquals(ghost, o.health.pick(Collections.singletonList(ghost)));
+    }
+
+    @Test
+    public void messageFromThePeerClearsTheSuspicion() throws Exception {
+        Owner o = owner("owner-alive", 60_000, 60_000);
+        AID ghost = platform.ghost("ghost-alive");
+        sendUndelivered(o.health, ghost);
+        assertNull(o.health.pick(Collections.singletonList(ghost)));
+
+        o.health.alive(ghost);
+        assertEquals(ghost, o.health.pick(Collections.singletonList(ghost)));
+        assertTrue(o.health.describe().contains("peers.recovered=1"));
+    }
+
+    @Test
+    public void deliveredMessageRaisesNoSuspicion() throws Exception {
+        Owner o = owner("owner-ok", 60_000, 60_000);
+        sink.received.clear();
+        ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
+        msg.setContent("ping");
+        o.health.send(msg, sink.getAID(), () -> fail("reported undelivered"));
+        assertNotNull(sink.received.poll(5, TimeUnit.SECONDS));
+        assertEquals(sink.getAID(), o.health.pick(Collections.singletonList(sink.getAID())));
+        assertTrue(o.health.describe().contains("peers.undelivered=0"));
+    }
+}
@@ -0,0 +1,70 @@
+
+import static org.junit.Assert.*;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import utils.PredicateIndex;
+
+public class PredicateIndexTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final Set<String> KNOWN = new HashSet<>(Arrays.asList(
+            "works_at/2", "likes/2", "age/2", "parent/2", "teaches/2", "lives_in/2"));
+
+    @Test
+    public void smallKnowledgeBaseIsListedInFull() {
+        PredicateIndex.Selection s = new PredicateIndex(10, 1000).select("Where does Mario work?", KNOWN);
+        assertFalse(s.pruned);
+        assertEquals(6, s.predicates.size());
+    }
+
+    @Test
+    public void topKKeepsThePredicatesTheSentenceNames() {
+        PredicateIndex index = new PredicateIndex(2, 1000);
+        PredicateIndex.Selection s = index.select("Where does Mario work and where does he live?", KNOWN);
+        assertTrue(s.pruned);
+        assertEquals(Arrays.asList("lives_in/2", "works_at/2"), s.predicates);
+        assertTrue(index.describe().contains("prompt.pruned=1"));
+    }
+
+    @Test
+    public void nothingMatchingFallsBackToTheFullList() {
+        PredicateIndex.Selection s = new PredicateIndex(2, 1000).select("Is Rome beautiful?", KNOWN);
+        assertFalse(s.pruned);
+        assertEquals(6, s.predicates.size());
+    }
+
+    @Test
+    public void constantsOfTheKnowledgeFileLeadToTheirPredicate() throws Exception {
+        File kb = tmp.newFile("knowledge.pl");
+        Files.write(kb.toPath(), "teaches(rossi,\n    logic).\nlikes(anna, pasta).\n".getBytes(StandardCharsets.UTF_8));
+        PredicateIndex index = new PredicateIndex(1, 1000);
+        index.indexKnowledge(Collections.singletonList(kb));
+        assertEquals(Collections.singletonList("teaches/2"), index.select("Who is Rossi?", KNOWN).predicates);
+    }
+
+    @Test
+    public void pastTranslationsTeachTheirWords() {
+        PredicateIndex index = new PredicateIndex(1, 1000);
+        index.learn("How old is Luca?", "?- age(luca, X).");
+        PredicateIndex.Selection s = index.select("How old is Giulia?", KNOWN);
+        assertTrue(s.pruned);
+        assertEquals(Collections.singletonList("age/2"), s.predicates);
+    }
+
+    @Test
+    public void tokenBudgetCutsTheListButKeepsOne() {
+        PredicateIndex index = new PredicateIndex(10, 1);
+        PredicateIndex.Selection s = index.select("Where does Mario work and where does he live?", KNOWN);
+        assertTrue(s.pruned);
+        assertEquals(Collections.singletonList("lives_in/2"), s.predicates);
+    }
+}
@@ -0,0 +1,124 @@
+
+import static org.junit.Assert.*;
+import jade.core.AID;
+import jade.core.Agent;
+import jade.lang.acl.ACLMessage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import utils.PeerHealth;
+import utils.RetryDispatcher;
+
+public class RetryDispatcherTest {
+
+    private static JadeTestPlatform platform;
+    private static JadeTestPlatform.Sink sink;
+
+    // Agent owning a dispatcher; its PeerHealth listens for the AMS failures
+    static class Sender extends Agent {
+        final PeerHealth health = new PeerHealth(this, 60_000, 60_000);
+        final RetryDispatcher dispatcher;
+        final CountDownLatch ready = new CountDownLatch(1);
+
+        Sender(long initialMs, long maxMs, long deadlineMs) {
+            dispatcher = new RetryDispatcher(this, health, initialMs, maxMs, deadlineMs);
+        }
+
+        @Override
+        protected void setup() {
+            health.start();
+            ready.countDown();
+        }
+    }
+
+    @BeforeClass
+    public static void startPlatform() throws Exception {
+        platform = new JadeTestPlatform();
+        sink = platform.start("sink", new JadeTestPlatform.Sink());
+    }
+
+    @AfterClass
+    public static void stopPlatform() {
+        platform.kill();
+    }
+
+    private static Sender sender(String name, long initialMs, long maxMs, long deadlineMs) throws Exception {
+        Sender s = platform.start(name, new Sender(initialMs, maxMs, deadlineMs));
+        assertTrue(s.ready.await(5, TimeUnit.SECONDS));
+        return s;
+    }
+
+    private static ACLMessage message(String content) {
+        ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+        msg.setContent(content);
+        return msg;
+    }
+
+    private static int stat(RetryDispatcher d, String name) {
+        Matcher m = Pattern.compile("dispatch\\." + name + "=(\\d+)").matcher(d.describe());
+        assertTrue(m.find());
+        return Integer.parseInt(m.group(1));
+    }
+
+    @Test
+    public void noProviderBacksOffThenGivesUpAtTheDeadline() throws Exception {
+        Sender s = sender("sender-deadline", 20, 80, 400);
+        CountDownLatch gaveUp = new CountDownLatch(1);
+        String[] reason = new String[1];
+        long t0 = System.currentTimeMillis();
+        long[] elapsed = new long[1];
+        s.dispatcher.dispatch(Collections::<AID>emptyList, message("lost"), r -> {
+            reason[0] = r;
+            elapsed[0] = System.currentTimeMillis() - t0;
+            gaveUp.countDown();
+        });
+        assertTrue(gaveUp.await(5, TimeUnit.SECONDS));
+        assertEquals("no provider registered", reason[0]);
+        // it stops when the next wait (at most 80 ms) would pass the deadline, never after it
+        assertTrue("gave up after " + elapsed[0] + " ms", elapsed[0] >= 400 - 80 && elapsed[0] < 2_000);
+        // waits of 10-20, 20-40, then 40-80 ms: far fewer retries than with a fixed 20 ms period
+        int retries = stat(s.dispatcher, "retries");
+        assertTrue("retries=" + retries, retries >= 4 && retries <= 12);
+        assertEquals(1, stat(s.dispatcher, "gave_up"));
+        assertEquals(0, stat(s.dispatcher, "sent"));
+    }
+
+    @Test
+    public void providerRegisteredLaterGetsTheMessage() throws Exception {
+        Sender s = sender("sender-later", 20, 80, 5_000);
+        AtomicInteger lookups = new AtomicInteger();
+        Supplier<List<AID>> candidates = () ->
+                lookups.incrementAndGet() <= 2 ? Collections.<AID>emptyList() : Collections.singletonList(sink.getAID());
+        s.dispatcher.dispatch(candidates, message("hello"), r -> fail("gave up: " + r));
+
+        ACLMessage got = sink.received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(got);
+        assertEquals("hello", got.getContent());
+        assertEquals(3, lookups.get());
+        assertEquals(2, stat(s.dispatcher, "retries"));
+        assertEquals(0, stat(s.dispatcher, "first_try"));
+    }
+
+    @Test
+    public void undeliveredMessageGoesToTheNextProvider() throws Exception {
+        Sender s = sender("sender-failover", 20, 80, 5_000);
+        AID ghost = platform.ghost("gone");
+        s.dispatcher.dispatch(() -> Arrays.asList(ghost, sink.getAID()), message("failover"), r -> fail("gave up: " + r));
+
+        ACLMessage got = sink.received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(got);
+        assertEquals("failover", got.getContent());
+        assertEquals(2, stat(s.dispatcher, "sent"));
+        assertEquals(1, stat(s.dispatcher, "first_try"));
+        assertTrue(s.health.describe().contains("peers.undelivered=1"));
+    }
+}
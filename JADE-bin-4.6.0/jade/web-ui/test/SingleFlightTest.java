@@ -0,0 +1,83 @@
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import utils.LLMService;
+import utils.SingleFlight;
+
+public class SingleFlightTest {
+
+    static class Result implements LLMService.StreamCallback {
+        volatile String success, error, partial;
+
+        public void onPartial(String textSoFar) {
+            partial = textSoFar;
+        }
+
+        public void onSuccess(String result) {
+            success = result;
+        }
+
+        public void onError(String e) {
+            error = e;
+        }
+    }
+
+    @Test
+    public void concurrentCallersJoinOneFlight() throws Exception {
+        SingleFlight flight = new SingleFlight();
+        int callers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger leaders = new AtomicInteger();
+        List<Result> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            Result r = new Result();
+            results.add(r);
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (flight.join("prompt", r)) leaders.incrementAndGet();
+            });
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) t.join();
+
+        assertEquals(1, leaders.get());
+        assertTrue(flight.describe().contains("flight.coalesced=" + (callers - 1)));
+        flight.completion("prompt").onSuccess("answer");
+        for (Result r : results) assertEquals("answer", r.success);
+        assertTrue(flight.describe().contains("flight.inflight=0"));
+    }
+
+    @Test
+    public void errorsAndPartialsReachEveryCaller() {
+        SingleFlight flight = new SingleFlight();
+        Result a = new Result(), b = new Result();
+        assertTrue(flight.join("k", a));
+        assertFalse(flight.join("k", b));
+        LLMService.StreamCallback done = flight.completion("k");
+        done.onPartial("Mar");
+        assertEquals("Mar", b.partial);
+        done.onError("timeout");
+        assertEquals("timeout", a.error);
+        assertEquals("timeout", b.error);
+    }
+
+    @Test
+    public void callerAfterCompletionStartsANewFlight() {
+        SingleFlight flight = new SingleFlight();
+        assertTrue(flight.join("k", new Result()));
+        assertTrue(flight.join("other", new Result())); // keys do not share a flight
+        flight.completion("k").onSuccess("x");
+        assertTrue(flight.join("k", new Result()));
+    }
+}
@@ -1,5 +1,6 @@
 const test = require('node:test');
 const assert = require('node:assert');
+const net = require('net');
 const { app, setLatestAnswer } = require('../server');
 
 test('GET /get-query-result returns the latest answer', async () => {
@@ -15,3 +16,105 @@ test('GET /get-query-result returns the latest answer', async () => {
   server.close();
 });
 
+
+test('framed answers are routed to their request id', async () => {
+  const { resultServer, openRequest } = require('../server');
+  await new Promise(resolve => resultServer.listen(0, resolve));
+  const rPort = resultServer.address().port;
+  const first = openRequest('⏳', 'timeout');
+  const second = openRequest('⏳', 'timeout');
+
+  const frame = (id, answer) => {
+    const json = Buffer.from(JSON.stringify({ id, answer }));
+    const len = Buffer.alloc(4);
+    len.writeUInt32BE(json.length);
+    return Buffer.concat([len, json]);
+  };
+  await new Promise(resolve => {
+    const client = net.createConnection({ port: rPort }, () => {
+      client.write(Buffer.concat([Buffer.from('DABS1\n'), frame(second, 'due'), frame(first, 'uno')]));
+      client.end();
+    });
+    client.on('close', resolve);
+  });
+  await new Promise(r => setTimeout(r, 50));
+
+  const server = app.listen(0);
+  const port = server.address().port;
+  const a = await (await fetch(`http://localhost:${port}/get-query-result?id=${first}`)).json();
+  const b = await (await fetch(`http://localhost:${port}/get-query-result?id=${second}`)).json();
+  assert.strictEqual(a.answer, 'uno');
+  assert.strictEqual(b.answer, 'due');
+
+  server.close();
+  resultServer.close();
+});
+
+
+test('a preamble split across reads still selects framed mode', async () => {
+  const { resultServer, openRequest } = require('../server');
+  await new Promise(resolve => resultServer.listen(0, resolve));
+  const rPort = resultServer.address().port;
+  const id = openRequest('⏳', 'timeout');
+
+  const json = Buffer.from(JSON.stringify({ id, answer: 'diviso' }));
+  const len = Buffer.alloc(4);
+  len.writeUInt32BE(json.length);
+  await new Promise(resolve => {
+    const client = net.createConnection({ port: rPort }, () => {
+      client.setNoDelay(true);
+      client.write(Buffer.from('DAB'));
+      setTimeout(() => {
+        client.write(Buffer.concat([Buffer.from('S1\n'), len, json]));
+        client.end();
+      }, 50);
+    });
+    client.on('close', resolve);
+  });
+  await new Promise(r => setTimeout(r, 50));
+
+  const server = app.listen(0);
+  const port = server.address().port;
+  const a = await (await fetch(`http://localhost:${port}/get-query-result?id=${id}`)).json();
+  assert.strictEqual(a.answer, 'diviso');
+
+  server.close();
+  resultServer.close();
+});
+
+
+test('a paged answer stays pending until its last page', async () => {
+  const { resultServer, openRequest } = require('../server');
+  await new Promise(resolve => resultServer.listen(0, resolve));
+  const rPort = resultServer.address().port;
+  const id = openRequest('⏳', 'timeout');
+
+  const frame = (answer) => {
+    const json = Buffer.from(JSON.stringify({ id, answer }));
+    const len = Buffer.alloc(4);
+    len.writeUInt32BE(json.length);
+    return Buffer.concat([len, json]);
+  };
+  const client = net.createConnection({ port: rPort });
+  await new Promise(resolve => client.on('connect', resolve));
+  client.write(Buffer.concat([Buffer.from('DABS1\n'), frame('[page 1] X = a'), frame('[page 2] X = b')]));
+  await new Promise(r => setTimeout(r, 50));
+
+  const server = app.listen(0);
+  const port = server.address().port;
+  const get = async () => (await fetch(`http://localhost:${port}/get-query-result?id=${id}`)).json();
+  let r = await get();
+  assert.strictEqual(r.answer, '[page 1] X = a\n[page 2] X = b');
+  assert.strictEqual(r.pending, true);
+
+  client.write(frame('[page 3] X = c (end: 3 solutions from offset 0)'));
+  client.end();
+  await new Promise(resolve => client.on('close', resolve));
+  await new Promise(r => setTimeout(r, 50));
+  r = await get();
+  assert.strictEqual(r.answer, '[page 1] X = a\n[page 2] X = b\n[page 3] X = c (end: 3 solutions from offset 0)');
+  assert.strictEqual(r.pending, false);
+
+  server.close();
+  resultServer.close();
+});
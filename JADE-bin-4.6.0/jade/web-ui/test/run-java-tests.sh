@@ -1,5 +1,6 @@
 #!/bin/bash
-# Runs the Java-based unit tests for the LLM service.
+# Runs the Java-based unit tests (every test/*Test.java).
+# Pass --bench to also run the ClauseReader microbenchmark.
 # Save with LF line endings; CRLF will cause Bash errors.
 set -e
 SCRIPT_DIR=$(dirname "$0")
@@ -24,7 +25,9 @@ fetch_jar "https://search.maven.org/remotecontent?filepath=junit/junit/4.13.2/ju
 fetch_jar "https://search.maven.org/remotecontent?filepath=org/hamcrest/hamcrest-core/1.3/hamcrest-core-1.3.jar" "$HAMCREST_JAR"
 
 mkdir -p "$BASE_DIR/test-classes"
-javac -cp "$LIB_DIR/*:$BASE_DIR" -d "$BASE_DIR/test-classes" \
-  "$BASE_DIR/utils/LLMService.java" "$BASE_DIR/test/LLMServiceTest.java"
-java -cp "$BASE_DIR/test-classes:$LIB_DIR/*:$BASE_DIR" org.junit.runner.JUnitCore LLMServiceTest
-
+javac -encoding UTF-8 -cp "$LIB_DIR/*:$BASE_DIR" -d "$BASE_DIR/test-classes" "$BASE_DIR"/test/*.java
+if [ "$1" = "--bench" ]; then
+  java -cp "$BASE_DIR/test-classes:$LIB_DIR/*:$BASE_DIR" ClauseReaderBenchmark
+fi
+TESTS=$(cd "$BASE_DIR/test" && ls *Test.java | sed 's/\.java$//')
+java -cp "$BASE_DIR/test-classes:$LIB_DIR/*:$BASE_DIR" org.junit.runner.JUnitCore $TESTS
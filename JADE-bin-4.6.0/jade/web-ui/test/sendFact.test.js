@@ -59,8 +59,9 @@ test('send-fact', async (t) => {
       assert.strictEqual(await res.text(), 'Fatto');
     }
 
+    // every request is tagged with its id (##REQ:<id>##) so answers can be routed back to it
     assert.deepStrictEqual(
-      sockets.map(s => s.data),
+      sockets.map(s => s.data.replace(/^##REQ:[0-9a-f-]+## /, '')),
       facts.map(f => f + '\n')
     );
 
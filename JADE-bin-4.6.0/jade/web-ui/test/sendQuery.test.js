@@ -57,8 +57,9 @@ test('send-query', async (t) => {
       assert.strictEqual(body.answer, a);
     }
 
+    // every request is tagged with its id (##REQ:<id>##) so answers can be routed back to it
     assert.deepStrictEqual(
-      sockets.map(s => s.data),
+      sockets.map(s => s.data.replace(/^##REQ:[0-9a-f-]+## /, '')),
       data.map(({ q }) => q + '\n')
     );
 
@@ -0,0 +1,177 @@
+package utils;
+
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.wrapper.AgentController;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Execution model of the agents: the agent thread only reacts to messages, blocking work runs elsewhere.
+ * - {@link #post}: runs code on the agent thread from any thread (sockets, OkHttp callbacks, Prolog engines),
+ *   through the O2A queue drained by a single behaviour
+ * - {@link #offload}: blocking work on a bounded pool (AGENT_IO_THREADS threads, AGENT_IO_QUEUE waiting),
+ *   its result handed back with {@link #post}
+ * - Stall probe: every AGENT_PROBE_MS a probe is posted; the time before it runs is how long the agent
+ *   thread kept messages waiting. Delays over AGENT_STALL_WARN_MS are logged and counted
+ * - {@link #describe}: mailbox depth, probe lag and stalls, offloaded work
+ */
+public class AgentExecutor {
+
+    private static final ScheduledExecutorService probes = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "agent-probe");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final int DRAIN_BATCH = 64; // posted tasks run per action, so messages are not starved
+
+    private final Agent agent;
+    private final ThreadPoolExecutor io;
+    private final long probeMs;
+    private final long stallWarnMs;
+    private ScheduledFuture<?> probe;
+    private final AtomicLong probeSentAt = new AtomicLong(); // nanoTime of the probe waiting to run, 0 if none
+    private final AtomicLong posted = new AtomicLong();
+    private final AtomicLong offloaded = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile long lastLagMs = 0;
+    private long maxLagMs = 0, stalls = 0, stalledMs = 0;
+    private int maxMailbox = 0;
+
+    public AgentExecutor(Agent agent, int ioThreads, int ioQueue, long probeMs, long stallWarnMs) {
+        this.agent = agent;
+        AtomicInteger n = new AtomicInteger();
+        this.io = new ThreadPoolExecutor(ioThreads, ioThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(ioQueue), r -> {
+            Thread t = new Thread(r, agent.getLocalName() + "-io-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.io.allowCoreThreadTimeOut(true);
+        this.probeMs = probeMs;
+        this.stallWarnMs = stallWarnMs;
+    }
+
+    /** Creates the executor from the environment and starts it; call at the beginning of setup(). */
+    public static AgentExecutor install(Agent agent) {
+        AgentExecutor executor = new AgentExecutor(agent,
+                (int) Math.max(1, env("AGENT_IO_THREADS", 4)),
+                (int) Math.max(1, env("AGENT_IO_QUEUE", 256)),
+                env("AGENT_PROBE_MS", 1_000),
+                env("AGENT_STALL_WARN_MS", 500));
+        executor.start();
+        return executor;
+    }
+
+    private static long env(String name, long def) {
+        try {
+            return Math.max(0, Long.parseLong(System.getenv().getOrDefault(name, String.valueOf(def))));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private void start() {
+        agent.setEnabledO2ACommunication(true, 0);
+        agent.addBehaviour(new CyclicBehaviour(agent) {
+            @Override
+            public void action() {
+                for (int i = 0; i < DRAIN_BATCH; i++) {
+                    Object o = myAgent.getO2AObject();
+                    if (o == null) {
+                        block();
+                        return;
+                    }
+                    try {
+                        ((Runnable) o).run();
+                    } catch (RuntimeException e) {
+                        System.err.println("❌ Task on the " + myAgent.getLocalName() + " thread failed: " + e);
+                    }
+                }
+            }
+        });
+        if (probeMs > 0) probe = probes.scheduleAtFixedRate(this::sendProbe, probeMs, probeMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Runs the task on the agent thread, after the behaviour currently running. */
+    public void post(Runnable task) {
+        posted.incrementAndGet();
+        try {
+            agent.putO2AObject(task, AgentController.ASYNC);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Runs the blocking work on the I/O pool; then receives its result or error, on the agent thread. */
+    public <T> void offload(Callable<T> work, BiConsumer<T, Throwable> then) {
+        offloaded.incrementAndGet();
+        try {
+            io.execute(() -> {
+                T result = null;
+                Throwable error = null;
+                try {
+                    result = work.call();
+                } catch (Throwable t) {
+                    error = t;
+                }
+                T r = result;
+                Throwable e = error;
+                post(() -> then.accept(r, e));
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            post(() -> then.accept(null, e));
+        }
+    }
+
+    // One probe at a time: while the agent thread is stuck, the pending one measures how long
+    private void sendProbe() {
+        int mailbox = agent.getCurQueueSize();
+        synchronized (this) {
+            maxMailbox = Math.max(maxMailbox, mailbox);
+        }
+        long now = System.nanoTime();
+        if (!probeSentAt.compareAndSet(0, now)) return;
+        post(() -> probed(now));
+    }
+
+    private void probed(long sentAt) {
+        long lag = (System.nanoTime() - sentAt) / 1_000_000L;
+        probeSentAt.set(0);
+        lastLagMs = lag;
+        synchronized (this) {
+            maxLagMs = Math.max(maxLagMs, lag);
+            if (lag < stallWarnMs) return;
+            stalls++;
+            stalledMs += lag;
+        }
+        System.out.println("🐢 " + agent.getLocalName() + " thread stalled for " + lag + " ms ("
+                + agent.getCurQueueSize() + " messages waiting)");
+    }
+
+    /** Stops the probe and the I/O pool; call from takeDown(). */
+    public void shutdown() {
+        if (probe != null) probe.cancel(false);
+        io.shutdownNow();
+    }
+
+    public synchronized String describe() {
+        long pending = probeSentAt.get();
+        long stalledNow = pending == 0 ? 0 : (System.nanoTime() - pending) / 1_000_000L;
+        return "agent.mailbox=" + agent.getCurQueueSize() + " agent.mailbox_max=" + maxMailbox
+                + " agent.lag_ms=" + Math.max(lastLagMs, stalledNow) + " agent.lag_max_ms=" + maxLagMs
+                + " agent.stalls=" + stalls + " agent.stalled_ms=" + stalledMs
+                + " agent.posted=" + posted.get() + " agent.offloaded=" + offloaded.get()
+                + " agent.io_queue=" + io.getQueue().size() + " agent.io_rejected=" + rejected.get();
+    }
+}
@@ -0,0 +1,207 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Local humanizer for the common query results, so that they do not need a second LLM call.
+ * - Handles single-goal queries whose arguments are atoms, numbers or variables bound to atoms/numbers:
+ *   a true ground query, one binding, or a small list of bindings (one sentence per solution)
+ * - Phrasing is learned per predicate (name/arity) from the LLM answers: the argument values are found
+ *   in the sentence and replaced with slots, e.g. works_at(mario, unical) + "Mario works at Unical."
+ *   gives "{^1} works at {^2}." ({^n}: value capitalized, {n}: value as is)
+ * - A template is used only after HUMANIZER_MIN_AGREEMENT LLM answers produced the same one
+ * - Anything else (conjunctions, compound values, long lists, unknown predicates) goes to the LLM
+ */
+public class AnswerTemplates {
+
+    private static class Candidate {
+        final String template;
+        int agreements = 1;
+        Candidate(String template) {
+            this.template = template;
+        }
+    }
+
+    private final boolean enabled;
+    private final int maxList;
+    private final int minAgreement;
+    private final Map<String, Candidate> templates = new HashMap<>();
+    private long rendered = 0, fallbacks = 0, learned = 0;
+
+    public AnswerTemplates(boolean enabled, int maxList, int minAgreement) {
+        this.enabled = enabled;
+        this.maxList = Math.max(1, maxList);
+        this.minAgreement = Math.max(1, minAgreement);
+    }
+
+    /** From HUMANIZER_TEMPLATES (on/off), HUMANIZER_MAX_LIST and HUMANIZER_MIN_AGREEMENT. */
+    public static AnswerTemplates fromEnv() {
+        boolean on = !"off".equalsIgnoreCase(System.getenv().getOrDefault("HUMANIZER_TEMPLATES", "on"));
+        int max, agree;
+        try { max = Integer.parseInt(System.getenv().getOrDefault("HUMANIZER_MAX_LIST", "5")); } catch (NumberFormatException e) { max = 5; }
+        try { agree = Integer.parseInt(System.getenv().getOrDefault("HUMANIZER_MIN_AGREEMENT", "2")); } catch (NumberFormatException e) { agree = 2; }
+        return new AnswerTemplates(on, max, agree);
+    }
+
+    /**
+     * Renders the answer locally.
+     * @param solutions bindings of each solution (variable → value text); empty for a true ground query
+     * @return the sentence, or null if the LLM has to be asked
+     */
+    public synchronized String render(String query, List<Map<String, String>> solutions) {
+        ClauseReader.Term goal = enabled ? goalOf(query) : null;
+        Candidate c = goal == null ? null : templates.get(goal.key());
+        if (c == null || c.agreements < minAgreement || solutions.size() > maxList) {
+            fallbacks++;
+            return null;
+        }
+        List<List<String>> rows = new ArrayList<>();
+        if (solutions.isEmpty()) {
+            List<String> values = valuesOf(goal, null);
+            if (values == null) {
+                fallbacks++;
+                return null;
+            }
+            rows.add(values);
+        }
+        for (Map<String, String> solution : solutions) {
+            List<String> values = valuesOf(goal, solution);
+            if (values == null) {
+                fallbacks++;
+                return null;
+            }
+            rows.add(values);
+        }
+        StringBuilder out = new StringBuilder();
+        for (List<String> values : rows) {
+            if (out.length() > 0) out.append(' ');
+            out.append(fill(c.template, values));
+        }
+        rendered++;
+        return out.toString();
+    }
+
+    /** Learns the phrasing of the goal's predicate from an LLM answer to a true ground query or a single binding. */
+    public synchronized void learn(String query, List<Map<String, String>> solutions, String sentence) {
+        if (!enabled || solutions.size() > 1 || sentence == null) return;
+        ClauseReader.Term goal = goalOf(query);
+        if (goal == null) return;
+        List<String> values = valuesOf(goal, solutions.isEmpty() ? null : solutions.get(0));
+        String template = values == null ? null : extract(sentence.trim(), values);
+        if (template == null) return;
+        Candidate c = templates.get(goal.key());
+        if (c != null && c.template.equals(template)) {
+            if (++c.agreements == minAgreement) {
+                learned++;
+                System.out.println("🧩 Answer template for " + goal.key() + ": " + template);
+            }
+        } else {
+            // a different phrasing replaces the candidate: the LLM has not settled on one yet
+            templates.put(goal.key(), new Candidate(template));
+            if (minAgreement == 1) learned++;
+        }
+    }
+
+    // The single goal of the query, if all of its arguments are simple
+    private static ClauseReader.Term goalOf(String query) {
+        ClauseReader.Clause clause = ClauseReader.tryRead(query);
+        if (clause == null || clause.kind == ClauseReader.Clause.Kind.CONJUNCTION
+                || clause.kind == ClauseReader.Clause.Kind.RULE || clause.kind == ClauseReader.Clause.Kind.DIRECTIVE) {
+            return null;
+        }
+        ClauseReader.Term goal = clause.kind == ClauseReader.Clause.Kind.QUERY ? clause.body : clause.term;
+        if (goal.kind != ClauseReader.Term.Kind.COMPOUND || !Character.isLowerCase(goal.name.charAt(0))) return null;
+        for (char ch : goal.name.toCharArray()) {
+            if (!Character.isLetterOrDigit(ch) && ch != '_') return null; // operators and built-ins
+        }
+        for (ClauseReader.Term arg : goal.args) {
+            if (arg.kind == ClauseReader.Term.Kind.COMPOUND || arg.kind == ClauseReader.Term.Kind.LIST) return null;
+        }
+        return goal;
+    }
+
+    // Display value of each argument ("prof_rossi" → "prof rossi"); null if a variable is unbound or not simple
+    private static List<String> valuesOf(ClauseReader.Term goal, Map<String, String> solution) {
+        List<String> values = new ArrayList<>();
+        for (ClauseReader.Term arg : goal.args) {
+            String v;
+            if (arg.kind == ClauseReader.Term.Kind.VAR) {
+                v = solution == null ? null : solution.get(arg.name);
+                if (v == null) return null;
+                v = v.trim();
+                if (v.length() > 1 && v.startsWith("'") && v.endsWith("'")) v = v.substring(1, v.length() - 1);
+                else if (v.isEmpty() || v.startsWith("_") || v.indexOf('(') >= 0 || v.indexOf('[') >= 0) return null;
+            } else {
+                v = arg.name;
+            }
+            values.add(v.replace('_', ' ').trim());
+        }
+        return values;
+    }
+
+    // Replaces each value, found exactly once as a whole word, with its slot; null if that is not possible
+    private static String extract(String sentence, List<String> values) {
+        String lower = sentence.toLowerCase(Locale.ROOT);
+        int[] at = new int[values.size()];
+        for (int i = 0; i < values.size(); i++) {
+            String v = values.get(i).toLowerCase(Locale.ROOT);
+            if (v.isEmpty() || sentence.indexOf('{') >= 0) return null;
+            for (int j = 0; j < i; j++) {
+                if (values.get(j).equalsIgnoreCase(v)) return null; // ambiguous slots
+            }
+            at[i] = wordIndex(lower, v, 0);
+            if (at[i] < 0 || wordIndex(lower, v, at[i] + 1) >= 0) return null;
+        }
+        StringBuilder out = new StringBuilder(sentence);
+        // right to left, so earlier positions stay valid
+        for (int done = 0; done < values.size(); done++) {
+            int best = -1;
+            for (int i = 0; i < at.length; i++) {
+                if (at[i] >= 0 && (best < 0 || at[i] > at[best])) best = i;
+            }
+            String v = values.get(best);
+            String found = sentence.substring(at[best], at[best] + v.length());
+            boolean capitalized = Character.isUpperCase(found.charAt(0)) && !Character.isUpperCase(v.charAt(0));
+            out.replace(at[best], at[best] + v.length(), "{" + (capitalized ? "^" : "") + (best + 1) + "}");
+            at[best] = -1;
+        }
+        String template = out.toString();
+        for (int i = 0; i < values.size(); i++) {
+            if (template.indexOf("{" + (i + 1) + "}") < 0 && template.indexOf("{^" + (i + 1) + "}") < 0) return null;
+        }
+        return template;
+    }
+
+    private static int wordIndex(String text, String word, int from) {
+        for (int i = text.indexOf(word, from); i >= 0; i = text.indexOf(word, i + 1)) {
+            boolean startOk = i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1));
+            int end = i + word.length();
+            boolean endOk = end == text.length() || !Character.isLetterOrDigit(text.charAt(end));
+            if (startOk && endOk) return i;
+        }
+        return -1;
+    }
+
+    private static String fill(String template, List<String> values) {
+        String out = template;
+        for (int i = 0; i < values.size(); i++) {
+            String v = values.get(i);
+            String cap = v.isEmpty() ? v : Character.toUpperCase(v.charAt(0)) + v.substring(1);
+            out = out.replace("{^" + (i + 1) + "}", cap).replace("{" + (i + 1) + "}", v);
+        }
+        return out;
+    }
+
+    public synchronized String describe() {
+        int active = 0;
+        for (Candidate c : templates.values()) {
+            if (c.agreements >= minAgreement) active++;
+        }
+        return "templates.active=" + active + " templates.rendered=" + rendered
+                + " templates.fallbacks=" + fallbacks + " templates.learned=" + learned;
+    }
+}
@@ -0,0 +1,208 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+/**
+ * Record/replay of LLM completions, for repeatable benchmarks of the agents without the remote LLM.
+ * - record: wraps the configured backend and appends every successful completion to the cassette
+ * - replay: answers from the cassette only, after a latency drawn from LLM_CASSETTE_LATENCY;
+ *   a prompt that was never recorded is an error
+ * - Cassette: one JSON object per line, {"k": key, "r": completion, "ms": recorded latency}; the key is
+ *   the request kind plus a 64-bit hash of the prompts, so prompts are not stored
+ *
+ * Latency distributions: recorded (default), none, fixed:MS, uniform:MIN-MAX, lognormal:MEDIAN,SIGMA.
+ * Draws come from a Random seeded with LLM_CASSETTE_SEED, so a replay run is reproducible.
+ */
+public class CassetteBackend implements LLMBackend {
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "llm-cassette");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File file;
+    private final LLMBackend recordFrom;   // null when replaying
+    private final String latency;
+    private final Random random;
+    private final Map<String, JSONObject> tape = new HashMap<>();
+    private long recorded = 0, replayed = 0, missing = 0;
+
+    private CassetteBackend(File file, LLMBackend recordFrom, String latency, long seed) {
+        this.file = file;
+        this.recordFrom = recordFrom;
+        this.latency = latency;
+        this.random = new Random(seed);
+        if (recordFrom == null) load();
+    }
+
+    public static CassetteBackend recording(File file, LLMBackend delegate) {
+        return new CassetteBackend(file, delegate, "none", 0);
+    }
+
+    public static CassetteBackend replaying(File file, String latency, long seed) {
+        return new CassetteBackend(file, null, latency, seed);
+    }
+
+    /** LLM_CASSETTE (file) with LLM_CASSETTE_MODE record|replay; returns the backend unchanged otherwise. */
+    public static LLMBackend fromEnv(LLMBackend backend) {
+        String path = System.getenv().getOrDefault("LLM_CASSETTE", "").trim();
+        String mode = System.getenv().getOrDefault("LLM_CASSETTE_MODE", "off").trim().toLowerCase();
+        if (path.isEmpty() || "off".equals(mode)) return backend;
+        if ("record".equals(mode)) return recording(new File(path), backend);
+        if ("replay".equals(mode)) {
+            long seed;
+            try { seed = Long.parseLong(System.getenv().getOrDefault("LLM_CASSETTE_SEED", "42")); } catch (NumberFormatException e) { seed = 42; }
+            return replaying(new File(path), System.getenv().getOrDefault("LLM_CASSETTE_LATENCY", "recorded"), seed);
+        }
+        System.err.println("[LLMService] Unknown LLM_CASSETTE_MODE: " + mode);
+        return backend;
+    }
+
+    @Override
+    public String name() {
+        return recordFrom != null ? recordFrom.name() : "cassette";
+    }
+
+    static String key(Request request) {
+        long h = 0xcbf29ce484222325L; // FNV-1a, 64 bit
+        String text = request.systemPrompt + "\u0000" + request.userPrompt;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return request.kind.name().toLowerCase() + ":" + Long.toHexString(h);
+    }
+
+    @Override
+    public Pending complete(Request request, LLMService.LLMCallback callback) {
+        String key = key(request);
+        if (recordFrom != null) {
+            long t0 = System.nanoTime();
+            return recordFrom.complete(request, new LLMService.StreamCallback() {
+                @Override
+                public void onPartial(String textSoFar) {
+                    if (callback instanceof LLMService.StreamCallback) ((LLMService.StreamCallback) callback).onPartial(textSoFar);
+                }
+
+                @Override
+                public void onSuccess(String result) {
+                    record(key, result, (System.nanoTime() - t0) / 1_000_000L);
+                    callback.onSuccess(result);
+                }
+
+                @Override
+                public void onError(String error) {
+                    callback.onError(error);
+                }
+            });
+        }
+        JSONObject entry;
+        long delay;
+        synchronized (this) {
+            entry = tape.get(key);
+            if (entry == null) missing++;
+            else replayed++;
+            delay = entry == null ? 0 : delayFor(entry.optLong("ms", 0));
+        }
+        if (entry == null) {
+            callback.onError("Prompt not in the cassette (" + key + ")");
+            return Pending.DONE;
+        }
+        String result = entry.getString("r");
+        if (request.stream && callback instanceof LLMService.StreamCallback) {
+            // the words of the answer spread over the latency, as a stream would deliver them
+            String[] words = result.split(" ");
+            StringBuilder soFar = new StringBuilder();
+            for (int i = 0; i < words.length - 1; i++) {
+                soFar.append(i == 0 ? "" : " ").append(words[i]);
+                String partial = soFar.toString();
+                timer.schedule(() -> ((LLMService.StreamCallback) callback).onPartial(partial),
+                        delay * (i + 1) / words.length, TimeUnit.MILLISECONDS);
+            }
+        }
+        ScheduledFuture<?> done = timer.schedule(() -> callback.onSuccess(result), delay, TimeUnit.MILLISECONDS);
+        return () -> done.cancel(false);
+    }
+
+    private long delayFor(long recordedMs) {
+        String[] spec = latency.split(":", 2);
+        try {
+            switch (spec[0]) {
+                case "none":
+                    return 0;
+                case "fixed":
+                    return Long.parseLong(spec[1].trim());
+                case "uniform": {
+                    String[] r = spec[1].split("-");
+                    long min = Long.parseLong(r[0].trim()), max = Long.parseLong(r[1].trim());
+                    return min + (long) (random.nextDouble() * (max - min));
+                }
+                case "lognormal": {
+                    String[] p = spec[1].split(",");
+                    double median = Double.parseDouble(p[0].trim()), sigma = Double.parseDouble(p[1].trim());
+                    return (long) (median * Math.exp(sigma * random.nextGaussian()));
+                }
+                default:
+                    return recordedMs;
+            }
+        } catch (RuntimeException e) {
+            return recordedMs; // malformed spec
+        }
+    }
+
+    private synchronized void record(String key, String result, long ms) {
+        JSONObject entry = new JSONObject().put("k", key).put("r", result).put("ms", ms);
+        tape.put(key, entry);
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(file, true))) {
+            w.write(entry.toString());
+            w.newLine();
+            recorded++;
+        } catch (IOException e) {
+            System.err.println("[!] Unable to write the LLM cassette: " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        try (BufferedReader r = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                try {
+                    JSONObject o = new JSONObject(line);
+                    tape.put(o.getString("k"), o); // a later recording of the same prompt wins
+                } catch (Exception e) {
+                    // torn line: skip it
+                }
+            }
+            System.out.println("📼 LLM cassette: " + tape.size() + " completions loaded from " + file.getPath());
+        } catch (IOException e) {
+            System.err.println("[!] Unable to read the LLM cassette: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void warmUp() {
+        if (recordFrom != null) recordFrom.warmUp();
+    }
+
+    @Override
+    public synchronized String describe() {
+        String d = recordFrom != null ? recordFrom.describe() : "";
+        return (d.isEmpty() ? "" : d + " ") + "cassette.recorded=" + recorded + " cassette.replayed=" + replayed
+                + " cassette.missing=" + missing;
+    }
+}
@@ -0,0 +1,715 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single-pass reader for the Prolog clauses exchanged between the agents.
+ * - One tokenizer pass (quoted atoms, strings, numbers, comments, lists) feeding an operator-precedence
+ *   parser with the standard SWI-Prolog operator table; the result is a small AST
+ * - Every term keeps its source span, so parts of a clause are re-emitted without parsing again
+ * - Used by the LogicAgent (classification, dynamic declarations, cache dependencies)
+ *   and by the LLMService (predicates used by a translation)
+ */
+public final class ClauseReader {
+
+    public static final class Term {
+        public enum Kind { ATOM, VAR, NUMBER, STRING, COMPOUND, LIST }
+
+        public final Kind kind;
+        public final String name;       // functor, atom, variable name or literal text
+        public final List<Term> args;   // COMPOUND arguments, LIST elements
+        public final Term tail;         // LIST tail after '|', null for a proper list
+        public final int start, end;    // source span [start, end)
+
+        Term(Kind kind, String name, List<Term> args, Term tail, int start, int end) {
+            this.kind = kind;
+            this.name = name;
+            this.args = args;
+            this.tail = tail;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int arity() {
+            return kind == Kind.COMPOUND ? args.size() : 0;
+        }
+
+        public boolean is(String functor, int arity) {
+            return (kind == Kind.COMPOUND || kind == Kind.ATOM) && name.equals(functor) && arity() == arity;
+        }
+
+        /** name/arity for atoms and compounds, null for anything else. */
+        public String key() {
+            return kind == Kind.COMPOUND || kind == Kind.ATOM ? name + "/" + arity() : null;
+        }
+
+        /** Like {@link #key()}, with the name quoted when it is not a plain atom: for building Prolog text. */
+        public String quotedKey() {
+            return kind == Kind.COMPOUND || kind == Kind.ATOM ? quoteAtom(name) + "/" + arity() : null;
+        }
+
+        public boolean hasVariables() {
+            if (kind == Kind.VAR) return true;
+            for (Term a : args) if (a.hasVariables()) return true;
+            return tail != null && tail.hasVariables();
+        }
+    }
+
+    public static final class Clause {
+        public enum Kind { FACT, RULE, CONJUNCTION, QUERY, DIRECTIVE }
+
+        public final Kind kind;
+        public final Term term;   // the clause without "?-" / ":-" prefix
+        public final Term head;   // FACT and RULE
+        public final Term body;   // RULE body, goal of QUERY and DIRECTIVE, the whole CONJUNCTION
+        private final String source;
+
+        Clause(Kind kind, Term term, Term head, Term body, String source) {
+            this.kind = kind;
+            this.term = term;
+            this.head = head;
+            this.body = body;
+            this.source = source;
+        }
+
+        /** The clause on a single line, without "?-" and the final dot. */
+        public String text() {
+            return text(term);
+        }
+
+        /** Source of a sub-term on a single line: comments dropped, layout collapsed outside quotes. */
+        public String text(Term t) {
+            StringBuilder sb = new StringBuilder(t.end - t.start);
+            char quote = 0;
+            for (int i = t.start; i < t.end; i++) {
+                char c = source.charAt(i);
+                if (quote != 0) {
+                    if (c == '\\' && i + 1 < t.end) {
+                        sb.append(c).append(source.charAt(++i));
+                        continue;
+                    }
+                    if (c == '\n') sb.append("\\n");
+                    else if (c != '\r') sb.append(c);
+                    if (c == quote) quote = 0;
+                } else if (c == '\'' && i > t.start && source.charAt(i - 1) == '0') {
+                    // 0'c character code, not a quoted atom
+                    sb.append(c);
+                    if (i + 1 < t.end) {
+                        char next = source.charAt(++i);
+                        sb.append(next);
+                        if ((next == '\\' || next == '\'') && i + 1 < t.end) sb.append(source.charAt(++i));
+                    }
+                } else if (c == '\'' || c == '"' || c == '`') {
+                    quote = c;
+                    sb.append(c);
+                } else if (c == '%') {
+                    while (i + 1 < t.end && source.charAt(i + 1) != '\n') i++;
+                    space(sb);
+                } else if (c == '/' && i + 1 < t.end && source.charAt(i + 1) == '*') {
+                    int close = source.indexOf("*/", i + 2);
+                    i = close < 0 || close + 1 >= t.end ? t.end - 1 : close + 1;
+                    space(sb);
+                } else if (Character.isWhitespace(c)) {
+                    space(sb);
+                } else {
+                    sb.append(c);
+                }
+            }
+            int n = sb.length();
+            return n > 0 && sb.charAt(n - 1) == ' ' ? sb.substring(0, n - 1) : sb.toString();
+        }
+
+        private static void space(StringBuilder sb) {
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') sb.append(' ');
+        }
+
+        /** name/arity of the head (FACT, RULE), null otherwise. */
+        public String headKey() {
+            return head == null ? null : head.key();
+        }
+
+        public boolean hasVariables() {
+            return term.hasVariables();
+        }
+
+        /** Top-level members of a conjunction, in order (a single element for anything else). */
+        public List<Term> conjuncts() {
+            List<Term> out = new ArrayList<>();
+            Term t = term;
+            while (t.is(",", 2)) {
+                out.add(t.args.get(0));
+                t = t.args.get(1);
+            }
+            out.add(t);
+            return out;
+        }
+
+        /** Predicates called as goals, following control constructs (",", ";", "->", "\\+", findall, ...). */
+        public Set<String> goals() {
+            Set<String> out = new LinkedHashSet<>();
+            if (head != null) out.add(head.key());
+            if (body != null) collectGoals(body, out);
+            return out;
+        }
+
+        /**
+         * Goals plus every compound term at any depth of the body.
+         * An over-approximation of what a query may call, meant for cache invalidation.
+         */
+        public Set<String> functors() {
+            Set<String> out = new HashSet<>();
+            if (body != null) {
+                collectGoals(body, out);
+                collectCompounds(body, out);
+            }
+            return out;
+        }
+
+        /** "name/N" declared by a ":- dynamic name/N" directive, null for anything else. */
+        public String declaredDynamic() {
+            if (kind != Kind.DIRECTIVE || !body.is("dynamic", 1)) return null;
+            Term spec = body.args.get(0);
+            if (!spec.is("/", 2) || spec.args.get(0).kind != Term.Kind.ATOM
+                    || spec.args.get(1).kind != Term.Kind.NUMBER) {
+                return null;
+            }
+            return spec.args.get(0).name + "/" + spec.args.get(1).name;
+        }
+
+        private static void collectGoals(Term t, Set<String> out) {
+            if (t.kind == Term.Kind.VAR) return;
+            if (t.kind != Term.Kind.ATOM && t.kind != Term.Kind.COMPOUND) return;
+            if (CONTROL.contains(t.key())) {
+                for (Term a : t.args) collectGoals(a, out);
+            } else if (!t.name.equals("!")) {
+                out.add(t.key());
+            }
+        }
+
+        private static void collectCompounds(Term t, Set<String> out) {
+            if (t.kind == Term.Kind.COMPOUND && !CONTROL.contains(t.key())) out.add(t.key());
+            for (Term a : t.args) collectCompounds(a, out);
+            if (t.tail != null) collectCompounds(t.tail, out);
+        }
+    }
+
+    // Control constructs whose arguments are goals (templates of findall & co. are harmless extras)
+    private static final Set<String> CONTROL = new HashSet<>();
+    static {
+        Collections.addAll(CONTROL, ",/2", ";/2", "->/2", "*->/2", "\\+/1", "not/1", "call/1", "once/1",
+                "ignore/1", "forall/2", "findall/3", "findall/4", "bagof/3", "setof/3", "aggregate_all/3", "^/2");
+    }
+
+    private enum Assoc { XFX, XFY, YFX, FY, FX }
+
+    private static final class Op {
+        final int priority;
+        final Assoc assoc;
+        Op(int priority, Assoc assoc) {
+            this.priority = priority;
+            this.assoc = assoc;
+        }
+    }
+
+    private static final Map<String, Op> INFIX = new HashMap<>();
+    private static final Map<String, Op> PREFIX = new HashMap<>();
+    static {
+        infix(1200, Assoc.XFX, ":-", "-->");
+        infix(1100, Assoc.XFY, ";");
+        infix(1105, Assoc.XFY, "|");
+        infix(1050, Assoc.XFY, "->", "*->");
+        infix(1000, Assoc.XFY, ",");
+        infix(990, Assoc.XFX, ":=");
+        infix(700, Assoc.XFX, "=", "\\=", "==", "\\==", "@<", "@>", "@=<", "@>=", "=..", "is", "=:=", "=\\=",
+                "<", ">", "=<", ">=", ">:<", ":<", "as");
+        infix(600, Assoc.XFY, ":");
+        infix(500, Assoc.YFX, "+", "-", "/\\", "\\/", "xor");
+        infix(400, Assoc.YFX, "*", "/", "//", "rem", "mod", "div", "<<", ">>", "divmod", "rdiv");
+        infix(200, Assoc.XFX, "**");
+        infix(200, Assoc.XFY, "^");
+        prefix(1200, Assoc.FX, ":-", "?-");
+        prefix(1150, Assoc.FX, "dynamic", "discontiguous", "initialization", "module_transparent",
+                "multifile", "public", "thread_local", "table");
+        prefix(900, Assoc.FY, "\\+");
+        prefix(200, Assoc.FY, "-", "+", "\\");
+        prefix(1, Assoc.FX, "$");
+    }
+
+    private static void infix(int priority, Assoc assoc, String... names) {
+        for (String n : names) INFIX.put(n, new Op(priority, assoc));
+    }
+
+    private static void prefix(int priority, Assoc assoc, String... names) {
+        for (String n : names) PREFIX.put(n, new Op(priority, assoc));
+    }
+
+    private ClauseReader() {
+    }
+
+    /**
+     * Reads the first clause of the text; "?-" marks a query, the final dot is optional.
+     * @throws IllegalArgumentException if the text is not a valid clause
+     */
+    public static Clause read(String text) {
+        Parser p = new Parser(text == null ? "" : text);
+        Term t = p.parse(1200);
+        p.expectEnd();
+        return clause(t, text);
+    }
+
+    /**
+     * Every clause of a file's text, in order, whatever its layout (a clause may span lines, a line may hold
+     * several). A clause with a syntax error is skipped up to its final dot, as consult does.
+     */
+    public static List<Clause> readAll(String text) {
+        List<Clause> out = new ArrayList<>();
+        if (text == null) return out;
+        Parser p = new Parser(text, false);
+        p.advanceLenient();
+        while (p.tok != Tok.EOF) {
+            try {
+                Term t = p.parse(1200);
+                p.expectEnd();
+                out.add(clause(t, text));
+            } catch (IllegalArgumentException e) {
+                while (p.tok != Tok.END && p.tok != Tok.EOF) p.advanceLenient();
+            }
+            if (p.tok == Tok.END) p.advanceLenient();
+        }
+        return out;
+    }
+
+    private static Clause clause(Term t, String text) {
+        if (t.is("?-", 1)) return new Clause(Clause.Kind.QUERY, t.args.get(0), null, t.args.get(0), text);
+        if (t.is(":-", 1)) return new Clause(Clause.Kind.DIRECTIVE, t.args.get(0), null, t.args.get(0), text);
+        if (t.is(":-", 2)) return new Clause(Clause.Kind.RULE, t, t.args.get(0), t.args.get(1), text);
+        if (t.is(",", 2)) return new Clause(Clause.Kind.CONJUNCTION, t, null, t, text);
+        return new Clause(Clause.Kind.FACT, t, t, null, text);
+    }
+
+    /** Like {@link #read} but returns null instead of throwing. */
+    public static Clause tryRead(String text) {
+        try {
+            return read(text);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** name/arity of the head of a fact or rule, null if the text is not one. */
+    public static String keyOf(String clause) {
+        Clause c = tryRead(clause);
+        return c == null ? null : c.headKey();
+    }
+
+    /** "name/N" (as from {@link Term#key()}) with the name quoted if needed, e.g. "'likes much'/2". */
+    public static String quotedKey(String key) {
+        if (key == null) return null;
+        int slash = key.lastIndexOf('/');
+        return slash <= 0 ? quoteAtom(key) : quoteAtom(key.substring(0, slash)) + key.substring(slash);
+    }
+
+    /** The atom as Prolog source: unchanged if it reads back as the same atom, quoted and escaped otherwise. */
+    public static String quoteAtom(String name) {
+        if (isPlainAtom(name)) return name;
+        StringBuilder sb = new StringBuilder("'");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '\'' || c == '\\') sb.append('\\').append(c);
+            else if (c == '\n') sb.append("\\n");
+            else if (c == '\t') sb.append("\\t");
+            else sb.append(c);
+        }
+        return sb.append('\'').toString();
+    }
+
+    private static boolean isPlainAtom(String name) {
+        if (name.isEmpty()) return false;
+        if (name.equals("[]") || name.equals("{}") || name.equals("!") || name.equals(";")) return true;
+        char first = name.charAt(0);
+        if (Character.isLetter(first) && Character.isLowerCase(first)) {
+            for (int i = 1; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (!Character.isLetterOrDigit(c) && c != '_') return false;
+            }
+            return true;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (SYMBOL_CHARS.indexOf(name.charAt(i)) < 0) return false;
+        }
+        return !name.equals(".") && !name.startsWith("/*");
+    }
+
+    // ---- tokenizer ----
+
+    private enum Tok { NAME, QNAME, VAR, NUMBER, STRING, PUNCT, END, EOF }
+
+    private static final String SYMBOL_CHARS = "+-*/\\^<>=~:.?@#&$";
+
+    private static final class Parser {
+        private final String s;
+        private int pos = 0;
+        // current token
+        private Tok tok;
+        private int tokStart, tokEnd;
+        private boolean layoutBefore;
+        private String tokText;
+        // priority of the last term returned by parse()
+        private int termPriority;
+
+        Parser(String s) {
+            this(s, true);
+        }
+
+        Parser(String s, boolean start) {
+            this.s = s;
+            if (start) advance();
+        }
+
+        // Next token, skipping characters the tokenizer rejects
+        void advanceLenient() {
+            while (true) {
+                try {
+                    advance();
+                    return;
+                } catch (IllegalArgumentException e) {
+                    pos = tokStart + 1;
+                }
+            }
+        }
+
+        private IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException("syntax error at " + tokStart + ": " + msg);
+        }
+
+        private void advance() {
+            layoutBefore = skipLayout();
+            tokStart = pos;
+            tokText = null;
+            if (pos >= s.length()) {
+                tok = Tok.EOF;
+                tokEnd = pos;
+                return;
+            }
+            char c = s.charAt(pos);
+            if (Character.isDigit(c)) {
+                readNumber();
+                tok = Tok.NUMBER;
+            } else if (c == '_' || Character.isUpperCase(c)) {
+                pos = wordEnd(pos + 1);
+                tok = Tok.VAR;
+            } else if (Character.isLetter(c)) {
+                pos = wordEnd(pos + 1);
+                tok = Tok.NAME;
+            } else if (c == '\'') {
+                tokText = readQuoted('\'');
+                tok = Tok.QNAME;
+            } else if (c == '"' || c == '`') {
+                readQuoted(c);
+                tok = Tok.STRING;
+            } else if (c == '.' && (pos + 1 >= s.length() || Character.isWhitespace(s.charAt(pos + 1))
+                    || s.charAt(pos + 1) == '%')) {
+                pos++;
+                tok = Tok.END;
+            } else if (SYMBOL_CHARS.indexOf(c) >= 0) {
+                while (pos < s.length() && SYMBOL_CHARS.indexOf(s.charAt(pos)) >= 0) pos++;
+                tok = Tok.NAME;
+            } else if (c == '!' || c == ';') {
+                pos++;
+                tok = Tok.NAME;
+            } else if ("()[]{},|".indexOf(c) >= 0) {
+                pos++;
+                tok = Tok.PUNCT;
+            } else {
+                throw error("unexpected character '" + c + "'");
+            }
+            tokEnd = pos;
+        }
+
+        private String text() {
+            if (tokText == null) tokText = s.substring(tokStart, tokEnd);
+            return tokText;
+        }
+
+        private boolean isPunct(char c) {
+            return tok == Tok.PUNCT && s.charAt(tokStart) == c;
+        }
+
+        // Skips blanks and comments; true if anything was skipped
+        private boolean skipLayout() {
+            int from = pos;
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                } else if (c == '%') {
+                    while (pos < s.length() && s.charAt(pos) != '\n') pos++;
+                } else if (c == '/' && pos + 1 < s.length() && s.charAt(pos + 1) == '*') {
+                    int close = s.indexOf("*/", pos + 2);
+                    pos = close < 0 ? s.length() : close + 2;
+                } else {
+                    break;
+                }
+            }
+            return pos > from;
+        }
+
+        private int wordEnd(int i) {
+            while (i < s.length() && (Character.isLetterOrDigit(s.charAt(i)) || s.charAt(i) == '_')) i++;
+            return i;
+        }
+
+        private void readNumber() {
+            if (s.startsWith("0'", pos) && pos + 2 < s.length()) {
+                // character code: 0'a, 0'\n, 0'''
+                pos += 2;
+                if (s.charAt(pos) == '\\' || s.startsWith("''", pos)) pos++;
+                pos++;
+                return;
+            }
+            if (s.charAt(pos) == '0' && pos + 1 < s.length() && "xob".indexOf(s.charAt(pos + 1)) >= 0
+                    && pos + 2 < s.length() && Character.isLetterOrDigit(s.charAt(pos + 2))) {
+                pos = wordEnd(pos + 2);
+                return;
+            }
+            while (pos < s.length() && (Character.isDigit(s.charAt(pos)) || s.charAt(pos) == '_')) pos++;
+            if (pos + 1 < s.length() && s.charAt(pos) == '.' && Character.isDigit(s.charAt(pos + 1))) {
+                pos += 2;
+                while (pos < s.length() && Character.isDigit(s.charAt(pos))) pos++;
+            }
+            if (pos < s.length() && (s.charAt(pos) == 'e' || s.charAt(pos) == 'E')) {
+                int e = pos + 1;
+                if (e < s.length() && (s.charAt(e) == '+' || s.charAt(e) == '-')) e++;
+                if (e < s.length() && Character.isDigit(s.charAt(e))) {
+                    pos = e;
+                    while (pos < s.length() && Character.isDigit(s.charAt(pos))) pos++;
+                }
+            }
+        }
+
+        // Reads a quoted item starting at pos; returns its unescaped content
+        private String readQuoted(char quote) {
+            StringBuilder sb = new StringBuilder();
+            int i = pos + 1;
+            while (true) {
+                if (i >= s.length()) {
+                    tokStart = pos;
+                    throw error("unterminated quoted text");
+                }
+                char c = s.charAt(i);
+                if (c == quote) {
+                    if (i + 1 < s.length() && s.charAt(i + 1) == quote) {
+                        sb.append(quote);
+                        i += 2;
+                        continue;
+                    }
+                    break;
+                }
+                if (c == '\\' && i + 1 < s.length()) {
+                    char e = s.charAt(++i);
+                    switch (e) {
+                        case 'n': sb.append('\n'); break;
+                        case 't': sb.append('\t'); break;
+                        case '\n': break; // line continuation
+                        default: sb.append(e);
+                    }
+                    i++;
+                    continue;
+                }
+                sb.append(c);
+                i++;
+            }
+            pos = i + 1;
+            return sb.toString();
+        }
+
+        // ---- parser ----
+
+        // The clause must end here; anything after its final dot is ignored
+        void expectEnd() {
+            if (tok != Tok.END && tok != Tok.EOF) throw error("operator expected");
+        }
+
+        Term parse(int max) {
+            Term left = primary(max);
+            int leftPriority = termPriority;
+            while (true) {
+                String name;
+                if (tok == Tok.NAME) name = text();
+                else if (isPunct(',')) name = ",";
+                else if (isPunct('|')) name = "|";
+                else break;
+                Op op = INFIX.get(name);
+                if (op == null || op.priority > max) break;
+                int leftMax = op.assoc == Assoc.YFX ? op.priority : op.priority - 1;
+                int rightMax = op.assoc == Assoc.XFY ? op.priority : op.priority - 1;
+                if (leftPriority > leftMax) break;
+                advance();
+                Term right = parse(rightMax);
+                List<Term> args = new ArrayList<>(2);
+                args.add(left);
+                args.add(right);
+                left = new Term(Term.Kind.COMPOUND, "|".equals(name) ? ";" : name, args, null, left.start, right.end);
+                leftPriority = op.priority;
+            }
+            termPriority = leftPriority;
+            return left;
+        }
+
+        private Term primary(int max) {
+            int start = tokStart;
+            termPriority = 0;
+            switch (tok) {
+                case NUMBER:
+                case VAR:
+                case STRING: {
+                    Term.Kind kind = tok == Tok.NUMBER ? Term.Kind.NUMBER : tok == Tok.VAR ? Term.Kind.VAR : Term.Kind.STRING;
+                    int end = tokEnd;
+                    String lit = text();
+                    advance();
+                    return new Term(kind, lit, Collections.<Term>emptyList(), null, start, end);
+                }
+                case PUNCT:
+                    return punct(start);
+                case NAME:
+                case QNAME:
+                    return name(max, start);
+                default:
+                    throw error("unexpected end of clause");
+            }
+        }
+
+        private Term punct(int start) {
+            char c = s.charAt(tokStart);
+            if (c == '(') {
+                advance();
+                Term t = parse(1200);
+                int end = tokEnd;
+                expect(')');
+                termPriority = 0;
+                // the span covers the parentheses, so re-emitted text keeps the grouping
+                return new Term(t.kind, t.name, t.args, t.tail, start, end);
+            }
+            if (c == '[') {
+                advance();
+                if (isPunct(']')) {
+                    int end = tokEnd;
+                    advance();
+                    return atomOrCompound("[]", start, end);
+                }
+                List<Term> items = new ArrayList<>();
+                items.add(parse(999));
+                while (isPunct(',')) {
+                    advance();
+                    items.add(parse(999));
+                }
+                Term tail = null;
+                if (isPunct('|')) {
+                    advance();
+                    tail = parse(999);
+                }
+                int end = tokEnd;
+                expect(']');
+                termPriority = 0;
+                return new Term(Term.Kind.LIST, "[]", items, tail, start, end);
+            }
+            if (c == '{') {
+                advance();
+                if (isPunct('}')) {
+                    int end = tokEnd;
+                    advance();
+                    return atomOrCompound("{}", start, end);
+                }
+                Term inner = parse(1200);
+                int end = tokEnd;
+                expect('}');
+                termPriority = 0;
+                return new Term(Term.Kind.COMPOUND, "{}", Collections.singletonList(inner), null, start, end);
+            }
+            throw error("unexpected '" + c + "'");
+        }
+
+        private Term name(int max, int start) {
+            boolean quoted = tok == Tok.QNAME;
+            String name = text();
+            int end = tokEnd;
+            advance();
+            if (isPunct('(') && !layoutBefore) return compound(name, start);
+            if (quoted) return new Term(Term.Kind.ATOM, name, Collections.<Term>emptyList(), null, start, end);
+
+            // negative numeric literal: "-1" but not "- 1"
+            if ("-".equals(name) && tok == Tok.NUMBER && !layoutBefore) {
+                String n = text();
+                int nend = tokEnd;
+                advance();
+                return new Term(Term.Kind.NUMBER, "-" + n, Collections.<Term>emptyList(), null, start, nend);
+            }
+
+            Op op = PREFIX.get(name);
+            if (op != null && canStartTerm()) {
+                int priority = op.priority;
+                if (priority > max) priority = 999;
+                int argMax = op.assoc == Assoc.FY ? priority : priority - 1;
+                Term arg = parse(argMax);
+                termPriority = priority;
+                return new Term(Term.Kind.COMPOUND, name, Collections.singletonList(arg), null, start, arg.end);
+            }
+            // an operator used as an atom, e.g. X = (-)
+            termPriority = 0;
+            return new Term(Term.Kind.ATOM, name, Collections.<Term>emptyList(), null, start, end);
+        }
+
+        private Term atomOrCompound(String name, int start, int end) {
+            if (isPunct('(') && !layoutBefore) return compound(name, start);
+            termPriority = 0;
+            return new Term(Term.Kind.ATOM, name, Collections.<Term>emptyList(), null, start, end);
+        }
+
+        // Whether the current token can begin the operand of a prefix operator
+        private boolean canStartTerm() {
+            switch (tok) {
+                case EOF:
+                case END:
+                    return false;
+                case PUNCT:
+                    return "([{".indexOf(s.charAt(tokStart)) >= 0;
+                case NAME:
+                    // "- = x": the next name is an infix operator, so the prefix one is an atom
+                    String n = text();
+                    return !INFIX.containsKey(n) || PREFIX.containsKey(n) || peekOpenParen();
+                default:
+                    return true;
+            }
+        }
+
+        private boolean peekOpenParen() {
+            return tokEnd < s.length() && s.charAt(tokEnd) == '(';
+        }
+
+        private Term compound(String name, int start) {
+            advance(); // '('
+            List<Term> args = new ArrayList<>(4);
+            args.add(parse(999));
+            while (isPunct(',')) {
+                advance();
+                args.add(parse(999));
+            }
+            int end = tokEnd;
+            expect(')');
+            termPriority = 0;
+            return new Term(Term.Kind.COMPOUND, name, args, null, start, end);
+        }
+
+        private void expect(char c) {
+            if (!isPunct(c)) throw error("'" + c + "' expected");
+            advance();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Recognizes input that is already Prolog, so the ParserAgent can skip the LLM translation.
+ * - Facts: one ground fact whose predicate is in the catalog (new predicates still go through the LLM,
+ *   which knows how to name them)
+ * - Rules: a rule whose body only calls predicates of the catalog
+ * - Queries: "?- goal." or a bare goal with a final dot, calling catalog predicates (at least one) and comparisons
+ * - Anything else (natural language, unknown predicates, directives) returns null and takes the LLM path
+ */
+public final class DirectProlog {
+
+    // Built-ins a query may use next to the KB predicates
+    private static final Set<String> BUILTINS = new HashSet<>(Arrays.asList(
+            "=/2", "\\=/2", "==/2", "\\==/2", "</2", ">/2", "=</2", ">=/2", "is/2", "=:=/2", "=\\=/2"));
+
+    /** Answer to a question the KB cannot answer; sent by the LogicAgent, or by the ParserAgent for a known failure. */
+    public static final String NO_ANSWER = "❌ There is no information in the knowledge base to answer this question.";
+
+    private DirectProlog() {}
+
+    /**
+     * The clause ready for the LogicAgent ("fact." or "?- goal."), or null if the input is not
+     * well-formed Prolog over known predicates.
+     */
+    public static String recognize(String input, String type, PredicateCatalog catalog) {
+        if (input == null || catalog == null || !catalog.isLoaded()) return null;
+        String text = input.trim();
+        // a final dot (or "?-") is what tells typed Prolog apart from a sentence that happens to parse
+        if (!text.endsWith(".") && !text.startsWith("?-")) return null;
+        ClauseReader.Clause c = ClauseReader.tryRead(text);
+        if (c == null || c.term.kind != ClauseReader.Term.Kind.COMPOUND) return null;
+
+        if ("query".equalsIgnoreCase(type)) {
+            if (c.kind == ClauseReader.Clause.Kind.RULE || c.kind == ClauseReader.Clause.Kind.DIRECTIVE) return null;
+            if (!knownGoals(c.goals(), catalog)) return null;
+            return "?- " + c.text() + ".";
+        }
+        if (c.kind == ClauseReader.Clause.Kind.FACT) {
+            if (c.hasVariables() || !catalog.contains(c.headKey())) return null;
+            return c.text() + ".";
+        }
+        if (c.kind == ClauseReader.Clause.Kind.RULE && c.head.kind == ClauseReader.Term.Kind.COMPOUND) {
+            Set<String> body = new HashSet<>(c.goals());
+            body.remove(c.headKey()); // a recursive call is fine
+            if (!knownGoals(body, catalog)) return null;
+            return c.text() + ".";
+        }
+        return null;
+    }
+
+    // Every goal known, and at least one from the KB: built-ins alone ("Rome is nice.") are not a KB question
+    private static boolean knownGoals(Set<String> goals, PredicateCatalog catalog) {
+        boolean fromKb = false;
+        for (String g : goals) {
+            if (catalog.contains(g)) fromKb = true;
+            else if (!BUILTINS.contains(g)) return false;
+        }
+        return fromKb;
+    }
+
+    /** True if the translation is the "?- fail." of a question that cannot be asked with the known predicates. */
+    public static boolean isKnownFailure(String query) {
+        return query != null && query.replaceAll("\\s+", "").equals("?-fail.");
+    }
+}
@@ -0,0 +1,149 @@
+package utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * Long-lived channel from the agents to the frontend result server (FRONT_HOST:FRONT_PORT).
+ * - One socket per JVM, opened lazily and reopened with backoff when it drops
+ * - After the "DABS1\n" preamble every answer is a frame: 4-byte big-endian length + UTF-8 JSON {"id", "answer"}
+ * - The id is the request id the frontend attached to the request; null for messages with no caller
+ * - A single writer thread keeps answers in order (pages of a result arrive in sequence)
+ * - FRONT_CHANNEL=legacy restores one connection per answer, newline-terminated, for older frontends
+ */
+public final class FrontendChannel {
+
+    private static final byte[] PREAMBLE = "DABS1\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_QUEUED = 1024;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long MAX_BACKOFF_MS = 5_000L;
+
+    private static final FrontendChannel INSTANCE = new FrontendChannel();
+
+    private final String host;
+    private final int port;
+    private final boolean legacy;
+    private final BlockingQueue<String[]> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private Socket socket;          // touched only by the writer thread
+    private DataOutputStream out;
+    private Thread writer;
+
+    private FrontendChannel() {
+        host = System.getenv().getOrDefault("FRONT_HOST", "127.0.0.1");
+        int p;
+        try { p = Integer.parseInt(System.getenv().getOrDefault("FRONT_PORT", "5002")); } catch (Exception e) { p = 5002; }
+        port = p;
+        legacy = "legacy".equalsIgnoreCase(System.getenv().getOrDefault("FRONT_CHANNEL", "framed"));
+    }
+
+    public static FrontendChannel get() {
+        return INSTANCE;
+    }
+
+    /** Queues an answer for the caller identified by requestId (null if unknown). Never blocks. */
+    public void send(String requestId, String answer) {
+        String[] item = {requestId, answer == null ? "" : answer};
+        while (!queue.offer(item)) {
+            // frontend unreachable for long: keep the most recent answers
+            if (queue.poll() != null) dropped.incrementAndGet();
+        }
+        startWriter();
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null) return;
+        writer = new Thread(this::writeLoop, "frontend-channel");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void writeLoop() {
+        long backoff = 200;
+        while (true) {
+            String[] item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    if (legacy) writeLine(item[1]);
+                    else writeFrame(item[0], item[1]);
+                    sent.incrementAndGet();
+                    backoff = 200;
+                    System.out.println("📤 Answer sent to the frontend" + (item[0] != null ? " [" + item[0] + "]" : "") + ": " + item[1]);
+                    break;
+                } catch (IOException e) {
+                    closeQuietly();
+                    if (attempt >= MAX_ATTEMPTS) {
+                        dropped.incrementAndGet();
+                        System.err.println("❌ Error sending to frontend: " + e.getMessage());
+                        break;
+                    }
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+                }
+            }
+        }
+    }
+
+    private void writeFrame(String requestId, String answer) throws IOException {
+        if (out == null) {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), 2_000);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.write(PREAMBLE);
+            if (reconnects.incrementAndGet() > 1) System.out.println("🔌 Frontend channel reconnected");
+        }
+        byte[] json = new JSONObject()
+                .put("id", requestId == null ? JSONObject.NULL : requestId)
+                .put("answer", answer)
+                .toString()
+                .getBytes(StandardCharsets.UTF_8);
+        out.writeInt(json.length);
+        out.write(json);
+        out.flush();
+    }
+
+    private void writeLine(String answer) throws IOException {
+        try (Socket s = new Socket(host, port);
+             OutputStreamWriter w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+            w.write(answer + "\n");
+            w.flush();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException ignored) {
+        }
+        socket = null;
+        out = null;
+    }
+
+    public String describe() {
+        return "front.sent=" + sent.get() + " front.queued=" + queue.size()
+                + " front.dropped=" + dropped.get() + " front.connects=" + reconnects.get();
+    }
+}
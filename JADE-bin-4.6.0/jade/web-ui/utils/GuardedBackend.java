@@ -0,0 +1,301 @@
+package utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Protects the agents from a slow or failing LLM endpoint; wraps each HTTP backend.
+ * - Adaptive concurrency limit (AIMD): +1 per limit's worth of fast successes, ×0.7 on an error or on a
+ *   call slower than LLM_LIMIT_LATENCY_MS, between 1 and LLM_LIMIT_MAX
+ * - Calls over the limit wait in a bounded FIFO queue (LLM_QUEUE_SIZE); a full queue, or a wait longer
+ *   than LLM_QUEUE_TIMEOUT_MS (timed on its own, even while every call in flight hangs), rejects the call
+ *   at once instead of letting callbacks pile up
+ * - Circuit breaker: LLM_BREAKER_FAILURES consecutive errors open it for LLM_BREAKER_OPEN_MS, during which
+ *   calls fail fast (a fallback chain such as "openrouter,rules" then answers from the next backend);
+ *   afterwards a single probe call decides whether it closes again
+ */
+public class GuardedBackend implements LLMBackend {
+
+    private enum Breaker { CLOSED, OPEN, HALF_OPEN }
+
+    private static final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "llm-queue-timeout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Waiting {
+        final Runnable start;
+        final LLMService.LLMCallback callback;
+        final long since = System.currentTimeMillis();
+        ScheduledFuture<?> timeout;
+        Waiting(Runnable start, LLMService.LLMCallback callback) {
+            this.start = start;
+            this.callback = callback;
+        }
+    }
+
+    private final LLMBackend delegate;
+    private final int maxLimit;
+    private final long slowMs;
+    private final int queueSize;
+    private final long queueTimeoutMs;
+    private final int failuresToOpen;
+    private final long openMs;
+
+    private double limit;
+    private int inFlight = 0;
+    private final Deque<Waiting> queue = new ArrayDeque<>();
+    private Breaker breaker = Breaker.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean probing = false;
+    private long rejected = 0, shortCircuited = 0, opened = 0, timedOutInQueue = 0;
+
+    public GuardedBackend(LLMBackend delegate, int initialLimit, int maxLimit, long slowMs, int queueSize,
+                          long queueTimeoutMs, int failuresToOpen, long openMs) {
+        this.delegate = delegate;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.slowMs = slowMs;
+        this.queueSize = queueSize;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.failuresToOpen = Math.max(1, failuresToOpen);
+        this.openMs = openMs;
+    }
+
+    /** From LLM_LIMIT_INITIAL, LLM_LIMIT_MAX, LLM_LIMIT_LATENCY_MS, LLM_QUEUE_SIZE, LLM_QUEUE_TIMEOUT_MS, LLM_BREAKER_*. */
+    public static GuardedBackend fromEnv(LLMBackend delegate) {
+        return new GuardedBackend(delegate,
+                (int) env("LLM_LIMIT_INITIAL", 8),
+                (int) env("LLM_LIMIT_MAX", env("LLM_MAX_CONCURRENCY", 32)),
+                env("LLM_LIMIT_LATENCY_MS", 15_000),
+                (int) env("LLM_QUEUE_SIZE", 64),
+                env("LLM_QUEUE_TIMEOUT_MS", 20_000),
+                (int) env("LLM_BREAKER_FAILURES", 5),
+                env("LLM_BREAKER_OPEN_MS", 30_000));
+    }
+
+    private static long env(String name, long def) {
+        try {
+            return Math.max(0, Long.parseLong(System.getenv().getOrDefault(name, String.valueOf(def))));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public Pending complete(Request request, LLMService.LLMCallback callback) {
+        Call call = new Call(request, callback);
+        String refusal;
+        boolean startNow = false;
+        synchronized (this) {
+            refusal = admit();
+            if (refusal == null) {
+                if (inFlight < (int) limit && queue.isEmpty()) {
+                    inFlight++;
+                    startNow = true;
+                } else if (queue.size() < queueSize) {
+                    Waiting w = new Waiting(call::start, callback);
+                    call.waiting = w;
+                    queue.addLast(w);
+                    w.timeout = timers.schedule(() -> expire(w), queueTimeoutMs, TimeUnit.MILLISECONDS);
+                } else {
+                    rejected++;
+                    refusal = "LLM queue full (" + queueSize + " waiting, limit " + (int) limit + ")";
+                }
+            }
+        }
+        if (refusal != null) {
+            callback.onError(refusal);
+            return Pending.DONE;
+        }
+        if (startNow) call.start();
+        return call;
+    }
+
+    // null if the breaker lets the call through
+    private String admit() {
+        if (breaker == Breaker.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMs) {
+                shortCircuited++;
+                return "LLM circuit open for " + delegate.name() + ": failing fast";
+            }
+            breaker = Breaker.HALF_OPEN;
+            probing = false;
+        }
+        if (breaker == Breaker.HALF_OPEN) {
+            if (probing) {
+                shortCircuited++;
+                return "LLM circuit half-open for " + delegate.name() + ": waiting for the probe call";
+            }
+            probing = true;
+        }
+        return null;
+    }
+
+    private final class Call implements Pending, LLMService.StreamCallback {
+        private final Request request;
+        private final LLMService.LLMCallback callback;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile Pending pending = Pending.DONE;
+        private volatile boolean cancelled = false;
+        private volatile boolean admitted = false; // holds a slot (false while queued)
+        private Waiting waiting;                   // set under the lock when queued
+        private long started;
+
+        Call(Request request, LLMService.LLMCallback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        void start() {
+            admitted = true;
+            if (cancelled) {
+                release(null, 0);
+                return;
+            }
+            started = System.nanoTime();
+            pending = delegate.complete(request, this);
+        }
+
+        @Override
+        public void onPartial(String textSoFar) {
+            if (callback instanceof LLMService.StreamCallback) ((LLMService.StreamCallback) callback).onPartial(textSoFar);
+        }
+
+        @Override
+        public void onSuccess(String result) {
+            release(Boolean.TRUE, (System.nanoTime() - started) / 1_000_000L);
+            callback.onSuccess(result);
+        }
+
+        @Override
+        public void onError(String error) {
+            release(Boolean.FALSE, 0);
+            callback.onError(error);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            pending.cancel();
+            // still queued: leave the queue, it never held a slot and its timeout must not fire
+            if (unqueue(this)) return;
+            // a cancelled call is neither a success nor a failure; one dequeued meanwhile is released by start()
+            if (admitted) release(null, 0);
+        }
+
+        private void release(Boolean success, long millis) {
+            if (released.compareAndSet(false, true)) finished(success, millis);
+        }
+    }
+
+    private void finished(Boolean success, long millis) {
+        List<Runnable> toStart = new ArrayList<>();
+        List<Waiting> expired = new ArrayList<>();
+        synchronized (this) {
+            inFlight--;
+            if (success != null) {
+                boolean ok = success && millis <= slowMs;
+                if (ok) limit = Math.min(maxLimit, limit + 1.0 / limit);
+                else limit = Math.max(1, limit * 0.7);
+                recordOutcome(success);
+            } else if (breaker == Breaker.HALF_OPEN) {
+                probing = false; // the probe was cancelled: let the next call probe
+            }
+            if (breaker == Breaker.OPEN) {
+                shortCircuited += queue.size();
+                expired.addAll(queue);
+                queue.clear();
+            }
+            long now = System.currentTimeMillis();
+            while (!queue.isEmpty() && inFlight < (int) limit) {
+                Waiting w = queue.pollFirst();
+                if (now - w.since > queueTimeoutMs) {
+                    expired.add(w);
+                    timedOutInQueue++;
+                    continue;
+                }
+                inFlight++;
+                toStart.add(w.start);
+                w.timeout.cancel(false);
+            }
+        }
+        for (Waiting w : expired) w.timeout.cancel(false);
+        for (Waiting w : expired) {
+            w.callback.onError(waitedMs(w) > queueTimeoutMs
+                    ? "LLM call waited more than " + queueTimeoutMs + " ms in the queue"
+                    : "LLM circuit open for " + delegate.name() + ": failing fast");
+        }
+        for (Runnable r : toStart) r.run();
+    }
+
+    private boolean unqueue(Call call) {
+        Waiting w;
+        synchronized (this) {
+            w = call.waiting;
+            if (w == null || !queue.remove(w)) return false;
+        }
+        w.timeout.cancel(false);
+        return true;
+    }
+
+    // Timer of a queued call: rejects it if no slot freed up in time
+    private void expire(Waiting w) {
+        synchronized (this) {
+            if (!queue.remove(w)) return; // already started or rejected
+            timedOutInQueue++;
+        }
+        w.callback.onError("LLM call waited more than " + queueTimeoutMs + " ms in the queue");
+    }
+
+    private static long waitedMs(Waiting w) {
+        return System.currentTimeMillis() - w.since;
+    }
+
+    private void recordOutcome(boolean success) {
+        if (success) {
+            consecutiveFailures = 0;
+            if (breaker != Breaker.CLOSED) System.out.println("🟢 LLM circuit closed for " + delegate.name());
+            breaker = Breaker.CLOSED;
+            probing = false;
+            return;
+        }
+        consecutiveFailures++;
+        if (breaker == Breaker.HALF_OPEN || consecutiveFailures >= failuresToOpen) {
+            if (breaker != Breaker.OPEN) opened++;
+            breaker = Breaker.OPEN;
+            openedAt = System.currentTimeMillis();
+            probing = false;
+            System.err.println("🔴 LLM circuit open for " + delegate.name() + " (" + consecutiveFailures
+                    + " consecutive failures), failing fast for " + openMs + " ms");
+        }
+    }
+
+    @Override
+    public void warmUp() {
+        delegate.warmUp();
+    }
+
+    @Override
+    public synchronized String describe() {
+        String d = delegate.describe();
+        return (d.isEmpty() ? "" : d + " ") + "guard.limit=" + (int) limit + " guard.inflight=" + inFlight
+                + " guard.queued=" + queue.size() + " guard.rejected=" + rejected
+                + " guard.queue_timeouts=" + timedOutInQueue + " guard.breaker=" + breaker.name().toLowerCase()
+                + " guard.opened=" + opened + " guard.short_circuited=" + shortCircuited;
+    }
+}
@@ -0,0 +1,176 @@
+package utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedged requests (LLM_HEDGE): when the primary backend has not answered within the hedge delay,
+ * the same request is also sent to the hedge backend (the same one, or an alternate backend/model).
+ * - The first success wins; the other call is cancelled (OkHttp Call.cancel() for HTTP backends)
+ * - The delay is the LLM_HEDGE_PERCENTILE of the primary's recent latencies, so only the slow tail
+ *   is hedged; LLM_HEDGE_DELAY_MS is used until enough latencies have been seen
+ * - A leg that fails leaves the other one running; the caller sees an error only if both fail
+ * - Streamed requests are not hedged: their first tokens arrive early anyway
+ */
+public class HedgedBackend implements LLMBackend {
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "llm-hedge");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final int MIN_SAMPLES = 20;
+
+    private final LLMBackend primary;
+    private final LLMBackend hedge;
+    private final double percentile;
+    private final long initialDelayMs;
+    private final long minDelayMs;
+    private final LatencyHistogram primaryLatency = new LatencyHistogram();
+    private final LatencyHistogram hedgeLatency = new LatencyHistogram();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    public HedgedBackend(LLMBackend primary, LLMBackend hedge, double percentile, long initialDelayMs, long minDelayMs) {
+        this.primary = primary;
+        this.hedge = hedge;
+        this.percentile = percentile;
+        this.initialDelayMs = initialDelayMs;
+        this.minDelayMs = minDelayMs;
+    }
+
+    @Override
+    public String name() {
+        return primary.name(); // answers are the primary's; hedging alone must not change the cache key
+    }
+
+    /** The current hedge delay: a percentile of the primary's latencies, or the initial delay. */
+    public long hedgeDelay() {
+        if (primaryLatency.samples() < MIN_SAMPLES) return initialDelayMs;
+        return Math.max(minDelayMs, primaryLatency.percentile(percentile));
+    }
+
+    @Override
+    public Pending complete(Request request, LLMService.LLMCallback callback) {
+        calls.incrementAndGet();
+        if (request.stream) return primary.complete(request, timed(primaryLatency, callback));
+        Race race = new Race(request, callback);
+        race.start();
+        return race;
+    }
+
+    // Records the latency of successful calls
+    private static LLMService.StreamCallback timed(LatencyHistogram histogram, LLMService.LLMCallback callback) {
+        long t0 = System.nanoTime();
+        return new LLMService.StreamCallback() {
+            @Override
+            public void onPartial(String textSoFar) {
+                if (callback instanceof LLMService.StreamCallback) ((LLMService.StreamCallback) callback).onPartial(textSoFar);
+            }
+
+            @Override
+            public void onSuccess(String result) {
+                histogram.record((System.nanoTime() - t0) / 1_000_000L);
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        };
+    }
+
+    private final class Race implements Pending {
+        private final Request request;
+        private final LLMService.LLMCallback callback;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final AtomicInteger running = new AtomicInteger(1);
+        private volatile Pending primaryCall = Pending.DONE;
+        private volatile Pending hedgeCall = Pending.DONE;
+        private volatile ScheduledFuture<?> hedgeTimer;
+        private volatile String firstError;
+        private final long started = System.nanoTime();
+
+        Race(Request request, LLMService.LLMCallback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        void start() {
+            primaryCall = primary.complete(request, timed(primaryLatency, leg(false)));
+            if (!finished.get()) hedgeTimer = timer.schedule(this::fireHedge, hedgeDelay(), TimeUnit.MILLISECONDS);
+        }
+
+        private void fireHedge() {
+            if (finished.get()) return;
+            running.incrementAndGet();
+            hedged.incrementAndGet();
+            System.out.println("🪃 LLM call slower than " + hedgeDelay() + " ms, hedging with " + hedge.name());
+            hedgeCall = hedge.complete(request, timed(hedgeLatency, leg(true)));
+            if (finished.get()) hedgeCall.cancel(); // the primary ended while the hedge was being sent
+        }
+
+        private LLMService.LLMCallback leg(boolean isHedge) {
+            return new LLMService.LLMCallback() {
+                @Override
+                public void onSuccess(String result) {
+                    if (!finished.compareAndSet(false, true)) return;
+                    if (isHedge) hedgeWins.incrementAndGet();
+                    stopOthers(isHedge);
+                    callback.onSuccess(result);
+                }
+
+                @Override
+                public void onError(String error) {
+                    if (finished.get()) return;
+                    if (firstError == null) firstError = error;
+                    // the other leg may still answer; if the hedge was not sent yet, there is nothing to wait for
+                    if (running.decrementAndGet() > 0) return;
+                    if (!finished.compareAndSet(false, true)) return;
+                    if (hedgeTimer != null) hedgeTimer.cancel(false);
+                    callback.onError(firstError);
+                }
+            };
+        }
+
+        private void stopOthers(boolean hedgeWon) {
+            if (hedgeTimer != null) hedgeTimer.cancel(false);
+            if (hedgeWon) {
+                primaryCall.cancel();
+                // the primary took at least this long: without it the histogram would only see the fast calls
+                primaryLatency.record((System.nanoTime() - started) / 1_000_000L);
+            } else {
+                hedgeCall.cancel();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            finished.set(true);
+            if (hedgeTimer != null) hedgeTimer.cancel(false);
+            primaryCall.cancel();
+            hedgeCall.cancel();
+        }
+    }
+
+    @Override
+    public void warmUp() {
+        primary.warmUp();
+        if (hedge != primary) hedge.warmUp();
+    }
+
+    @Override
+    public String describe() {
+        String d = primary.describe();
+        return (d.isEmpty() ? "" : d + " ") + "hedge.calls=" + calls.get() + " hedge.fired=" + hedged.get()
+                + " hedge.wins=" + hedgeWins.get() + " hedge.delay_ms=" + hedgeDelay()
+                + " " + primaryLatency.describe("hedge.primary") + " " + hedgeLatency.describe("hedge.alternate");
+    }
+}
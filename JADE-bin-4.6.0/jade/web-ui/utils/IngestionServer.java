@@ -0,0 +1,302 @@
+package utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Socket front door of the UserAgent (5000) and QueryAgent (5001): one NIO selector thread serves every
+ * connection, so a slow client no longer holds up the others.
+ * - Connections may stay open and pipeline many requests; each request gets its acknowledgement, in order
+ * - Framing: one request per line (what the frontend sends: a line, then end of stream), or, after the
+ *   "DABS1\n" preamble, 4-byte big-endian length + UTF-8 frames, acknowledged with frames
+ * - Limits: INGEST_MAX_CONNECTIONS open connections (further ones are closed at once), INGEST_IDLE_TIMEOUT_MS
+ *   without a byte, INGEST_MAX_FRAME_BYTES per request
+ * The handler runs on the selector thread: it must only hand the request over (e.g. AgentExecutor.post).
+ */
+public class IngestionServer {
+
+    /** Handles one request and returns the acknowledgement sent back to the client. */
+    public interface Handler {
+        String handle(String request);
+    }
+
+    private static final byte[] PREAMBLE = "DABS1\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int BACKLOG = 1024;
+
+    private final String name;
+    private final InetSocketAddress address;
+    private final Handler handler;
+    private final int maxConnections;
+    private final long idleTimeoutMs;
+    private final int maxFrameBytes;
+    private Selector selector;
+    private ServerSocketChannel server;
+    private volatile boolean running;
+    private volatile int open = 0; // written by the selector thread only
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+
+    private static final class Conn {
+        final SocketChannel channel;
+        byte[] in = new byte[1024];
+        int length = 0;
+        Boolean framed = null;          // decided by the first bytes
+        final Deque<ByteBuffer> out = new ArrayDeque<>();
+        boolean eof = false;
+        long lastActivity = System.currentTimeMillis();
+        Conn(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public IngestionServer(String name, InetSocketAddress address, Handler handler,
+                           int maxConnections, long idleTimeoutMs, int maxFrameBytes) {
+        this.name = name;
+        this.address = address;
+        this.handler = handler;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.maxFrameBytes = Math.max(1, maxFrameBytes);
+    }
+
+    /** From INGEST_MAX_CONNECTIONS, INGEST_IDLE_TIMEOUT_MS and INGEST_MAX_FRAME_BYTES. */
+    public static IngestionServer fromEnv(String name, String host, int port, Handler handler) {
+        return new IngestionServer(name, new InetSocketAddress(host, port), handler,
+                (int) env("INGEST_MAX_CONNECTIONS", 1024),
+                env("INGEST_IDLE_TIMEOUT_MS", 30_000),
+                (int) env("INGEST_MAX_FRAME_BYTES", 1 << 20));
+    }
+
+    private static long env(String name, long def) {
+        try {
+            return Math.max(0, Long.parseLong(System.getenv().getOrDefault(name, String.valueOf(def))));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /** Binds the port and starts the selector thread. */
+    public void start() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.bind(address, BACKLOG);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        Thread t = new Thread(this::loop, name);
+        t.start();
+    }
+
+    public void close() {
+        running = false;
+        if (selector != null) selector.wakeup();
+    }
+
+    private void loop() {
+        long sweepEvery = idleTimeoutMs > 0 ? Math.max(100, Math.min(1_000, idleTimeoutMs / 2)) : 1_000;
+        long nextSweep = System.currentTimeMillis() + sweepEvery;
+        try {
+            while (running) {
+                selector.select(sweepEvery);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept();
+                        else {
+                            if (key.isReadable()) read(key);
+                            if (key.isValid() && key.isWritable()) write(key);
+                        }
+                    } catch (IOException e) {
+                        close(key); // client went away
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextSweep) {
+                    sweep(now);
+                    nextSweep = now + sweepEvery;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("❌ " + name + " stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) close(key);
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null) {
+            if (open >= maxConnections) {
+                refused.incrementAndGet();
+                ch.close();
+                continue;
+            }
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            ch.register(selector, SelectionKey.OP_READ, new Conn(ch));
+            open++;
+            accepted.incrementAndGet();
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Conn c = (Conn) key.attachment();
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        int n;
+        while ((n = c.channel.read(buf)) > 0) {
+            buf.flip();
+            append(c, buf);
+            buf.clear();
+        }
+        c.lastActivity = System.currentTimeMillis();
+        if (n < 0) c.eof = true;
+        if (!parse(c)) {
+            oversized.incrementAndGet();
+            close(key);
+            return;
+        }
+        if (c.eof) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            if (c.out.isEmpty()) close(key);
+        }
+        if (key.isValid() && !c.out.isEmpty()) write(key);
+    }
+
+    private static void append(Conn c, ByteBuffer buf) {
+        int n = buf.remaining();
+        if (c.length + n > c.in.length) c.in = Arrays.copyOf(c.in, Math.max(c.in.length * 2, c.length + n));
+        buf.get(c.in, c.length, n);
+        c.length += n;
+    }
+
+    // Handles every complete request in the buffer; false if a request is over the size limit
+    private boolean parse(Conn c) {
+        if (c.framed == null) {
+            int k = Math.min(c.length, PREAMBLE.length);
+            boolean prefix = true;
+            for (int i = 0; i < k; i++) prefix &= c.in[i] == PREAMBLE[i];
+            if (prefix && k < PREAMBLE.length && !c.eof) return true; // not enough bytes to tell yet
+            c.framed = prefix && k == PREAMBLE.length;
+            if (c.framed) consume(c, PREAMBLE.length);
+        }
+        if (c.framed) {
+            while (c.length >= 4) {
+                int size = ((c.in[0] & 0xff) << 24) | ((c.in[1] & 0xff) << 16) | ((c.in[2] & 0xff) << 8) | (c.in[3] & 0xff);
+                if (size < 0 || size > maxFrameBytes) return false;
+                if (c.length < 4 + size) break;
+                String request = new String(c.in, 4, size, StandardCharsets.UTF_8);
+                consume(c, 4 + size);
+                byte[] ack = handle(request).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer frame = ByteBuffer.allocate(4 + ack.length);
+                frame.putInt(ack.length).put(ack).flip();
+                c.out.add(frame);
+            }
+            return true;
+        }
+        int start = 0;
+        for (int i = 0; i < c.length; i++) {
+            if (c.in[i] != '\n') continue;
+            line(c, start, i);
+            start = i + 1;
+        }
+        if (c.eof && start < c.length) { // last line without a newline
+            line(c, start, c.length);
+            start = c.length;
+        }
+        consume(c, start);
+        return c.length <= maxFrameBytes;
+    }
+
+    private void line(Conn c, int from, int to) {
+        int end = to > from && c.in[to - 1] == '\r' ? to - 1 : to;
+        String request = new String(c.in, from, end - from, StandardCharsets.UTF_8);
+        if (request.trim().isEmpty()) return;
+        c.out.add(ByteBuffer.wrap((handle(request) + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String handle(String request) {
+        requests.incrementAndGet();
+        try {
+            return handler.handle(request);
+        } catch (RuntimeException e) {
+            System.err.println("❌ " + name + ": request not handled: " + e);
+            return "❌ Error: request not accepted.";
+        }
+    }
+
+    private static void consume(Conn c, int n) {
+        System.arraycopy(c.in, n, c.in, 0, c.length - n);
+        c.length -= n;
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Conn c = (Conn) key.attachment();
+        while (!c.out.isEmpty()) {
+            ByteBuffer b = c.out.peek();
+            c.channel.write(b);
+            if (b.hasRemaining()) break;
+            c.out.poll();
+        }
+        if (c.out.isEmpty()) {
+            if (c.eof) {
+                close(key); // the client sent everything and has all its acknowledgements
+                return;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } else {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void sweep(long now) {
+        if (idleTimeoutMs <= 0) return;
+        for (SelectionKey key : selector.keys()) {
+            Object a = key.attachment();
+            if (a instanceof Conn && now - ((Conn) a).lastActivity > idleTimeoutMs) {
+                timeouts.incrementAndGet();
+                close(key);
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        Object a = key.attachment();
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+        if (a instanceof Conn && key.attachment() != null) {
+            key.attach(null); // counted once
+            open--;
+        }
+    }
+
+    public String describe() {
+        return "ingest.open=" + open + " ingest.accepted=" + accepted.get() + " ingest.refused=" + refused.get() + " ingest.requests="
+                + requests.get() + " ingest.idle_timeouts=" + timeouts.get() + " ingest.oversized=" + oversized.get();
+    }
+}
@@ -0,0 +1,128 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Precompiled image (SWI-Prolog .qlf) of the knowledge.pl snapshot, used by the LogicAgent to boot fast.
+ * - The image is built by a separate swipl process (qcompile), so the running engines are never touched
+ * - A stamp file records the modification time and size of the snapshot the image was built from;
+ *   the image is fresh only while the snapshot still matches it
+ * - Builds run on a background thread and replace the image atomically
+ */
+public class KnowledgeImage {
+
+    private final File snapshot;
+    private final File image;
+    private final File stamp;
+    private final String swipl;
+    private final boolean enabled;
+    private final AtomicBoolean building = new AtomicBoolean(false);
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "kb-image");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public KnowledgeImage(String snapshotFile) {
+        this.snapshot = new File(snapshotFile);
+        String base = snapshotFile.endsWith(".pl") ? snapshotFile.substring(0, snapshotFile.length() - 3) : snapshotFile;
+        this.image = new File(base + ".qlf");
+        this.stamp = new File(base + ".qlf.stamp");
+        this.swipl = System.getenv().getOrDefault("SWIPL_BIN", "swipl");
+        this.enabled = !"off".equalsIgnoreCase(System.getenv().getOrDefault("KB_IMAGE", "on"));
+    }
+
+    /** Appends between two image rebuilds, from KB_IMAGE_REBUILD_EVERY. */
+    public static int rebuildEvery() {
+        try {
+            return Integer.parseInt(System.getenv().getOrDefault("KB_IMAGE_REBUILD_EVERY", "500"));
+        } catch (NumberFormatException e) {
+            return 500;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** True when the image exists and was built from the current snapshot. */
+    public boolean isFresh() {
+        if (!enabled || !image.isFile() || !stamp.isFile()) return false;
+        try {
+            String recorded = new String(Files.readAllBytes(stamp.toPath()), StandardCharsets.UTF_8).trim();
+            return recorded.equals(signature(snapshot));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Goal that loads the image into the current engine. */
+    public String loadGoal() {
+        return "load_files('" + image.getPath().replace("'", "\\'") + "', [])";
+    }
+
+    /** Rebuilds the image in the background; ignored if a build is already running. */
+    public void rebuildAsync() {
+        if (!enabled || !building.compareAndSet(false, true)) return;
+        builder.submit(() -> {
+            try {
+                rebuild();
+            } finally {
+                building.set(false);
+            }
+        });
+    }
+
+    private void rebuild() {
+        long t0 = System.currentTimeMillis();
+        File work = new File(snapshot.getAbsoluteFile().getParentFile(), ".image-build");
+        try {
+            if (!work.isDirectory() && !work.mkdirs()) throw new IOException("cannot create " + work);
+            // Build from a copy, so a journal fold that appends to the snapshot meanwhile cannot mix versions
+            String sig = signature(snapshot);
+            File source = new File(work, snapshot.getName());
+            Files.copy(snapshot.toPath(), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (!sig.equals(signature(snapshot))) {
+                System.out.println("🔁 KB image build skipped: snapshot changed while copying");
+                return;
+            }
+            String goal = "qcompile('" + source.getPath().replace("'", "\\'") + "')";
+            Process p = new ProcessBuilder(swipl, "-q", "-g", goal, "-t", "halt")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            if (!p.waitFor(10, TimeUnit.MINUTES)) {
+                p.destroyForcibly();
+                throw new IOException("qcompile timed out");
+            }
+            if (p.exitValue() != 0) throw new IOException("qcompile exited with " + p.exitValue());
+            String name = source.getName();
+            File built = new File(work, (name.endsWith(".pl") ? name.substring(0, name.length() - 3) : name) + ".qlf");
+            Files.move(built.toPath(), image.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            File stampTmp = new File(stamp.getPath() + ".tmp");
+            Files.write(stampTmp.toPath(), sig.getBytes(StandardCharsets.UTF_8));
+            Files.move(stampTmp.toPath(), stamp.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("🧱 KB image rebuilt (" + image.length() + " bytes, " + (System.currentTimeMillis() - t0) + " ms)");
+        } catch (IOException e) {
+            System.err.println("[!] KB image build failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String signature(File f) {
+        return f.lastModified() + ":" + f.length();
+    }
+
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+}
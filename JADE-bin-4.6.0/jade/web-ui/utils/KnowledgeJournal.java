@@ -0,0 +1,419 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only journal for the knowledge base written by the LogicAgent.
+ * - One clause or directive per line, appended to kb/journal/segment-NNNNNN.pl through a channel kept open
+ * - Group commit: lines arriving within the commit window are written (and synced) together
+ * - Durability: none, batch (fsync per batch) or write (fsync per line)
+ * - Segments rotate by size; closed segments are folded in the background into knowledge.pl, then deleted.
+ *   Folding appends their lines at the end of the file, between "% journal-fold-begin: N" and
+ *   "% journal-through: N" marks, so it costs the size of the segments, not of the KB. knowledge.pl is not
+ *   compacted: nothing is ever retracted, so every clause (duplicates included) stays part of the KB
+ * - A fold torn by a crash (begin mark without its end mark) is cut off by {@link #recover}, and its
+ *   segments, still on disk, are replayed
+ */
+public class KnowledgeJournal {
+
+    public enum Durability {
+        NONE, BATCH, WRITE;
+
+        static Durability parse(String s) {
+            if (s == null) return BATCH;
+            switch (s.trim().toLowerCase()) {
+                case "none": return NONE;
+                case "write": case "fsync-per-write": return WRITE;
+                default: return BATCH;
+            }
+        }
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".pl";
+    private static final String FOLD_BEGIN = "% journal-fold-begin: ";
+    private static final String FOLD_END = "% journal-through: ";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.pl");
+
+    private static class Pending {
+        final String line; // null marks a checkpoint
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        Pending(String line) { this.line = line; }
+    }
+
+    private final File snapshot;
+    private final File dir;
+    private final long commitWindowMs;
+    private final Durability durability;
+    private final long segmentBytes;
+    private final int foldAfterSegments;
+
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService folder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "kb-fold");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private volatile Runnable onFolded;
+    private volatile long foldedThrough; // last segment appended to knowledge.pl
+
+    // Writer thread state
+    private FileChannel active;
+    private volatile long activeNumber;
+    private long activeSize;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong folds = new AtomicLong();
+
+    public KnowledgeJournal(String snapshotFile, File dir, long commitWindowMs, Durability durability,
+                            long segmentBytes, int foldAfterSegments) throws IOException {
+        this.snapshot = new File(snapshotFile);
+        this.dir = dir;
+        this.commitWindowMs = Math.max(0, commitWindowMs);
+        this.durability = durability;
+        this.segmentBytes = Math.max(1024, segmentBytes);
+        this.foldAfterSegments = Math.max(1, foldAfterSegments);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + dir);
+        }
+        recover(snapshotFile);
+        this.foldedThrough = foldedThrough(snapshot);
+        List<Long> existing = segmentNumbers(dir);
+        // Never append to a segment left by a previous run: its last line may be torn
+        openSegment(existing.isEmpty() ? Math.max(1, foldedThrough + 1) : Math.max(foldedThrough, existing.get(existing.size() - 1)) + 1);
+        this.writerThread = new Thread(this::writeLoop, "kb-journal");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /** Journal configured from KB_JOURNAL_* environment variables, next to the snapshot file. */
+    public static KnowledgeJournal fromEnv(String snapshotFile) throws IOException {
+        java.util.Map<String, String> env = System.getenv();
+        return new KnowledgeJournal(snapshotFile,
+                journalDir(snapshotFile),
+                parseLong(env.get("KB_JOURNAL_COMMIT_MS"), 5),
+                Durability.parse(env.get("KB_JOURNAL_DURABILITY")),
+                parseLong(env.get("KB_JOURNAL_SEGMENT_BYTES"), 4L * 1024 * 1024),
+                (int) parseLong(env.get("KB_JOURNAL_FOLD_SEGMENTS"), 4));
+    }
+
+    public static File journalDir(String snapshotFile) {
+        File parent = new File(snapshotFile).getAbsoluteFile().getParentFile();
+        return new File(System.getenv().getOrDefault("KB_JOURNAL_DIR", new File(parent, "journal").getPath()));
+    }
+
+    private static long parseLong(String s, long def) {
+        try { return s == null ? def : Long.parseLong(s.trim()); } catch (NumberFormatException e) { return def; }
+    }
+
+    /**
+     * Cuts off a fold torn by a crash (its segments are still on disk and get replayed);
+     * call before consulting knowledge.pl.
+     */
+    public static void recover(String snapshotFile) throws IOException {
+        File snap = new File(snapshotFile);
+        long tornAt = scan(snap)[1];
+        if (tornAt < 0) return;
+        try (FileChannel ch = FileChannel.open(snap.toPath(), StandardOpenOption.WRITE)) {
+            ch.truncate(tornAt);
+            ch.force(true);
+        }
+        System.out.println("🩹 Incomplete journal fold removed from " + snap.getName() + " (cut at byte " + tornAt + ")");
+    }
+
+    /** The snapshot followed by the segments not yet folded into it, in replay order. */
+    public static List<File> knowledgeFiles(String snapshotFile) {
+        List<File> files = new ArrayList<>();
+        File snap = new File(snapshotFile);
+        files.add(snap);
+        File dir = journalDir(snapshotFile);
+        long through = foldedThrough(snap);
+        for (long n : segmentNumbers(dir)) {
+            if (n > through) files.add(segmentFile(dir, n));
+        }
+        return files;
+    }
+
+    /** Queues a line; the future completes once the line is written with the configured durability. */
+    public CompletableFuture<Void> append(String line) {
+        Pending p = new Pending(line);
+        if (!running) {
+            p.done.completeExceptionally(new IOException("journal closed"));
+            return p.done;
+        }
+        queue.add(p);
+        return p.done;
+    }
+
+    /**
+     * Closes the active segment and folds every closed segment into the snapshot;
+     * the future completes when the fold is over.
+     */
+    public CompletableFuture<Void> checkpoint() {
+        return append(null);
+    }
+
+    /** Called on the fold thread after every successful fold. */
+    public void setOnFolded(Runnable listener) {
+        this.onFolded = listener;
+    }
+
+    /** Feeds every complete line of the live segments (oldest first) to the consumer. */
+    public void replay(Consumer<String> consumer) throws IOException {
+        long through = foldedThrough;
+        for (long n : segmentNumbers(dir)) {
+            if (n <= through || n == activeNumber) continue;
+            for (String line : completeLines(segmentFile(dir, n))) {
+                if (!line.trim().isEmpty()) consumer.accept(line.trim());
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                if (commitWindowMs > 0) {
+                    long deadline = System.currentTimeMillis() + commitWindowMs;
+                    long left;
+                    while ((left = deadline - System.currentTimeMillis()) > 0) {
+                        Pending next = queue.poll(left, TimeUnit.MILLISECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                }
+                queue.drainTo(batch);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Pending> batch) {
+        List<CompletableFuture<Void>> checkpoints = new ArrayList<>();
+        int lines = 0;
+        try {
+            if (active == null) openSegment(activeNumber + 1);
+            StringBuilder sb = new StringBuilder();
+            for (Pending p : batch) {
+                if (p.line == null) { checkpoints.add(p.done); continue; }
+                lines++;
+                if (durability == Durability.WRITE) {
+                    write(p.line + "\n");
+                    active.force(false);
+                    syncs.incrementAndGet();
+                } else {
+                    sb.append(p.line).append('\n');
+                }
+            }
+            if (sb.length() > 0) {
+                write(sb.toString());
+                if (durability == Durability.BATCH) {
+                    active.force(false);
+                    syncs.incrementAndGet();
+                }
+            }
+            appended.addAndGet(lines);
+            batches.incrementAndGet();
+            for (Pending p : batch) {
+                if (p.line != null) p.done.complete(null);
+            }
+            if (!checkpoints.isEmpty() || activeSize >= segmentBytes) rotate(checkpoints);
+        } catch (IOException e) {
+            System.err.println("[!] Error writing to the KB journal: " + e.getMessage());
+            for (Pending p : batch) p.done.completeExceptionally(e);
+            closeActive();
+        }
+    }
+
+    private void write(String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) activeSize += active.write(buf);
+    }
+
+    private void openSegment(long number) throws IOException {
+        activeNumber = number;
+        File f = segmentFile(dir, number);
+        active = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeSize = active.size();
+    }
+
+    private void rotate(List<CompletableFuture<Void>> checkpoints) throws IOException {
+        closeActive();
+        openSegment(activeNumber + 1);
+        final long closedThrough = activeNumber - 1;
+        int closed = 0;
+        long through = foldedThrough;
+        for (long n : segmentNumbers(dir)) {
+            if (n > through && n <= closedThrough) closed++;
+        }
+        if (closed >= foldAfterSegments || !checkpoints.isEmpty()) {
+            folder.submit(() -> {
+                fold(closedThrough);
+                for (CompletableFuture<Void> f : checkpoints) f.complete(null);
+            });
+        }
+    }
+
+    private void closeActive() {
+        if (active == null) return;
+        try { active.close(); } catch (IOException ignored) {}
+        active = null;
+    }
+
+    private void fold(long through) {
+        long already = foldedThrough;
+        if (through <= already) return;
+        long t0 = System.currentTimeMillis();
+        try {
+            List<Long> folded = new ArrayList<>();
+            StringBuilder block = new StringBuilder();
+            for (long n : segmentNumbers(dir)) {
+                if (n <= already || n > through) continue;
+                for (String line : completeLines(segmentFile(dir, n))) {
+                    if (!line.trim().isEmpty()) block.append(line).append('\n');
+                }
+                folded.add(n);
+            }
+            try (FileChannel ch = FileChannel.open(snapshot.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                String head = endsWithNewline(ch) ? "" : "\n";
+                String text = head + FOLD_BEGIN + String.format("%06d", through) + "\n" + block
+                        + FOLD_END + String.format("%06d", through) + "\n";
+                ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+                long pos = ch.size();
+                while (buf.hasRemaining()) pos += ch.write(buf, pos);
+                ch.force(true);
+            }
+            foldedThrough = through;
+            // The end mark makes replay skip these even if a deletion below fails
+            for (long n : folded) {
+                Files.deleteIfExists(segmentFile(dir, n).toPath());
+            }
+            folds.incrementAndGet();
+            System.out.println("🗜 Journal folded into knowledge.pl through segment " + through + " ("
+                    + folded.size() + " segments, " + (System.currentTimeMillis() - t0) + " ms)");
+            Runnable listener = onFolded;
+            if (listener != null) listener.run();
+        } catch (IOException e) {
+            System.err.println("[!] KB journal fold failed: " + e.getMessage());
+        }
+    }
+
+    private static boolean endsWithNewline(FileChannel ch) throws IOException {
+        long size = ch.size();
+        if (size == 0) return true;
+        ByteBuffer last = ByteBuffer.allocate(1);
+        ch.read(last, size - 1);
+        return last.get(0) == '\n';
+    }
+
+    /** Stops accepting lines, writes what is queued and closes the active segment. */
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeActive();
+        folder.shutdown();
+    }
+
+    public String describe() {
+        return "journal.segment=" + activeNumber + " journal.appended=" + appended.get()
+                + " journal.batches=" + batches.get() + " journal.syncs=" + syncs.get()
+                + " journal.pending=" + queue.size() + " journal.folds=" + folds.get()
+                + " journal.durability=" + durability.name().toLowerCase();
+    }
+
+    // === Segment helpers ===
+
+    private static File segmentFile(File dir, long n) {
+        return new File(dir, SEGMENT_PREFIX + String.format("%06d", n) + SEGMENT_SUFFIX);
+    }
+
+    private static List<Long> segmentNumbers(File dir) {
+        List<Long> out = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) return out;
+        for (String name : names) {
+            Matcher m = SEGMENT_NAME.matcher(name);
+            if (m.matches()) out.add(Long.parseLong(m.group(1)));
+        }
+        out.sort(null);
+        return out;
+    }
+
+    private static long foldedThrough(File snapshot) {
+        return scan(snapshot)[0];
+    }
+
+    // {last segment folded, offset of a fold begun but not ended (-1 if none)}
+    private static long[] scan(File snapshot) {
+        long through = 0, open = -1;
+        if (!snapshot.exists()) return new long[] {through, open};
+        try (java.io.BufferedInputStream in = new java.io.BufferedInputStream(Files.newInputStream(snapshot.toPath()))) {
+            java.io.ByteArrayOutputStream line = new java.io.ByteArrayOutputStream();
+            long offset = 0, lineStart = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                offset++;
+                if (b != '\n') {
+                    if (line.size() < 64) line.write(b); // marks are short
+                    continue;
+                }
+                String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+                if (text.startsWith(FOLD_BEGIN)) {
+                    open = lineStart;
+                } else if (text.startsWith(FOLD_END) && open >= 0) {
+                    through = Math.max(through, parseLong(text.substring(FOLD_END.length()), through));
+                    open = -1;
+                }
+                line.reset();
+                lineStart = offset;
+            }
+        } catch (IOException ignored) {
+        }
+        return new long[] {through, open};
+    }
+
+    // Lines terminated by '\n'; a torn last line from a crash is ignored
+    private static List<String> completeLines(File f) throws IOException {
+        String text = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+        int end = text.lastIndexOf('\n');
+        if (end < 0) return new ArrayList<>();
+        return new ArrayList<>(Arrays.asList(text.substring(0, end).split("\n", -1)));
+    }
+}
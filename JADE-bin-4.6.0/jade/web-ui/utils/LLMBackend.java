@@ -0,0 +1,84 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A provider of completions for LLMService (see {@link LLMBackends} for the available ones).
+ * - {@link #complete} starts the request and returns at once; the completion text arrives on the callback,
+ *   with partial texts first if the request asks for streaming and the callback is a StreamCallback
+ * - Every call ends with exactly one onSuccess or onError, unless it is cancelled first
+ * - Backends get both the prompts and what they were built from, so a backend may ignore the prompts
+ */
+public interface LLMBackend {
+
+    /** Name used in logs, in the translation cache key and in LLM_BACKENDS. */
+    String name();
+
+    Pending complete(Request request, LLMService.LLMCallback callback);
+
+    /** Opens connections ahead of the first request, if the backend has any. */
+    default void warmUp() {
+    }
+
+    default String describe() {
+        return "";
+    }
+
+    /** A call in progress. */
+    interface Pending {
+        /** Stops the call: its callback may not be called any more. */
+        void cancel();
+
+        Pending DONE = () -> { };
+    }
+
+    final class Request {
+        public enum Kind { TRANSLATE, HUMANIZE }
+
+        public final Kind kind;
+        public final String systemPrompt;   // null: user message only
+        public final String userPrompt;
+        public final double temperature;    // NaN: backend default
+        public final int maxTokens;         // 0: backend default
+        public final List<String> stop;
+        public final boolean stream;
+        // TRANSLATE: the sentence, "fact"/"query" and the predicates the answer may use
+        public final String input;
+        public final String type;
+        public final Set<String> predicates;
+        // HUMANIZE: the query and its logical result
+        public final String query;
+        public final String result;
+
+        private Request(Kind kind, String systemPrompt, String userPrompt, double temperature, int maxTokens,
+                        List<String> stop, boolean stream, String input, String type, Set<String> predicates,
+                        String query, String result) {
+            this.kind = kind;
+            this.systemPrompt = systemPrompt;
+            this.userPrompt = userPrompt;
+            this.temperature = temperature;
+            this.maxTokens = maxTokens;
+            this.stop = stop;
+            this.stream = stream;
+            this.input = input;
+            this.type = type;
+            this.predicates = predicates;
+            this.query = query;
+            this.result = result;
+        }
+
+        public static Request translation(String input, String type, Set<String> predicates,
+                                          String systemPrompt, String userPrompt) {
+            return new Request(Kind.TRANSLATE, systemPrompt, userPrompt, 0.1, 128, Arrays.asList("\n", "%", "```"),
+                    false, input, type, predicates, null, null);
+        }
+
+        public static Request humanization(String query, String result, String userPrompt, boolean stream) {
+            return new Request(Kind.HUMANIZE, null, userPrompt, Double.NaN, 0, Collections.<String>emptyList(),
+                    stream, null, null, Collections.<String>emptySet(), query, result);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the backend LLMService uses from LLM_BACKENDS, a comma-separated fallback chain:
+ * - openrouter: OpenRouter with the key from .env / OPENROUTER_API_KEY (model: LLM_OPENROUTER_MODEL)
+ *   (HTTP backends are wrapped in a {@link GuardedBackend}: concurrency limit, queue, circuit breaker)
+ * - openai: any OpenAI-compatible endpoint (LLM_OPENAI_URL, LLM_OPENAI_MODEL, LLM_OPENAI_API_KEY)
+ * - rules: the in-process {@link RuleBasedBackend}
+ * E.g. "rules,openrouter" answers simple sentences locally and sends the rest to OpenRouter;
+ * "openrouter,rules" uses the local rules only when OpenRouter fails.
+ * LLM_HEDGE wraps the chain in a {@link HedgedBackend}; with LLM_CASSETTE set, the result is recorded
+ * to or replaced by a {@link CassetteBackend}.
+ */
+public final class LLMBackends {
+
+    public static final String OPENROUTER_URL = "https://openrouter.ai/api/v1/chat/completions";
+
+    private LLMBackends() {
+    }
+
+    public static LLMBackend fromEnv(LLMHttpClient http, String openRouterKey) {
+        List<LLMBackend> chain = new ArrayList<>();
+        for (String name : System.getenv().getOrDefault("LLM_BACKENDS", "openrouter").split(",")) {
+            LLMBackend b = create(name.trim().toLowerCase(), http, openRouterKey);
+            if (b != null) chain.add(b);
+        }
+        if (chain.isEmpty()) {
+            System.err.println("[LLMService] No valid backend in LLM_BACKENDS, using openrouter");
+            chain.add(create("openrouter", http, openRouterKey));
+        }
+        LLMBackend backend = chain.size() == 1 ? chain.get(0) : new Chain(chain);
+        backend = CassetteBackend.fromEnv(hedged(backend, http, openRouterKey));
+        System.out.println("[LLMService] LLM backend: " + backend.name());
+        return backend;
+    }
+
+    // LLM_HEDGE: off, same (the backend itself) or the name of the hedge backend, with LLM_HEDGE_MODEL as its model
+    private static LLMBackend hedged(LLMBackend backend, LLMHttpClient http, String openRouterKey) {
+        String mode = System.getenv().getOrDefault("LLM_HEDGE", "off").trim().toLowerCase();
+        if ("off".equals(mode)) return backend;
+        LLMBackend alternate = "same".equals(mode) ? backend
+                : create(mode, http, openRouterKey, System.getenv().get("LLM_HEDGE_MODEL"));
+        if (alternate == null) return backend;
+        double percentile;
+        long initial, min;
+        try { percentile = Double.parseDouble(System.getenv().getOrDefault("LLM_HEDGE_PERCENTILE", "95")); } catch (NumberFormatException e) { percentile = 95; }
+        try { initial = Long.parseLong(System.getenv().getOrDefault("LLM_HEDGE_DELAY_MS", "2000")); } catch (NumberFormatException e) { initial = 2000; }
+        try { min = Long.parseLong(System.getenv().getOrDefault("LLM_HEDGE_MIN_MS", "200")); } catch (NumberFormatException e) { min = 200; }
+        return new HedgedBackend(backend, alternate, percentile, initial, min);
+    }
+
+    private static LLMBackend create(String name, LLMHttpClient http, String openRouterKey) {
+        return create(name, http, openRouterKey, null);
+    }
+
+    private static LLMBackend create(String name, LLMHttpClient http, String openRouterKey, String model) {
+        switch (name) {
+            case "openrouter":
+                return GuardedBackend.fromEnv(new OpenAICompatibleBackend("openrouter", OPENROUTER_URL, openRouterKey, model != null ? model
+                        : System.getenv().getOrDefault("LLM_OPENROUTER_MODEL", "mistralai/mistral-7b-instruct"), http));
+            case "openai":
+                return GuardedBackend.fromEnv(new OpenAICompatibleBackend("openai",
+                        System.getenv().getOrDefault("LLM_OPENAI_URL", "http://localhost:11434/v1/chat/completions"),
+                        System.getenv().getOrDefault("LLM_OPENAI_API_KEY", ""), model != null ? model
+                        : System.getenv().getOrDefault("LLM_OPENAI_MODEL", "mistral"), http));
+            case "rules":
+                return new RuleBasedBackend();
+            default:
+                System.err.println("[LLMService] Unknown LLM backend: " + name);
+                return null;
+        }
+    }
+
+    /** Tries the backends in order; the first success wins, the last error is reported. */
+    static final class Chain implements LLMBackend {
+
+        private final List<LLMBackend> backends;
+
+        Chain(List<LLMBackend> backends) {
+            this.backends = backends;
+        }
+
+        @Override
+        public String name() {
+            StringBuilder sb = new StringBuilder();
+            for (LLMBackend b : backends) {
+                if (sb.length() > 0) sb.append('>');
+                sb.append(b.name());
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public Pending complete(Request request, LLMService.LLMCallback callback) {
+            Attempt attempt = new Attempt(request, callback);
+            attempt.next(0);
+            return attempt;
+        }
+
+        private final class Attempt implements Pending, LLMService.StreamCallback {
+            private final Request request;
+            private final LLMService.LLMCallback callback;
+            private volatile int index;
+            private volatile Pending current = Pending.DONE;
+            private volatile boolean cancelled = false;
+
+            Attempt(Request request, LLMService.LLMCallback callback) {
+                this.request = request;
+                this.callback = callback;
+            }
+
+            void next(int i) {
+                index = i;
+                Pending p = backends.get(i).complete(request, this);
+                if (index == i) current = p; // a synchronous failure has already moved on to the next backend
+            }
+
+            @Override
+            public void onPartial(String textSoFar) {
+                if (!cancelled && callback instanceof LLMService.StreamCallback) {
+                    ((LLMService.StreamCallback) callback).onPartial(textSoFar);
+                }
+            }
+
+            @Override
+            public void onSuccess(String result) {
+                if (!cancelled) callback.onSuccess(result);
+            }
+
+            @Override
+            public void onError(String error) {
+                if (cancelled) return;
+                if (index + 1 < backends.size()) {
+                    System.err.println("⚠️ " + backends.get(index).name() + " failed (" + error + "), trying " + backends.get(index + 1).name());
+                    next(index + 1);
+                } else {
+                    callback.onError(error);
+                }
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void warmUp() {
+            for (LLMBackend b : backends) b.warmUp();
+        }
+
+        @Override
+        public String describe() {
+            StringBuilder sb = new StringBuilder();
+            for (LLMBackend b : backends) {
+                String d = b.describe();
+                if (d.isEmpty()) continue;
+                if (sb.length() > 0) sb.append(' ');
+                sb.append(d);
+            }
+            return sb.toString();
+        }
+    }
+}
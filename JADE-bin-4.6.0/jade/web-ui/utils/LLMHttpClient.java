@@ -0,0 +1,141 @@
+package utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * HTTP client for the LLM APIs (chat completions), shared by all the HTTP backends in the JVM.
+ * - Dispatcher sized for LLM traffic (OkHttp's default allows only 5 concurrent calls per host)
+ * - Connection pool with a configurable size and keep-alive, HTTP/2 preferred
+ * - Connect, read and whole-call deadlines, so a stuck call fails instead of holding a slot
+ * - {@link #warmUp()} opens the TLS connection at agent startup, before the first user request
+ * - Request bodies are built as JSON objects, never by string concatenation
+ */
+public class LLMHttpClient {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final OkHttpClient client;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    public LLMHttpClient(int maxConcurrency, int poolSize, long keepAliveS,
+                         long connectTimeoutMs, long readTimeoutMs, long callTimeoutMs) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConcurrency);
+        dispatcher.setMaxRequestsPerHost(maxConcurrency); // most calls go to the same host
+        this.client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(poolSize, keepAliveS, TimeUnit.SECONDS))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .callTimeout(callTimeoutMs, TimeUnit.MILLISECONDS)
+                .addInterceptor(chain -> {
+                    if ("HEAD".equals(chain.request().method())) return chain.proceed(chain.request()); // warm-up
+                    long t0 = System.nanoTime();
+                    calls.incrementAndGet();
+                    try {
+                        Response r = chain.proceed(chain.request());
+                        if (!r.isSuccessful()) errors.incrementAndGet();
+                        return r;
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                        throw e;
+                    } finally {
+                        long ms = (System.nanoTime() - t0) / 1_000_000L;
+                        totalMillis.addAndGet(ms);
+                        maxMillis.accumulateAndGet(ms, Math::max);
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * From LLM_MAX_CONCURRENCY, LLM_POOL_SIZE, LLM_KEEP_ALIVE_S, LLM_CONNECT_TIMEOUT_MS,
+     * LLM_READ_TIMEOUT_MS and LLM_CALL_TIMEOUT_MS.
+     */
+    public static LLMHttpClient fromEnv() {
+        return new LLMHttpClient(
+                (int) env("LLM_MAX_CONCURRENCY", 32),
+                (int) env("LLM_POOL_SIZE", 8),
+                env("LLM_KEEP_ALIVE_S", 300),
+                env("LLM_CONNECT_TIMEOUT_MS", 5_000),
+                env("LLM_READ_TIMEOUT_MS", 30_000),
+                env("LLM_CALL_TIMEOUT_MS", 45_000));
+    }
+
+    private static long env(String name, long def) {
+        try {
+            return Math.max(1, Long.parseLong(System.getenv().getOrDefault(name, String.valueOf(def))));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /** Chat completion body with an optional system message. */
+    public static JSONObject chatBody(String model, String systemPrompt, String userPrompt) {
+        JSONArray messages = new JSONArray();
+        if (systemPrompt != null) messages.put(new JSONObject().put("role", "system").put("content", systemPrompt));
+        messages.put(new JSONObject().put("role", "user").put("content", userPrompt));
+        return new JSONObject().put("model", model).put("messages", messages);
+    }
+
+    /** A POST of the JSON body; no Authorization header when apiKey is empty (local endpoints). */
+    public Call newCall(String url, String apiKey, JSONObject body) {
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(JSON, body.toString()));
+        if (apiKey != null && !apiKey.isEmpty()) request.addHeader("Authorization", "Bearer " + apiKey);
+        return client.newCall(request.build());
+    }
+
+    /** Opens a pooled connection (DNS, TCP, TLS, HTTP/2) to the host of url in the background. */
+    public void warmUp(String url) {
+        HttpUrl api = HttpUrl.get(url);
+        HttpUrl origin = new HttpUrl.Builder().scheme(api.scheme()).host(api.host()).port(api.port()).build();
+        long t0 = System.nanoTime();
+        client.newCall(new Request.Builder().url(origin).head().build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                System.err.println("⚠️ LLM connection warm-up failed (" + origin.host() + "): " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                System.out.println("🔥 LLM connection to " + origin.host() + " warmed up in " + (System.nanoTime() - t0) / 1_000_000L
+                        + " ms (" + response.protocol() + ")");
+            }
+        });
+    }
+
+    public String describe() {
+        long n = calls.get();
+        Dispatcher d = client.dispatcher();
+        ConnectionPool pool = client.connectionPool();
+        return "llmhttp.running=" + d.runningCallsCount() + " llmhttp.queued=" + d.queuedCallsCount()
+                + " llmhttp.connections=" + pool.connectionCount() + " llmhttp.idle=" + pool.idleConnectionCount()
+                + " llmhttp.calls=" + n + " llmhttp.errors=" + errors.get()
+                + " llmhttp.avg_ms=" + (n == 0 ? 0 : totalMillis.get() / n) + " llmhttp.max_ms=" + maxMillis.get();
+    }
+}
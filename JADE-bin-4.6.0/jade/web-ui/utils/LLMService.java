@@ -1,26 +1,33 @@
 package utils;
 
-import okhttp3.*;
 import org.json.*;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Scanner;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 public class LLMService {
-    private static final OkHttpClient httpClient = new OkHttpClient();
     private static final String API_KEY = loadApiKey();
-    private static final String API_URL = "https://openrouter.ai/api/v1/chat/completions";
-    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final LLMHttpClient httpClient = LLMHttpClient.fromEnv();
+    private static volatile LLMBackend backend = LLMBackends.fromEnv(httpClient, API_KEY);
     private static final String KB_FILE = "web-ui/kb/knowledge.pl";
+    private static volatile PredicateCatalog predicateCatalog;
+    private static final TranslationCache translationCache = TranslationCache.fromEnv();
+    private static final SingleFlight flights = new SingleFlight();
+    private static final PredicateIndex predicateIndex = newPredicateIndex();
+    private static final boolean STREAM = !"off".equalsIgnoreCase(System.getenv().getOrDefault("LLM_STREAM", "on"));
+
+    private static PredicateIndex newPredicateIndex() {
+        PredicateIndex index = PredicateIndex.fromEnv();
+        if (index != null) index.indexKnowledge(KnowledgeJournal.knowledgeFiles(KB_FILE));
+        return index;
+    }
 
     private static String loadApiKey() {
         // Try multiple .env locations: project root (when running in Docker /app)
@@ -64,6 +71,12 @@ public class LLMService {
         void onError(String error);
     }
 
+    // Callback that also receives the answer while it is generated (humanizeAnswer with LLM_STREAM on)
+    public interface StreamCallback extends LLMCallback {
+        /** The text so far; called as tokens arrive, always before onSuccess. */
+        void onPartial(String textSoFar);
+    }
+
     private static java.util.Set<String> parsePredicateSet(String s) {
         java.util.Set<String> out = new java.util.HashSet<>();
         if (s == null || s.trim().isEmpty()) return out;
@@ -76,11 +89,9 @@ public class LLMService {
 
     private static String enforceAllowedPredicates(String content, String type, java.util.Set<String> allowed) {
         try {
-            String raw = content.trim();
-            String noDot = raw.endsWith(".") ? raw.substring(0, raw.length() - 1) : raw;
-            String clause = noDot.startsWith("?-") ? noDot.substring(2).trim() : noDot;
-
-            java.util.Set<String> used = extractFunctorsWithArity(clause);
+            ClauseReader.Clause parsed = ClauseReader.tryRead(content);
+            if (parsed == null) return content;
+            java.util.Set<String> used = userPredicates(parsed.goals());
             boolean anyUnknown = false;
             for (String u : used) {
                 if (!allowed.contains(u)) { anyUnknown = true; break; }
@@ -100,63 +111,77 @@ public class LLMService {
         }
     }
 
-    private static java.util.Set<String> extractFunctorsWithArity(String clause) {
+    // Plain-named predicates only: operators and control constructs are built-ins, not KB predicates
+    private static java.util.Set<String> userPredicates(java.util.Set<String> keys) {
         java.util.Set<String> out = new java.util.HashSet<>();
-        if (clause == null) return out;
-        
-        java.util.regex.Pattern rp = java.util.regex.Pattern.compile("([a-z][a-z0-9_]*)\\s*\\(([^)]*)\\)");
-        java.util.regex.Matcher m = rp.matcher(clause);
-        while (m.find()) {
-            String functor = m.group(1);
-            String args = m.group(2).trim();
-            int arity = 0;
-            if (!args.isEmpty()) {
-               
-                arity = 1;
-                for (int i = 0, depth = 0; i < args.length(); i++) {
-                    char c = args.charAt(i);
-                    if (c == '(') depth++;
-                    else if (c == ')') depth = Math.max(0, depth - 1);
-                    else if (c == ',' && depth == 0) arity++;
-                }
-            }
-            out.add(functor + "/" + arity);
+        for (String key : keys) {
+            if (isPlainName(key, key.lastIndexOf('/')) && !key.equals("true/0") && !key.equals("fail/0")) out.add(key);
         }
         return out;
     }
 
-    public static String readKnowledgeAndExtractPredicates(String kbPath) {
-        StringBuilder kbContent = new StringBuilder();
-        Set<String> predicates = new HashSet<>();
-
-        try (Scanner scanner = new Scanner(new File(kbPath))) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-                if (line.isEmpty() || line.startsWith("%")) continue;
+    private static boolean isPlainName(String key, int slash) {
+        if (slash <= 0 || !Character.isLowerCase(key.charAt(0))) return false;
+        for (int i = 1; i < slash; i++) {
+            char c = key.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') return false;
+        }
+        return true;
+    }
 
-                kbContent.append(line).append("\n");
+    public static String readKnowledgeAndExtractPredicates(String... kbPaths) {
+        Set<String> predicates = new java.util.TreeSet<>(); // sorted, so the prompt (and its cache key) is stable
 
-                
-                Pattern p = Pattern.compile("([a-zA-Z_][a-zA-Z0-9_]*)\\(([^)]*)\\)");
-                Matcher m = p.matcher(line);
-                if (m.find()) {
-                    String functor = m.group(1);
-                    int arity = m.group(2).split(",").length;
-                    predicates.add(functor + "/" + arity);
+        for (String kbPath : kbPaths) {
+            try {
+                String text = new String(Files.readAllBytes(new File(kbPath).toPath()), StandardCharsets.UTF_8);
+                for (ClauseReader.Clause c : ClauseReader.readAll(text)) {
+                    String key = c.headKey();
+                    if (key != null) predicates.add(key);
                 }
+            } catch (Exception e) {
+                System.err.println("❌ Error while reading knowledge.pl: " + e.getMessage());
             }
-        } catch (Exception e) {
-            System.err.println("❌ Error while reading knowledge.pl: " + e.getMessage());
         }
 
-        System.out.println("📘 Current knowledge (knowledge.pl):");
-        System.out.println(kbContent);
+        System.out.println("📘 Predicates in knowledge.pl: " + predicates.size());
 
         return String.join(", ", predicates);
     }
 
+    /** Replaces the backend chosen by LLM_BACKENDS (tests, benchmarks). */
+    public static void useBackend(LLMBackend b) {
+        backend = b;
+    }
+
+    /** Use the catalog published by the LogicAgent instead of reading knowledge.pl on every translation. */
+    public static void usePredicateCatalog(PredicateCatalog catalog) {
+        predicateCatalog = catalog;
+    }
+
+    private static String availablePredicates() {
+        PredicateCatalog catalog = predicateCatalog;
+        if (catalog != null && catalog.isLoaded()) return catalog.predicates();
+        return readKBPredicatesSmart(); // no catalog received yet
+    }
+
+    public static String describe() {
+        String b = backend.describe();
+        return translationCache.describe() + " " + flights.describe() + " " + httpClient.describe()
+                + (predicateIndex != null ? " " + predicateIndex.describe() : "") + (b.isEmpty() ? "" : " " + b);
+    }
+
+    /** Opens the connections to the LLM backends ahead of the first request (called at agent startup). */
+    public static void warmUp() {
+        backend.warmUp();
+    }
+
     public static String readKBPredicatesSmart() {
-        return readKnowledgeAndExtractPredicates(KB_FILE);
+        // knowledge.pl plus the journal segments not yet folded into it
+        java.util.List<File> files = KnowledgeJournal.knowledgeFiles(KB_FILE);
+        String[] paths = new String[files.size()];
+        for (int i = 0; i < paths.length; i++) paths[i] = files.get(i).getPath();
+        return readKnowledgeAndExtractPredicates(paths);
     }
 
     public static void humanizeAnswer(String logicResult, String queryText, LLMCallback callback) {
@@ -173,50 +198,29 @@ public class LLMService {
                 "Logical result: \"" + logicResult + "\"\n\n" +
                 "Provide the shortest Answer possible:";
 
+        // Same query and result → same prompt: attach to an identical call still in flight
+        final String flightKey = "humanize|" + queryText + "|" + logicResult;
+        if (!flights.join(flightKey, callback)) {
+            System.out.println("🔗 Joined the in-flight humanization of: " + queryText);
+            return;
+        }
+        final StreamCallback done = flights.completion(flightKey);
+        final boolean stream = STREAM && callback instanceof StreamCallback;
 
-        String jsonBody = "{\n" +
-                "  \"model\": \"mistralai/mistral-7b-instruct\",\n" +
-                "  \"messages\": [\n" +
-                "    {\"role\": \"user\", \"content\": \"" + prompt.replace("\"", "\\\"") + "\"}\n" +
-                "  ]\n" +
-                "}";
-
-        RequestBody body = RequestBody.create(JSON, jsonBody);
-
-        Request request = new Request.Builder()
-                .url(API_URL)
-                .addHeader("Authorization", "Bearer " + API_KEY)
-                .addHeader("Content-Type", "application/json")
-                .post(body)
-                .build();
-
-        httpClient.newCall(request).enqueue(new Callback() {
+        backend.complete(LLMBackend.Request.humanization(queryText, logicResult, prompt, stream), new StreamCallback() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                callback.onError("Network error in LLM request: " + e.getMessage());
+            public void onPartial(String textSoFar) {
+                done.onPartial(textSoFar);
             }
 
             @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    callback.onError("LLM API error: " + response.code() + " - " + response.body().string());
-                    return;
-                }
+            public void onSuccess(String content) {
+                done.onSuccess(content.replace('\n', ' ').trim());
+            }
 
-                String responseBody = response.body().string();
-
-                Pattern pattern = Pattern.compile("\"content\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
-                Matcher matcher = pattern.matcher(responseBody);
-                if (matcher.find()) {
-                    String rawContent = matcher.group(1)
-                            .replace("\\n", " ")
-                            .replace("\\\"", "\"")
-                            .replace("\\\\", "\\")
-                            .trim();
-                    callback.onSuccess(rawContent);
-                } else {
-                    callback.onError("❌ No interpretable answer from the model.");
-                }
+            @Override
+            public void onError(String error) {
+                done.onError(error);
             }
         });
     }
@@ -224,18 +228,48 @@ public class LLMService {
     public static void translateToLogic(String input, String type, LLMCallback callback) {
 
         // Use the same path as LogicAgent for consistency in the container (/app as cwd)
-        String availablePredicates = readKBPredicatesSmart();
+        String availablePredicates = availablePredicates();
         String normalizedPredicates = availablePredicates == null ? "" : availablePredicates.trim();
-        boolean hasKnownPredicates = !normalizedPredicates.isEmpty();
         Set<String> knownPredicates = parsePredicateSet(normalizedPredicates);
+
+        if (!"fact".equalsIgnoreCase(type) && !"query".equalsIgnoreCase(type)) {
+            callback.onError("Unknown LLM request type: " + type);
+            return;
+        }
+
+        // Same input, type, predicate list and model → same prompt: reuse the previous translation
+        final String cacheKey = TranslationCache.key(input, type, normalizedPredicates, backend.name());
+        String cached = translationCache.get(cacheKey);
+        if (cached != null) {
+            System.out.println("⚡ Cached translation for: " + input);
+            callback.onSuccess(cached);
+            return;
+        }
+        final String flightKey = "translate|" + cacheKey;
+        if (!flights.join(flightKey, callback)) {
+            System.out.println("🔗 Joined the in-flight translation of: " + input);
+            return;
+        }
+        final LLMCallback done = flights.completion(flightKey);
+
+        // Only the predicates relevant to the sentence go into the prompt; validation uses the full catalog
+        PredicateIndex.Selection selection = predicateIndex == null ? null : predicateIndex.select(input, knownPredicates);
+        boolean pruned = selection != null && selection.pruned;
+        String listed = pruned ? String.join(", ", selection.predicates) : normalizedPredicates;
+        requestTranslation(input, type, knownPredicates, listed, pruned, cacheKey, done);
+    }
+
+    private static void requestTranslation(String input, String type, Set<String> knownPredicates, String listed,
+                                           boolean pruned, String cacheKey, LLMCallback done) {
+        boolean hasListed = !listed.isEmpty();
         Set<String> allowedForCallback = knownPredicates;
         boolean enforceAllowed = "query".equalsIgnoreCase(type) && !knownPredicates.isEmpty();
 
         String prompt;
         if ("fact".equalsIgnoreCase(type)) {
-            String predicateHint = knownPredicates.isEmpty()
+            String predicateHint = !hasListed
                     ? "There are no known predicates yet; create a sensible predicate name that matches the sentence."
-                    : "Prefer reusing one of these predicates when it matches the sentence: " + normalizedPredicates + ".";
+                    : "Prefer reusing one of these predicates when it matches the sentence: " + listed + ".";
             prompt = "You translate natural language into ONE Prolog fact.\n"
                     + "STRICT RULES:\n"
                     + "- Output EXACTLY ONE FACT (not a rule), one line, end with a period.\n"
@@ -247,19 +281,16 @@ public class LLMService {
                     + "Answer: (only the fact)";
             allowedForCallback = Collections.emptySet();
             enforceAllowed = false;
-        } else if ("query".equalsIgnoreCase(type)) {
+        } else {
             prompt = "You translate natural language into ONE Prolog query.\n"
                     + "STRICT RULES:\n"
                     + "- Output EXACTLY ONE QUERY, one line, starting with ?- and ending with a period.\n"
                     + "- Use ONLY predicates from the allowed list. Do NOT invent new predicates or synonyms.\n"
                     + "- No comments, no code fences, no explanations.\n"
                     + "- If the question cannot be expressed using ONLY the allowed predicates, output exactly: ?- fail.\n\n"
-                    + "Allowed predicates (functor/arity): " + (hasKnownPredicates ? normalizedPredicates : "(none)") + "\n"
+                    + "Allowed predicates (functor/arity): " + (hasListed ? listed : "(none)") + "\n"
                     + "Question: " + input + "\n"
                     + "Answer: (only the query)";
-        } else {
-            callback.onError("Unknown LLM request type: " + type);
-            return;
         }
 
         final boolean enforceAllowedFinal = enforceAllowed;
@@ -269,59 +300,44 @@ public class LLMService {
                 ? "Follow the rules strictly. Use ONLY the allowed predicates. Output exactly one Prolog item (fact or query) as requested. No comments or explanations."
                 : "Follow the rules strictly. Output exactly one Prolog item (fact or query) as requested. Prefer existing predicates when they match, but you may introduce new ones when necessary. No comments or explanations.";
 
-        String jsonBody = "{\n"
-                + "  \"model\": \"mistralai/mistral-7b-instruct\",\n"
-                + "  \"temperature\": 0.1,\n"
-                + "  \"max_tokens\": 128,\n"
-                + "  \"stop\": [\"\\n\", \"%\", \"```\"],\n"
-                + "  \"messages\": [\n"
-                + "    {\"role\": \"system\", \"content\": \"" + systemPrompt.replace("\"", "\\\"") + "\"},\n"
-                + "    {\"role\": \"user\", \"content\": \"" + prompt.replace("\"", "\\\"") + "\"}\n"
-                + "  ]\n"
-                + "}";
-
-        RequestBody body = RequestBody.create(JSON,jsonBody);
-
-        Request request = new Request.Builder()
-                .url(API_URL)
-                .addHeader("Authorization", "Bearer " + API_KEY)
-                .addHeader("Content-Type", "application/json")
-                .post(body)
-                .build();
-
-        httpClient.newCall(request).enqueue(new Callback() {
+        LLMBackend.Request request = LLMBackend.Request.translation(input, type, knownPredicates, systemPrompt, prompt);
+        backend.complete(request, new LLMCallback() {
             @Override
-            public void onFailure(Call call, IOException e) {
-                callback.onError("Errore di rete: " + e.getMessage());
-            }
-
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    callback.onError("Risposta API non valida: " + response.code() + " - " + response.body().string());
+            public void onSuccess(String content) {
+                content = content.trim();
+                String patched = enforceAllowedFinal
+                        ? enforceAllowedPredicates(content, type, allowedFinal)
+                        : content;
+                if (pruned && isFail(patched)) {
+                    // maybe the right predicate was pruned away: ask again with the whole catalog
+                    System.out.println("🔭 No answer with " + listed.split(",").length + " predicates, widening to all for: " + input);
+                    String all = String.join(", ", new java.util.TreeSet<>(knownPredicates));
+                    requestTranslation(input, type, knownPredicates, all, false, cacheKey, done);
                     return;
                 }
+                if (predicateIndex != null && !isFail(patched)) predicateIndex.learn(input, patched);
+                String result = completionJson(patched);
+                translationCache.put(cacheKey, result);
+                done.onSuccess(result);
+            }
 
-                String responseBody = response.body().string();
-
-                try {
-                    JSONObject root = new JSONObject(responseBody);
-                    JSONObject msg = root.getJSONArray("choices").getJSONObject(0).getJSONObject("message");
-                    String content = msg.getString("content").trim();
-
-                    String patched = enforceAllowedFinal
-                            ? enforceAllowedPredicates(content, type, allowedFinal)
-                            : content;
-                    if (!patched.equals(content)) {
-                        msg.put("content", patched);
-                        callback.onSuccess(root.toString());
-                    } else {
-                        callback.onSuccess(responseBody);
-                    }
-                } catch (Exception ex) {
-                    callback.onSuccess(responseBody);
-                }
+            @Override
+            public void onError(String error) {
+                done.onError(error);
             }
         });
     }
+
+    private static boolean isFail(String content) {
+        return content.replaceAll("\\s+", "").equals("?-fail.");
+    }
+
+    // Translations keep the chat-completion shape ParserAgent reads (choices[0].message.content), whatever the backend
+    private static String completionJson(String content) {
+        JSONObject message = new JSONObject().put("role", "assistant").put("content", content);
+        return new JSONObject()
+                .put("choices", new JSONArray().put(new JSONObject().put("message", message)))
+                .put("backend", backend.name())
+                .toString();
+    }
 }
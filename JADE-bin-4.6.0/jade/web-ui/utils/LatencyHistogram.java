@@ -0,0 +1,51 @@
+package utils;
+
+/**
+ * Latency histogram with logarithmic buckets (each one 25% wider than the previous), for percentiles
+ * of LLM call latencies.
+ * - Counts are halved when they reach {@link #DECAY_AT} samples, so old traffic fades out and the
+ *   percentiles follow the current behaviour of the backend
+ * - Percentiles are the upper bound of the bucket holding them: at most 25% above the true value
+ */
+public class LatencyHistogram {
+
+    private static final double GROWTH = 1.25;
+    private static final int BUCKETS = 72;   // up to ~1.5 hours
+    private static final int DECAY_AT = 1000;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0;
+
+    public synchronized void record(long millis) {
+        int i = (int) (Math.log(Math.max(1, millis)) / Math.log(GROWTH)) + 1;
+        counts[Math.min(BUCKETS - 1, i)]++;
+        if (++total >= DECAY_AT) {
+            total = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                counts[b] /= 2;
+                total += counts[b];
+            }
+        }
+    }
+
+    public synchronized long samples() {
+        return total;
+    }
+
+    /** Latency below which the given percentage (0-100) of the calls completed; -1 without samples. */
+    public synchronized long percentile(double p) {
+        if (total == 0) return -1;
+        long rank = (long) Math.ceil(total * p / 100.0);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= Math.max(1, rank)) return (long) Math.ceil(Math.pow(GROWTH, b));
+        }
+        return (long) Math.ceil(Math.pow(GROWTH, BUCKETS - 1));
+    }
+
+    public String describe(String prefix) {
+        return prefix + ".p50=" + percentile(50) + " " + prefix + ".p95=" + percentile(95)
+                + " " + prefix + ".p99=" + percentile(99);
+    }
+}
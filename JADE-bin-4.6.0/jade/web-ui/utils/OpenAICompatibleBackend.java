@@ -0,0 +1,111 @@
+package utils;
+
+import java.io.IOException;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Backend for any endpoint speaking the OpenAI chat-completions protocol: OpenRouter, or a local
+ * server (llama.cpp, Ollama, vLLM, ...) through LLM_OPENAI_URL.
+ * - Plain requests read choices[0].message.content
+ * - Streamed requests ("stream": true) read server-sent events, choices[0].delta.content per chunk
+ */
+public class OpenAICompatibleBackend implements LLMBackend {
+
+    private final String name;
+    private final String url;
+    private final String apiKey;
+    private final String model;
+    private final LLMHttpClient http;
+
+    public OpenAICompatibleBackend(String name, String url, String apiKey, String model, LLMHttpClient http) {
+        this.name = name;
+        this.url = url;
+        this.apiKey = apiKey;
+        this.model = model;
+        this.http = http;
+    }
+
+    @Override
+    public String name() {
+        return name + ":" + model;
+    }
+
+    @Override
+    public Pending complete(Request request, LLMService.LLMCallback callback) {
+        JSONObject body = LLMHttpClient.chatBody(model, request.systemPrompt, request.userPrompt);
+        if (!Double.isNaN(request.temperature)) body.put("temperature", request.temperature);
+        if (request.maxTokens > 0) body.put("max_tokens", request.maxTokens);
+        if (!request.stop.isEmpty()) body.put("stop", new JSONArray(request.stop));
+        final boolean stream = request.stream && callback instanceof LLMService.StreamCallback;
+        if (stream) body.put("stream", true);
+
+        Call call = http.newCall(url, apiKey, body);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (!call.isCanceled()) callback.onError("Network error in LLM request: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody responseBody = response.body()) {
+                    if (!response.isSuccessful()) {
+                        callback.onError("LLM API error: " + response.code() + " - " + responseBody.string());
+                    } else if (stream) {
+                        readStream(call, responseBody.source(), (LLMService.StreamCallback) callback);
+                    } else {
+                        String content = new JSONObject(responseBody.string()).getJSONArray("choices")
+                                .getJSONObject(0).getJSONObject("message").optString("content", "");
+                        finish(content, callback);
+                    }
+                } catch (IOException e) {
+                    if (!call.isCanceled()) callback.onError("Network error in LLM request: " + e.getMessage());
+                } catch (JSONException e) {
+                    callback.onError("❌ No interpretable answer from the model.");
+                }
+            }
+        });
+        return call::cancel;
+    }
+
+    // Server-sent events: "data: {chunk}" lines until "data: [DONE]"; ":" lines are keep-alive comments
+    private static void readStream(Call call, BufferedSource source, LLMService.StreamCallback callback) throws IOException {
+        StringBuilder text = new StringBuilder();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (call.isCanceled()) return;
+            if (!line.startsWith("data:")) continue;
+            String data = line.substring(5).trim();
+            if ("[DONE]".equals(data)) break;
+            JSONObject chunk = new JSONObject(data);
+            if (chunk.has("error")) {
+                callback.onError("LLM API error: " + chunk.getJSONObject("error").optString("message"));
+                return;
+            }
+            JSONObject delta = chunk.getJSONArray("choices").getJSONObject(0).optJSONObject("delta");
+            String piece = delta == null ? "" : delta.optString("content", "");
+            if (piece.isEmpty()) continue;
+            text.append(piece);
+            callback.onPartial(text.toString().replace('\n', ' ').trim());
+        }
+        finish(text.toString(), callback);
+    }
+
+    private static void finish(String content, LLMService.LLMCallback callback) {
+        if (content.trim().isEmpty()) callback.onError("❌ No interpretable answer from the model.");
+        else callback.onSuccess(content);
+    }
+
+    @Override
+    public void warmUp() {
+        http.warmUp(url);
+    }
+}
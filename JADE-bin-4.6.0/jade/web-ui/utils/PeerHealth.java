@@ -0,0 +1,148 @@
+package utils;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Liveness of the peers an agent forwards requests to, learned out of band instead of pinging
+ * before every message.
+ * - Messages are sent at once to a peer not under suspicion ({@link #pick})
+ * - When a message cannot be delivered (dead agent, container gone) the AMS answers with a FAILURE;
+ *   it is matched to the message by its reply-with token, the peer is suspected, and the sender's
+ *   fallback runs (typically: send again to another peer)
+ * - Adaptive suspicion: PEER_SUSPECT_MS after a first failure, doubling with each consecutive one up
+ *   to PEER_SUSPECT_MAX_MS, so a restarting agent is retried soon and a dead one rarely
+ * - A message delivered without failure, or any message received from the peer ({@link #alive}),
+ *   resets its failure count
+ */
+public class PeerHealth {
+
+    private static final String TOKEN = "dispatch-";
+    private static final long PENDING_MS = 10_000L; // delivery failures arrive well within this
+
+    private static final class Pending {
+        final AID peer;
+        final Runnable onUndelivered;
+        final long sent = System.currentTimeMillis();
+        Pending(AID peer, Runnable onUndelivered) {
+            this.peer = peer;
+            this.onUndelivered = onUndelivered;
+        }
+    }
+
+    private final Agent agent;
+    private final long suspectMs;
+    private final long maxSuspectMs;
+    private final Map<String, Long> suspectedUntil = new HashMap<>(); // peer name → time
+    private final Map<String, Integer> failures = new HashMap<>();    // peer name → consecutive failures
+    private final Map<String, Pending> pending = new LinkedHashMap<>(); // reply-with token → message, oldest first
+    private final AtomicLong tokens = new AtomicLong();
+    private long sent = 0, undelivered = 0, recovered = 0;
+
+    public PeerHealth(Agent agent, long suspectMs, long maxSuspectMs) {
+        this.agent = agent;
+        this.suspectMs = suspectMs;
+        this.maxSuspectMs = Math.max(suspectMs, maxSuspectMs);
+    }
+
+    /** From PEER_SUSPECT_MS (default 1 s) and PEER_SUSPECT_MAX_MS (default 60 s). */
+    public static PeerHealth fromEnv(Agent agent) {
+        return new PeerHealth(agent, env("PEER_SUSPECT_MS", 1_000), env("PEER_SUSPECT_MAX_MS", 60_000));
+    }
+
+    private static long env(String name, long def) {
+        try {
+            return Math.max(0, Long.parseLong(System.getenv().getOrDefault(name, String.valueOf(def))));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /** Starts listening for the AMS delivery failures of the messages sent through {@link #send}; call from setup(). */
+    public void start() {
+        final MessageTemplate undeliverable = MessageTemplate.and(
+                MessageTemplate.MatchPerformative(ACLMessage.FAILURE),
+                new MessageTemplate(new MessageTemplate.MatchExpression() {
+                    @Override
+                    public boolean match(ACLMessage msg) {
+                        return msg.getInReplyTo() != null && msg.getInReplyTo().startsWith(TOKEN);
+                    }
+                }));
+        agent.addBehaviour(new CyclicBehaviour(agent) {
+            @Override
+            public void action() {
+                ACLMessage failure = myAgent.receive(undeliverable);
+                if (failure == null) { block(); return; }
+                Pending p;
+                long ms;
+                synchronized (PeerHealth.this) {
+                    p = pending.remove(failure.getInReplyTo());
+                    if (p == null) return;
+                    undelivered++;
+                    int n = failures.merge(p.peer.getName(), 1, Integer::sum);
+                    ms = Math.min(maxSuspectMs, suspectMs << Math.min(n - 1, 20));
+                    suspectedUntil.put(p.peer.getName(), System.currentTimeMillis() + ms);
+                }
+                System.out.println("💀 Message to " + p.peer.getLocalName() + " not delivered, suspected for " + ms + " ms");
+                p.onUndelivered.run();
+            }
+        });
+    }
+
+    /** First candidate not under suspicion, null if all are. */
+    public synchronized AID pick(List<AID> candidates) {
+        long now = System.currentTimeMillis();
+        for (AID cand : candidates) {
+            Long until = suspectedUntil.get(cand.getName());
+            if (until == null || now >= until) return cand;
+        }
+        return null;
+    }
+
+    /** Sends the message to the peer; onUndelivered runs on the agent thread if the AMS reports a delivery failure. */
+    public void send(ACLMessage msg, AID peer, Runnable onUndelivered) {
+        String token = TOKEN + tokens.incrementAndGet();
+        msg.clearAllReceiver();
+        msg.addReceiver(peer);
+        msg.setReplyWith(token);
+        synchronized (this) {
+            sent++;
+            long now = System.currentTimeMillis();
+            for (Iterator<Pending> it = pending.values().iterator(); it.hasNext(); ) {
+                Pending p = it.next();
+                if (now - p.sent <= PENDING_MS) break;
+                it.remove(); // no failure by now: it was delivered
+                failures.remove(p.peer.getName());
+            }
+            pending.put(token, new Pending(peer, onUndelivered));
+        }
+        agent.send(msg);
+    }
+
+    /** Evidence that the peer is up (it sent us something). */
+    public synchronized void alive(AID peer) {
+        if (peer == null) return;
+        failures.remove(peer.getName());
+        if (suspectedUntil.remove(peer.getName()) != null) recovered++;
+    }
+
+    public synchronized String describe() {
+        long now = System.currentTimeMillis();
+        int suspects = 0;
+        for (long until : suspectedUntil.values()) {
+            if (now < until) suspects++;
+        }
+        return "peers.sent=" + sent + " peers.undelivered=" + undelivered + " peers.recovered=" + recovered
+                + " peers.suspected=" + suspects;
+    }
+}
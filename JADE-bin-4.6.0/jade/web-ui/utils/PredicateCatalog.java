@@ -0,0 +1,134 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Catalog of the KB predicates (name/arity → number of clauses) with a version number.
+ * - The LogicAgent owns the master copy: loaded from Prolog at startup, updated on every assert
+ * - ParserAgents keep a replica fed over ACL (ontology {@link #ONTOLOGY}): a full snapshot when they
+ *   subscribe, then deltas; a delta that skips versions makes the replica ask for a new snapshot
+ * - {@link #predicates()} is what the LLM prompts use; it is rebuilt on change, not on read
+ *
+ * Message format (one entry per line, counts are absolute so a delta can be applied twice):
+ *   FULL version            DELTA fromVersion toVersion
+ *   name/arity count        name/arity count
+ */
+public class PredicateCatalog {
+
+    public static final String ONTOLOGY = "dabs-predicate-catalog";
+
+    private final Map<String, Integer> clauses = new TreeMap<>();
+    private final Map<String, Integer> changed = new LinkedHashMap<>(); // master side, not yet published
+    private long version = 0;
+    private long publishedVersion = 0;
+    private boolean loaded = false;
+    private volatile String predicates = "";
+
+    /** Replaces the whole catalog (master side, after reading the KB). */
+    public synchronized void load(Map<String, Integer> counts) {
+        clauses.clear();
+        clauses.putAll(counts);
+        changed.clear();
+        version++;
+        publishedVersion = version;
+        loaded = true;
+        refresh();
+    }
+
+    /** Records one more clause for a predicate (master side). */
+    public synchronized void addClause(String key) {
+        if (key == null) return;
+        int n = clauses.getOrDefault(key, 0) + 1;
+        clauses.put(key, n);
+        changed.put(key, n);
+        version++;
+        refresh();
+    }
+
+    public synchronized String snapshotMessage() {
+        StringBuilder sb = new StringBuilder("FULL ").append(version);
+        for (Map.Entry<String, Integer> e : clauses.entrySet()) {
+            sb.append('\n').append(e.getKey()).append(' ').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    /** Changes since the last call, as a DELTA message; null if nothing changed. */
+    public synchronized String drainDelta() {
+        if (changed.isEmpty()) return null;
+        StringBuilder sb = new StringBuilder("DELTA ").append(publishedVersion).append(' ').append(version);
+        for (Map.Entry<String, Integer> e : changed.entrySet()) {
+            sb.append('\n').append(e.getKey()).append(' ').append(e.getValue());
+        }
+        changed.clear();
+        publishedVersion = version;
+        return sb.toString();
+    }
+
+    /**
+     * Applies a FULL or DELTA message (replica side).
+     * @return false if the message cannot be applied (malformed, or a delta after a gap)
+     */
+    public synchronized boolean apply(String message) {
+        if (message == null) return false;
+        String[] lines = message.split("\n");
+        String[] head = lines[0].trim().split(" ");
+        try {
+            if ("FULL".equals(head[0]) && head.length == 2) {
+                clauses.clear();
+                version = Long.parseLong(head[1]);
+                loaded = true;
+            } else if ("DELTA".equals(head[0]) && head.length == 3) {
+                long from = Long.parseLong(head[1]);
+                long to = Long.parseLong(head[2]);
+                if (!loaded || from > version) return false;
+                if (to <= version) return true; // already seen
+                version = to;
+            } else {
+                return false;
+            }
+            for (int i = 1; i < lines.length; i++) {
+                int sp = lines[i].lastIndexOf(' ');
+                if (sp > 0) clauses.put(lines[i].substring(0, sp), Integer.parseInt(lines[i].substring(sp + 1).trim()));
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        refresh();
+        return true;
+    }
+
+    private void refresh() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> e : clauses.entrySet()) {
+            if (e.getValue() <= 0) continue; // declared dynamic but still empty
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(e.getKey());
+        }
+        predicates = sb.toString();
+    }
+
+    /** "name/arity, name/arity, ..." of the predicates with at least one clause. */
+    public String predicates() {
+        return predicates;
+    }
+
+    /** True if the predicate has at least one clause. */
+    public synchronized boolean contains(String key) {
+        return key != null && clauses.getOrDefault(key, 0) > 0;
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized String describe() {
+        return "catalog.version=" + version + " catalog.predicates=" + clauses.size();
+    }
+}
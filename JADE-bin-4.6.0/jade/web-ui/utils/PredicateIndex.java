@@ -0,0 +1,189 @@
+package utils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Picks the predicates worth listing in a translation prompt, so prompts do not grow with the KB.
+ * - Inverted index from words to predicates, fed by: the words of the predicate names (works_at → work),
+ *   the constants in their facts (knowledge.pl when readable, and every fact translated), and the words of
+ *   past sentences whose translation used the predicate
+ * - A predicate's score is the weighted number of sentence words pointing to it (name 3, constant 2,
+ *   past sentence 1); the top LLM_PROMPT_TOP_K are kept, within LLM_PROMPT_TOKEN_BUDGET (~4 characters per token)
+ * - No pruning when the KB is small enough, or when no word matches at all
+ */
+public class PredicateIndex {
+
+    private static final int NAME = 3, CONSTANT = 2, HISTORY = 1;
+    private static final int MAX_WORDS = 20_000; // learned words, to keep memory bounded
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "a", "an", "the", "is", "are", "was", "were", "be", "do", "does", "did", "has", "have", "who", "what",
+            "where", "when", "which", "whom", "whose", "how", "why", "of", "at", "in", "on", "to", "for", "with",
+            "from", "by", "and", "or", "not", "that", "this", "there", "any", "all", "some", "it", "its"));
+
+    /** The predicates chosen for a prompt; pruned is false when the full list was kept. */
+    public static final class Selection {
+        public final List<String> predicates;
+        public final boolean pruned;
+        Selection(List<String> predicates, boolean pruned) {
+            this.predicates = predicates;
+            this.pruned = pruned;
+        }
+    }
+
+    private final int topK;
+    private final int tokenBudget;
+    private final Map<String, Map<String, Integer>> learned = new HashMap<>(); // word → predicate → weight
+    private long selections = 0, pruned = 0, listedTotal = 0, knownTotal = 0;
+
+    public PredicateIndex(int topK, int tokenBudget) {
+        this.topK = Math.max(1, topK);
+        this.tokenBudget = Math.max(1, tokenBudget);
+    }
+
+    /** From LLM_PROMPT_TOP_K (0 disables pruning) and LLM_PROMPT_TOKEN_BUDGET. */
+    public static PredicateIndex fromEnv() {
+        int k, budget;
+        try { k = Integer.parseInt(System.getenv().getOrDefault("LLM_PROMPT_TOP_K", "12")); } catch (NumberFormatException e) { k = 12; }
+        try { budget = Integer.parseInt(System.getenv().getOrDefault("LLM_PROMPT_TOKEN_BUDGET", "150")); } catch (NumberFormatException e) { budget = 150; }
+        return k <= 0 ? null : new PredicateIndex(k, budget);
+    }
+
+    /** Indexes the constants of the facts in the given files, clause by clause (a clause may span lines). */
+    public void indexKnowledge(Collection<File> files) {
+        int facts = 0;
+        for (File f : files) {
+            try {
+                String text = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+                for (ClauseReader.Clause c : ClauseReader.readAll(text)) {
+                    if (c.kind == ClauseReader.Clause.Kind.FACT && addConstants(c.term)) facts++;
+                }
+            } catch (Exception e) {
+                // not readable from this agent: the index learns from translations only
+            }
+        }
+        if (facts > 0) System.out.println("🗂 Predicate index: constants of " + facts + " facts indexed");
+    }
+
+    /** Learns from a successful translation: sentence words and fact constants → the predicates it used. */
+    public void learn(String sentence, String prolog) {
+        ClauseReader.Clause c = ClauseReader.tryRead(prolog);
+        if (c == null) return;
+        if (c.kind == ClauseReader.Clause.Kind.FACT) addConstants(c.term);
+        for (String key : c.goals()) {
+            if (key.startsWith("fail/") || key.startsWith("true/")) continue;
+            for (String w : words(sentence)) add(w, key, HISTORY);
+        }
+    }
+
+    private boolean addConstants(ClauseReader.Term fact) {
+        String key = fact.key();
+        if (key == null || fact.args.isEmpty()) return false;
+        for (ClauseReader.Term arg : fact.args) {
+            if (arg.kind == ClauseReader.Term.Kind.ATOM || arg.kind == ClauseReader.Term.Kind.STRING) {
+                for (String w : words(arg.name)) add(w, key, CONSTANT);
+            }
+        }
+        return true;
+    }
+
+    private synchronized void add(String word, String key, int weight) {
+        Map<String, Integer> preds = learned.get(word);
+        if (preds == null) {
+            if (learned.size() >= MAX_WORDS) return;
+            preds = new HashMap<>();
+            learned.put(word, preds);
+        }
+        preds.merge(key, weight, (a, b) -> Math.min(a + b, 10 * CONSTANT)); // repetitions count, within a cap
+    }
+
+    public synchronized Selection select(String sentence, Set<String> known) {
+        selections++;
+        knownTotal += known.size();
+        List<String> all = new ArrayList<>(known);
+        Collections.sort(all);
+        if (known.size() <= topK && cost(all) <= tokenBudget) {
+            listedTotal += all.size();
+            return new Selection(all, false);
+        }
+        Set<String> input = new HashSet<>(words(sentence));
+        Map<String, Integer> score = new HashMap<>();
+        for (String key : all) {
+            int s = 0;
+            for (String w : words(key.substring(0, Math.max(0, key.lastIndexOf('/'))))) {
+                if (input.contains(w)) s += NAME;
+            }
+            if (s > 0) score.put(key, s);
+        }
+        for (String w : input) {
+            Map<String, Integer> preds = learned.get(w);
+            if (preds == null) continue;
+            for (Map.Entry<String, Integer> e : preds.entrySet()) {
+                if (known.contains(e.getKey())) score.merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+        }
+        if (score.isEmpty()) {
+            listedTotal += all.size();
+            return new Selection(all, false); // nothing to go by: better a long prompt than a wrong one
+        }
+        List<String> ranked = new ArrayList<>(score.keySet());
+        ranked.sort((a, b) -> score.get(b) - score.get(a) != 0 ? score.get(b) - score.get(a) : a.compareTo(b));
+        List<String> chosen = new ArrayList<>();
+        int tokens = 0;
+        for (String key : ranked) {
+            int t = cost(Collections.singletonList(key));
+            if (chosen.size() >= topK || (!chosen.isEmpty() && tokens + t > tokenBudget)) break;
+            chosen.add(key);
+            tokens += t;
+        }
+        Collections.sort(chosen); // stable prompt text for the same selection
+        pruned++;
+        listedTotal += chosen.size();
+        return new Selection(chosen, true);
+    }
+
+    // Rough prompt tokens of "a/1, b/2": four characters per token
+    private static int cost(List<String> keys) {
+        int chars = 0;
+        for (String k : keys) chars += k.length() + 2;
+        return (chars + 3) / 4;
+    }
+
+    // Lower-case words without stop words, with a light stemming so that "works", "working", "work" meet
+    static List<String> words(String text) {
+        List<String> out = new ArrayList<>();
+        for (String w : text.toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+            if (w.isEmpty() || STOP_WORDS.contains(w)) continue;
+            out.add(stem(w));
+        }
+        return out;
+    }
+
+    private static String stem(String w) {
+        if (w.length() > 5 && w.endsWith("ing")) w = w.substring(0, w.length() - 3);
+        else if (w.length() > 4 && w.endsWith("ed")) w = w.substring(0, w.length() - 2);
+        else if (w.length() > 4 && w.endsWith("ies")) w = w.substring(0, w.length() - 3) + "y";
+        else if (w.length() > 4 && w.matches(".*(ch|sh|x|ss|z)es")) w = w.substring(0, w.length() - 2);
+        else if (w.length() > 3 && w.endsWith("s") && !w.endsWith("ss")) w = w.substring(0, w.length() - 1);
+        // final e dropped so that live, lives, lived and living meet
+        return w.length() > 3 && w.endsWith("e") ? w.substring(0, w.length() - 1) : w;
+    }
+
+    public synchronized String describe() {
+        return "prompt.selections=" + selections + " prompt.pruned=" + pruned
+                + " prompt.avg_listed=" + (selections == 0 ? 0 : listedTotal / selections)
+                + " prompt.avg_known=" + (selections == 0 ? 0 : knownTotal / selections)
+                + " prompt.words=" + learned.size();
+    }
+}
@@ -0,0 +1,163 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Pool of JPL engines used by the LogicAgent.
+ * - JPL binds one Prolog engine to each Java thread that opens a Query, so every
+ *   worker thread of the pool owns its own engine and read-only goals run in parallel
+ * - Writes (assertz, dynamic declarations) go through a single writer thread, so they
+ *   keep their arrival order, and take the write lock so no goal sees a half-applied update
+ * - A goal submitted after a write waits for that write, so a user always sees its own facts
+ * - Exposes size, queue depth and per-engine utilisation for the "stats" request
+ */
+public class PrologEnginePool {
+
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock(true);
+    private final List<EngineStats> engines = new ArrayList<>();
+    private final ThreadPoolExecutor readers;
+    private final ThreadPoolExecutor writer;
+    private final long startedAt = System.nanoTime();
+    private final Object writeProgress = new Object();
+    private final AtomicLong writesSubmitted = new AtomicLong();
+    private long writesDone = 0; // guarded by writeProgress
+    private static final ThreadLocal<EngineStats> CURRENT = new ThreadLocal<>();
+
+    private static class EngineStats {
+        final String name;
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong tasks = new AtomicLong();
+        EngineStats(String name) { this.name = name; }
+    }
+
+    public PrologEnginePool(int size) {
+        int n = Math.max(1, size);
+        this.readers = newExecutor(n, "prolog-reader");
+        this.writer = newExecutor(1, "prolog-writer");
+        this.readers.prestartAllCoreThreads();
+        this.writer.prestartAllCoreThreads();
+    }
+
+    /** Pool size from LOGIC_POOL_SIZE, defaulting to the number of available cores. */
+    public static int configuredSize() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        try {
+            return Integer.parseInt(System.getenv().getOrDefault("LOGIC_POOL_SIZE", String.valueOf(cores)));
+        } catch (NumberFormatException e) {
+            return cores;
+        }
+    }
+
+    private ThreadPoolExecutor newExecutor(int threads, String prefix) {
+        ThreadFactory tf = new ThreadFactory() {
+            private final AtomicInteger seq = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                EngineStats stats = new EngineStats(prefix + "-" + seq.incrementAndGet());
+                synchronized (engines) { engines.add(stats); }
+                Thread t = new Thread(() -> { CURRENT.set(stats); r.run(); }, stats.name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), tf);
+    }
+
+    /** Runs a read-only goal on one of the reader engines. */
+    public <T> Future<T> submitRead(Callable<T> task) {
+        final long barrier = writesSubmitted.get();
+        return readers.submit(() -> {
+            awaitWrites(barrier);
+            return runLocked(task, rwLock.readLock());
+        });
+    }
+
+    /** Runs an update (assertz, dynamic, consult) on the writer engine, in submission order. */
+    public <T> Future<T> submitWrite(Callable<T> task) {
+        writesSubmitted.incrementAndGet();
+        return writer.submit(() -> {
+            try {
+                return runLocked(task, rwLock.writeLock());
+            } finally {
+                synchronized (writeProgress) {
+                    writesDone++;
+                    writeProgress.notifyAll();
+                }
+            }
+        });
+    }
+
+    private void awaitWrites(long barrier) throws InterruptedException {
+        synchronized (writeProgress) {
+            while (writesDone < barrier) writeProgress.wait();
+        }
+    }
+
+    private <T> T runLocked(Callable<T> task, java.util.concurrent.locks.Lock lock) throws Exception {
+        EngineStats stats = CURRENT.get();
+        lock.lock();
+        long t0 = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            if (stats != null) {
+                stats.busyNanos.addAndGet(System.nanoTime() - t0);
+                stats.tasks.incrementAndGet();
+            }
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return readers.getCorePoolSize();
+    }
+
+    /** Goals waiting for an engine (reads and writes). */
+    public int queueDepth() {
+        return readers.getQueue().size() + writer.getQueue().size();
+    }
+
+    /** One-line summary: size, queue depth and busy percentage of each engine since startup. */
+    public String describe() {
+        double uptime = Math.max(1L, System.nanoTime() - startedAt);
+        StringBuilder sb = new StringBuilder();
+        sb.append("pool.size=").append(size())
+          .append(" pool.queue=").append(queueDepth())
+          .append(" pool.active=").append(readers.getActiveCount() + writer.getActiveCount());
+        synchronized (engines) {
+            for (EngineStats e : engines) {
+                sb.append(" ").append(e.name).append("=")
+                  .append(String.format(java.util.Locale.ROOT, "%.1f%%", 100.0 * e.busyNanos.get() / uptime))
+                  .append("/").append(e.tasks.get());
+            }
+        }
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        shutdown(readers);
+        shutdown(writer);
+    }
+
+    private static void shutdown(ExecutorService ex) {
+        ex.shutdown();
+        try {
+            if (!ex.awaitTermination(5, TimeUnit.SECONDS)) ex.shutdownNow();
+        } catch (InterruptedException e) {
+            ex.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
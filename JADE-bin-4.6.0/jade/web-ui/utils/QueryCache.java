@@ -0,0 +1,149 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LRU cache of final answers for Prolog goals, used by the LogicAgent.
+ * - Keyed by the normalized goal text (whitespace outside quotes removed)
+ * - Every entry records the predicates (name/arity) its goal depends on, rules included,
+ *   and is dropped as soon as one of them receives a new clause
+ * - Answers computed while an update was running are not stored (stamp check)
+ */
+public class QueryCache {
+
+    private static class CachedAnswer {
+        final String answer;
+        final Set<String> dependencies;
+        CachedAnswer(String answer, Set<String> dependencies) {
+            this.answer = answer;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, CachedAnswer> entries;
+    private final Map<String, Set<String>> keysByPredicate = new HashMap<>();
+    private final Map<String, Long> invalidatedAt = new HashMap<>();
+    private long clock = 0;
+    private long hits = 0, misses = 0, invalidations = 0;
+
+    public QueryCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.entries = new LinkedHashMap<String, CachedAnswer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAnswer> eldest) {
+                if (size() <= QueryCache.this.capacity) return false;
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /** Capacity from LOGIC_CACHE_SIZE (0 disables the cache). */
+    public static int configuredCapacity() {
+        try {
+            return Integer.parseInt(System.getenv().getOrDefault("LOGIC_CACHE_SIZE", "512"));
+        } catch (NumberFormatException e) {
+            return 512;
+        }
+    }
+
+    /** Removes whitespace outside quoted atoms/strings, so "p(a, X)" and "p(a,X)" share an entry. */
+    public static String normalize(String goal) {
+        if (goal == null) return "";
+        StringBuilder sb = new StringBuilder(goal.length());
+        char quote = 0;
+        for (int i = 0; i < goal.length(); i++) {
+            char c = goal.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                sb.append(c);
+            } else if (!Character.isWhitespace(c)) {
+                sb.append(c);
+            } else if (sb.length() > 0 && i + 1 < goal.length()
+                    && sb.charAt(sb.length() - 1) != ' '
+                    && sameTokenClass(sb.charAt(sb.length() - 1), goal.charAt(i + 1))) {
+                // keep the space that separates two tokens, e.g. "X is Y" or "X = -1"
+                sb.append(' ');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean sameTokenClass(char a, char b) {
+        boolean wa = Character.isLetterOrDigit(a) || a == '_';
+        boolean wb = Character.isLetterOrDigit(b) || b == '_';
+        if (wa || wb) return wa && wb;
+        return isSymbolChar(a) && isSymbolChar(b);
+    }
+
+    private static boolean isSymbolChar(char c) {
+        return "+-*/\\^<>=~:.?@#&$".indexOf(c) >= 0;
+    }
+
+    public synchronized String get(String key) {
+        if (capacity == 0) return null;
+        CachedAnswer e = entries.get(key);
+        if (e == null) { misses++; return null; }
+        hits++;
+        return e.answer;
+    }
+
+    /** Logical time to pass back to {@link #put} once the answer has been computed. */
+    public synchronized long stamp() {
+        return clock;
+    }
+
+    public synchronized void put(String key, Set<String> dependencies, String answer, long stamp) {
+        if (capacity == 0 || answer == null) return;
+        for (String p : dependencies) {
+            Long at = invalidatedAt.get(p);
+            if (at != null && at > stamp) return; // a dependency changed while the answer was computed
+        }
+        CachedAnswer old = entries.remove(key);
+        if (old != null) unindex(key, old);
+        CachedAnswer e = new CachedAnswer(answer, new HashSet<>(dependencies));
+        entries.put(key, e);
+        for (String p : e.dependencies) {
+            keysByPredicate.computeIfAbsent(p, k -> new HashSet<>()).add(key);
+        }
+    }
+
+    /** Drops every entry that depends on the given predicate (name/arity). */
+    public synchronized void invalidate(String predicate) {
+        clock++;
+        invalidatedAt.put(predicate, clock);
+        Set<String> keys = keysByPredicate.remove(predicate);
+        if (keys == null) return;
+        for (String key : keys) {
+            CachedAnswer e = entries.remove(key);
+            if (e != null) {
+                invalidations++;
+                unindex(key, e);
+            }
+        }
+    }
+
+    private void unindex(String key, CachedAnswer e) {
+        for (String p : e.dependencies) {
+            Set<String> keys = keysByPredicate.get(p);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) keysByPredicate.remove(p);
+            }
+        }
+    }
+
+    public synchronized String describe() {
+        return "cache.size=" + entries.size() + "/" + capacity
+                + " cache.hits=" + hits + " cache.misses=" + misses
+                + " cache.invalidations=" + invalidations;
+    }
+}
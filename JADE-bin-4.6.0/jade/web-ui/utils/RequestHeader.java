@@ -0,0 +1,92 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Optional header carried in front of a message: "##KEY:value;KEY:value## body".
+ * - Used between frontend and agents for request options (LIMIT, OFFSET, MODE)
+ *   and between ParserAgent and LogicAgent for the expected TYPE
+ * - Keys are case-insensitive (stored upper-case); text without a header has no fields
+ */
+public class RequestHeader {
+
+    private final Map<String, String> fields = new LinkedHashMap<>();
+    private String body;
+
+    private RequestHeader(String body) {
+        this.body = body;
+    }
+
+    public static RequestHeader parse(String text) {
+        String input = text == null ? "" : text.trim();
+        RequestHeader h = new RequestHeader(input);
+        if (!input.startsWith("##")) return h;
+        int end = input.indexOf("##", 2);
+        if (end < 2) return h;
+        for (String part : input.substring(2, end).split(";")) {
+            int colon = part.indexOf(':');
+            if (colon <= 0) continue;
+            String key = part.substring(0, colon).trim().toUpperCase();
+            String value = part.substring(colon + 1).trim();
+            if (!key.isEmpty()) h.fields.put(key, value);
+        }
+        h.body = input.substring(end + 2).trim();
+        return h;
+    }
+
+    public String body() {
+        return body;
+    }
+
+    public RequestHeader withBody(String body) {
+        this.body = body == null ? "" : body;
+        return this;
+    }
+
+    public String get(String key) {
+        return fields.get(key.toUpperCase());
+    }
+
+    public String get(String key, String def) {
+        String v = get(key);
+        return v == null || v.isEmpty() ? def : v;
+    }
+
+    public int getInt(String key, int def) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /** Sets a field; null removes it. Values must not contain ';' or "##". */
+    public RequestHeader set(String key, String value) {
+        if (value == null) fields.remove(key.toUpperCase());
+        else fields.put(key.toUpperCase(), value.replace(";", ",").replace("##", "#"));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    /** "##K:V;K:V## " or "" when there are no fields. */
+    public String prefix() {
+        if (fields.isEmpty()) return "";
+        StringBuilder sb = new StringBuilder("##");
+        boolean first = true;
+        for (Map.Entry<String, String> e : fields.entrySet()) {
+            if (!first) sb.append(';');
+            sb.append(e.getKey()).append(':').append(e.getValue());
+            first = false;
+        }
+        return sb.append("## ").toString();
+    }
+
+    @Override
+    public String toString() {
+        return prefix() + body;
+    }
+}
@@ -0,0 +1,139 @@
+package utils;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.OneShotBehaviour;
+import jade.core.behaviours.WakerBehaviour;
+import jade.lang.acl.ACLMessage;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Forwards a message to one provider of a service, retrying until a deadline.
+ * - The first attempt is immediate (no ticker period to wait for)
+ * - No usable peer (none registered yet, or all suspected): retried after an exponential backoff with
+ *   jitter, DISPATCH_BACKOFF_INITIAL_MS doubling up to DISPATCH_BACKOFF_MAX_MS
+ * - A delivery failure reported by the AMS suspects the peer (see {@link PeerHealth}) and retries at once
+ *   with the next one
+ * - When the next attempt would fall after DISPATCH_DEADLINE_MS from the first one, the caller is told to give up
+ * Attempts run as behaviours, so everything happens on the agent thread, whoever calls {@link #dispatch}.
+ */
+public class RetryDispatcher {
+
+    private final Agent agent;
+    private final PeerHealth health;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long deadlineMs;
+    private final Random random = new Random();
+    private long dispatched = 0, firstTry = 0, retries = 0, gaveUp = 0;
+
+    public RetryDispatcher(Agent agent, PeerHealth health, long initialBackoffMs, long maxBackoffMs, long deadlineMs) {
+        this.agent = agent;
+        this.health = health;
+        this.initialBackoffMs = Math.max(1, initialBackoffMs);
+        this.maxBackoffMs = Math.max(this.initialBackoffMs, maxBackoffMs);
+        this.deadlineMs = deadlineMs;
+    }
+
+    /** From DISPATCH_BACKOFF_INITIAL_MS, DISPATCH_BACKOFF_MAX_MS and DISPATCH_DEADLINE_MS. */
+    public static RetryDispatcher fromEnv(Agent agent, PeerHealth health) {
+        return new RetryDispatcher(agent, health,
+                env("DISPATCH_BACKOFF_INITIAL_MS", 100),
+                env("DISPATCH_BACKOFF_MAX_MS", 2_000),
+                env("DISPATCH_DEADLINE_MS", 10_000));
+    }
+
+    private static long env(String name, long def) {
+        try {
+            return Math.max(0, Long.parseLong(System.getenv().getOrDefault(name, String.valueOf(def))));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /**
+     * Sends the message to one of the candidates (read again at every attempt).
+     * @param onGiveUp receives the reason when the deadline passes without a peer to send to
+     */
+    public void dispatch(Supplier<List<AID>> candidates, ACLMessage msg, Consumer<String> onGiveUp) {
+        Attempt attempt = new Attempt(candidates, msg, onGiveUp);
+        agent.addBehaviour(new OneShotBehaviour(agent) {
+            @Override
+            public void action() {
+                attempt.run();
+            }
+        });
+    }
+
+    private final class Attempt implements Runnable {
+        private final Supplier<List<AID>> candidates;
+        private final ACLMessage msg;
+        private final Consumer<String> onGiveUp;
+        private final long started = System.currentTimeMillis();
+        private int round = 0;
+
+        Attempt(Supplier<List<AID>> candidates, ACLMessage msg, Consumer<String> onGiveUp) {
+            this.candidates = candidates;
+            this.msg = msg;
+            this.onGiveUp = onGiveUp;
+        }
+
+        @Override
+        public void run() {
+            List<AID> all = candidates.get();
+            AID peer = health.pick(all);
+            if (peer != null) {
+                synchronized (RetryDispatcher.this) {
+                    dispatched++;
+                    if (round == 0) firstTry++;
+                }
+                // undelivered: that peer is now suspected, the next attempt goes elsewhere (or waits)
+                health.send((ACLMessage) msg.clone(), peer, this::retryNow);
+                return;
+            }
+            long delay = backoff(round++);
+            if (System.currentTimeMillis() + delay - started > deadlineMs) {
+                synchronized (RetryDispatcher.this) {
+                    gaveUp++;
+                }
+                onGiveUp.accept(all.isEmpty() ? "no provider registered" : "all " + all.size() + " providers unreachable");
+                return;
+            }
+            synchronized (RetryDispatcher.this) {
+                retries++;
+            }
+            agent.addBehaviour(new WakerBehaviour(agent, delay) {
+                @Override
+                protected void onWake() {
+                    run();
+                }
+            });
+        }
+
+        private void retryNow() {
+            round++;
+            synchronized (RetryDispatcher.this) {
+                retries++;
+            }
+            run();
+        }
+    }
+
+    // Exponential backoff with jitter: uniform in [d/2, d], so retries of many requests do not line up
+    private long backoff(int round) {
+        long d = initialBackoffMs << Math.min(round, 20);
+        d = Math.min(maxBackoffMs, d);
+        synchronized (random) {
+            return d / 2 + (long) (random.nextDouble() * (d - d / 2));
+        }
+    }
+
+    public synchronized String describe() {
+        return "dispatch.sent=" + dispatched + " dispatch.first_try=" + firstTry + " dispatch.retries=" + retries
+                + " dispatch.gave_up=" + gaveUp;
+    }
+}
@@ -0,0 +1,125 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process, deterministic stand-in for the LLM (LLM_BACKENDS=rules), with no network and no cost.
+ * - Facts: "X is a Y" → y(x).   "X works at Y" / "X likes Y" → works_at(x, y). / likes(x, y).
+ * - Queries, over the known predicates only: "Who is a Y?", "Is X a Y?", "Where does X work?",
+ *   "Who works at Y?", "Does X like Y?"
+ * - Answers: "Yes." for a true query, otherwise the values of the bindings
+ * - Anything else is an error, so that a fallback chain moves on to the next backend
+ */
+public class RuleBasedBackend implements LLMBackend {
+
+    private static final String NAME = "[a-z][a-z0-9_]*(?: [a-z][a-z0-9_]*)*";
+    private static final String PREP = "(?:(at|in|on|for|with|to|from|of) )?";
+    private static final Pattern IS_A = Pattern.compile("^(" + NAME + ") is an? (" + NAME + ")$");
+    private static final Pattern VERB = Pattern.compile("^(" + NAME + "?) ([a-z]+s) " + PREP + "(" + NAME + ")$");
+    private static final Pattern WHO_IS = Pattern.compile("^who (?:is an?|are(?: the)?) (" + NAME + ")$");
+    private static final Pattern IS_X_A = Pattern.compile("^is (" + NAME + ") an? (" + NAME + ")$");
+    private static final Pattern WHERE = Pattern.compile("^where does (" + NAME + "?) ([a-z]+)$");
+    private static final Pattern WHO_VERB = Pattern.compile("^who ([a-z]+s) " + PREP + "(" + NAME + ")$");
+    private static final Pattern DOES = Pattern.compile("^does (" + NAME + "?) ([a-z]+) " + PREP + "(" + NAME + ")$");
+
+    @Override
+    public String name() {
+        return "rules";
+    }
+
+    @Override
+    public Pending complete(Request request, LLMService.LLMCallback callback) {
+        String answer = request.kind == Request.Kind.TRANSLATE
+                ? translate(request.input, request.type, request.predicates)
+                : humanize(request.result);
+        if (answer == null) callback.onError("No local rule matches: " + (request.kind == Request.Kind.TRANSLATE ? request.input : request.query));
+        else callback.onSuccess(answer);
+        return Pending.DONE;
+    }
+
+    static String translate(String input, String type, Set<String> known) {
+        String s = input == null ? "" : input.trim().toLowerCase(Locale.ROOT).replaceAll("[.?!]+$", "").replaceAll("\\s+", " ").trim();
+        Matcher m;
+        if ("fact".equalsIgnoreCase(type)) {
+            if ((m = IS_A.matcher(s)).matches()) return atom(m.group(2)) + "(" + atom(m.group(1)) + ").";
+            if ((m = VERB.matcher(s)).matches()) {
+                String verb = m.group(2);
+                List<String> names = verbPredicates(verb.substring(0, verb.length() - 1), m.group(3));
+                String p = firstKnown(names, 2, known);
+                return (p != null ? p : names.get(0)) + "(" + atom(m.group(1)) + ", " + atom(m.group(4)) + ").";
+            }
+            return null;
+        }
+        if ((m = WHO_IS.matcher(s)).matches()) {
+            String y = atom(m.group(1));
+            String p = firstKnown(singularAndPlural(y), 1, known);
+            return p == null ? null : "?- " + p + "(X).";
+        }
+        if ((m = IS_X_A.matcher(s)).matches()) {
+            String p = firstKnown(singularAndPlural(atom(m.group(2))), 1, known);
+            return p == null ? null : "?- " + p + "(" + atom(m.group(1)) + ").";
+        }
+        if ((m = WHERE.matcher(s)).matches()) {
+            List<String> names = new ArrayList<>(verbPredicates(m.group(2), "at"));
+            names.addAll(verbPredicates(m.group(2), "in"));
+            names.addAll(verbPredicates(m.group(2), null));
+            String p = firstKnown(names, 2, known);
+            return p == null ? null : "?- " + p + "(" + atom(m.group(1)) + ", X).";
+        }
+        if ((m = WHO_VERB.matcher(s)).matches()) {
+            String verb = m.group(1);
+            String p = firstKnown(verbPredicates(verb.substring(0, verb.length() - 1), m.group(2)), 2, known);
+            return p == null ? null : "?- " + p + "(X, " + atom(m.group(3)) + ").";
+        }
+        if ((m = DOES.matcher(s)).matches()) {
+            String p = firstKnown(verbPredicates(m.group(2), m.group(3)), 2, known);
+            return p == null ? null : "?- " + p + "(" + atom(m.group(1)) + ", " + atom(m.group(4)) + ").";
+        }
+        return null;
+    }
+
+    // work + at → works_at, work_at (works, work without a preposition)
+    private static List<String> verbPredicates(String stem, String prep) {
+        String suffix = prep == null ? "" : "_" + prep;
+        List<String> out = new ArrayList<>();
+        out.add(stem + "s" + suffix);
+        out.add(stem + suffix);
+        return out;
+    }
+
+    private static List<String> singularAndPlural(String y) {
+        List<String> out = new ArrayList<>();
+        out.add(y);
+        if (y.endsWith("s")) out.add(y.substring(0, y.length() - 1));
+        return out;
+    }
+
+    private static String firstKnown(List<String> names, int arity, Set<String> known) {
+        for (String n : names) {
+            if (known.contains(n + "/" + arity)) return n;
+        }
+        return null;
+    }
+
+    private static String atom(String words) {
+        return words.trim().replace(' ', '_');
+    }
+
+    // "✅ The query is true." → "Yes."; "X = rome; X = milan;" → "rome, milan."
+    static String humanize(String result) {
+        if (result == null) return null;
+        if (result.contains("is true")) return "Yes.";
+        Set<String> values = new LinkedHashSet<>();
+        for (String binding : result.split(";")) {
+            int eq = binding.indexOf(" = ");
+            if (eq > 0) values.add(binding.substring(eq + 3).trim().replace('_', ' '));
+        }
+        return values.isEmpty() ? null : String.join(", ", values) + ".";
+    }
+}
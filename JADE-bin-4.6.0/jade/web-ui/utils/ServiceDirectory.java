@@ -0,0 +1,202 @@
+package utils;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.ThreadedBehaviourFactory;
+import jade.core.behaviours.TickerBehaviour;
+import jade.domain.DFService;
+import jade.domain.FIPAException;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.FIPAManagementVocabulary;
+import jade.domain.FIPAAgentManagement.SearchConstraints;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import jade.proto.SubscriptionInitiator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local view of the DF: the providers of each watched service type ("logic", "parser"), so routing a
+ * message is a map lookup instead of a DFService.search round trip to the main container.
+ * - Kept up to date by a DF subscription per type (notifications on register, modify, deregister)
+ * - Reconciled with a plain search every DF_RECONCILE_MS, which also subscribes again if the DF
+ *   refused or dropped the subscription
+ * - The periodic search runs in its own thread (ThreadedBehaviourFactory): a slow DF does not hold
+ *   up the agent's messages
+ * - DF notifications are INFORMs: agents with a generic INFORM handler must exclude {@link #NOTIFICATIONS}
+ */
+public class ServiceDirectory {
+
+    /** DF messages (subscription notifications); not application INFORMs. */
+    public static final MessageTemplate NOTIFICATIONS = MessageTemplate.MatchOntology(FIPAManagementVocabulary.NAME);
+
+    private final Agent agent;
+    private final long reconcileMs;
+    private final Map<String, Map<String, AID>> providers = new HashMap<>(); // type → name → AID
+    private final Map<String, SubscriptionInitiator> subscriptions = new HashMap<>();
+    private final ThreadedBehaviourFactory threads = new ThreadedBehaviourFactory();
+    private long notifications = 0, reconciles = 0, reconcileFixes = 0;
+
+    public ServiceDirectory(Agent agent, long reconcileMs) {
+        this.agent = agent;
+        this.reconcileMs = reconcileMs;
+    }
+
+    /** From DF_RECONCILE_MS (default 30 s). */
+    public static ServiceDirectory fromEnv(Agent agent) {
+        long ms;
+        try {
+            ms = Long.parseLong(System.getenv().getOrDefault("DF_RECONCILE_MS", "30000"));
+        } catch (NumberFormatException e) {
+            ms = 30_000L;
+        }
+        return new ServiceDirectory(agent, Math.max(1_000L, ms));
+    }
+
+    /** Starts tracking the providers of a service type; call from setup(). */
+    public void watch(String type) {
+        synchronized (this) {
+            providers.putIfAbsent(type, new LinkedHashMap<>());
+        }
+        reconcile(type, true); // the view is usable before the first notification
+        subscribe(type);
+        agent.addBehaviour(threads.wrap(new TickerBehaviour(agent, reconcileMs) {
+            @Override
+            protected void onTick() {
+                reconcile(type, false);
+                boolean lost;
+                synchronized (ServiceDirectory.this) {
+                    lost = !subscriptions.containsKey(type);
+                }
+                if (lost) subscribe(type);
+            }
+        }));
+    }
+
+    /** Current providers of the type, in registration order; empty if none (or not watched). */
+    public synchronized List<AID> providers(String type) {
+        Map<String, AID> m = providers.get(type);
+        return m == null ? new ArrayList<>() : new ArrayList<>(m.values());
+    }
+
+    private static DFAgentDescription template(String type) {
+        DFAgentDescription template = new DFAgentDescription();
+        ServiceDescription sd = new ServiceDescription();
+        sd.setType(type);
+        template.addServices(sd);
+        return template;
+    }
+
+    private void subscribe(String type) {
+        SearchConstraints sc = new SearchConstraints();
+        sc.setMaxResults(-1L);
+        ACLMessage subscribe = DFService.createSubscriptionMessage(agent, agent.getDefaultDF(), template(type), sc);
+        subscribe.setConversationId("directory-" + type + "-" + System.currentTimeMillis());
+        SubscriptionInitiator initiator = new SubscriptionInitiator(agent, subscribe) {
+            @Override
+            protected void handleInform(ACLMessage inform) {
+                try {
+                    apply(type, DFService.decodeNotification(inform.getContent()));
+                } catch (FIPAException e) {
+                    System.err.println("⚠️ Unreadable DF notification for '" + type + "': " + e.getMessage());
+                }
+            }
+
+            @Override
+            protected void handleRefuse(ACLMessage refuse) {
+                lost(type);
+            }
+
+            @Override
+            protected void handleFailure(ACLMessage failure) {
+                lost(type);
+            }
+        };
+        synchronized (this) {
+            subscriptions.put(type, initiator);
+        }
+        agent.addBehaviour(initiator);
+        System.out.println("📒 Subscribed to DF notifications for '" + type + "' services");
+    }
+
+    private synchronized void lost(String type) {
+        System.out.println("⚠️ DF subscription for '" + type + "' lost, relying on reconciliation");
+        subscriptions.remove(type);
+    }
+
+    // A notification carries the new description of each changed agent; no services means deregistered
+    private synchronized void apply(String type, DFAgentDescription[] changed) {
+        notifications++;
+        Map<String, AID> m = providers.get(type);
+        for (DFAgentDescription d : changed) {
+            if (d.getName() == null) continue;
+            if (offers(d, type)) {
+                if (m.put(d.getName().getName(), d.getName()) == null) {
+                    System.out.println("📒 " + d.getName().getLocalName() + " provides '" + type + "'");
+                }
+            } else if (m.remove(d.getName().getName()) != null) {
+                System.out.println("📒 " + d.getName().getLocalName() + " no longer provides '" + type + "'");
+            }
+        }
+    }
+
+    private static boolean offers(DFAgentDescription d, String type) {
+        Iterator<?> it = d.getAllServices();
+        while (it.hasNext()) {
+            if (type.equals(((ServiceDescription) it.next()).getType())) return true;
+        }
+        return false;
+    }
+
+    private void reconcile(String type, boolean initial) {
+        DFAgentDescription[] found;
+        try {
+            SearchConstraints sc = new SearchConstraints();
+            sc.setMaxResults(-1L);
+            found = DFService.search(agent, template(type), sc);
+        } catch (FIPAException e) {
+            System.err.println("⚠️ DF search for '" + type + "' failed: " + e.getMessage());
+            return;
+        }
+        Map<String, AID> fresh = new LinkedHashMap<>();
+        for (DFAgentDescription d : found) {
+            if (d.getName() != null) fresh.put(d.getName().getName(), d.getName());
+        }
+        synchronized (this) {
+            reconciles++;
+            Map<String, AID> m = providers.get(type);
+            if (!m.keySet().equals(fresh.keySet())) {
+                if (!initial) reconcileFixes++; // a notification was missed
+                m.keySet().retainAll(fresh.keySet());
+                m.putAll(fresh);
+            }
+        }
+    }
+
+    /** Cancels the DF subscriptions; call from takeDown(). */
+    public void close() {
+        List<SubscriptionInitiator> all;
+        synchronized (this) {
+            all = new ArrayList<>(subscriptions.values());
+            subscriptions.clear();
+        }
+        for (SubscriptionInitiator s : all) s.cancel(agent.getDefaultDF(), true);
+        threads.interrupt();
+    }
+
+    public synchronized String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Map<String, AID>> e : providers.entrySet()) {
+            sb.append("directory.").append(e.getKey()).append('=').append(e.getValue().size()).append(' ');
+        }
+        return sb.append("directory.notifications=").append(notifications)
+                .append(" directory.reconciles=").append(reconciles)
+                .append(" directory.reconcile_fixes=").append(reconcileFixes).toString();
+    }
+}
@@ -0,0 +1,93 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces identical LLM requests that are in flight at the same time.
+ * - The first caller for a key is the leader and performs the call; callers arriving before it
+ *   completes are attached to it instead of sending the same prompt again
+ * - When the call completes every attached callback gets the same result (or the same error);
+ *   partial answers of a streamed call go to the attached {@link LLMService.StreamCallback}s
+ * - The entry is removed on completion: later callers start a new call (or hit a cache)
+ */
+public class SingleFlight {
+
+    private final Map<String, List<LLMService.LLMCallback>> inFlight = new HashMap<>();
+    private long leaders = 0, joined = 0;
+
+    /**
+     * Attaches the callback to the call for this key.
+     * @return true if the caller is the leader and must start the call, completing it through {@link #completion}
+     */
+    public synchronized boolean join(String key, LLMService.LLMCallback callback) {
+        List<LLMService.LLMCallback> waiting = inFlight.get(key);
+        if (waiting != null) {
+            waiting.add(callback);
+            joined++;
+            return false;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(callback);
+        inFlight.put(key, waiting);
+        leaders++;
+        return true;
+    }
+
+    /** The callback the leader's call must complete: it delivers the outcome to every attached caller. */
+    public LLMService.StreamCallback completion(String key) {
+        return new LLMService.StreamCallback() {
+            @Override
+            public void onPartial(String textSoFar) {
+                for (LLMService.LLMCallback c : peek(key)) {
+                    if (!(c instanceof LLMService.StreamCallback)) continue;
+                    try {
+                        ((LLMService.StreamCallback) c).onPartial(textSoFar);
+                    } catch (RuntimeException e) {
+                        System.err.println("⚠️ LLM callback failed: " + e.getMessage());
+                    }
+                }
+            }
+
+            @Override
+            public void onSuccess(String result) {
+                for (LLMService.LLMCallback c : take(key)) {
+                    try {
+                        c.onSuccess(result);
+                    } catch (RuntimeException e) {
+                        System.err.println("⚠️ LLM callback failed: " + e.getMessage());
+                    }
+                }
+            }
+
+            @Override
+            public void onError(String error) {
+                for (LLMService.LLMCallback c : take(key)) {
+                    try {
+                        c.onError(error);
+                    } catch (RuntimeException e) {
+                        System.err.println("⚠️ LLM callback failed: " + e.getMessage());
+                    }
+                }
+            }
+        };
+    }
+
+    private synchronized List<LLMService.LLMCallback> peek(String key) {
+        List<LLMService.LLMCallback> waiting = inFlight.get(key);
+        return waiting == null ? new ArrayList<LLMService.LLMCallback>() : new ArrayList<>(waiting);
+    }
+
+    private synchronized List<LLMService.LLMCallback> take(String key) {
+        List<LLMService.LLMCallback> waiting = inFlight.remove(key);
+        return waiting == null ? new ArrayList<LLMService.LLMCallback>() : waiting;
+    }
+
+    public synchronized String describe() {
+        long total = leaders + joined;
+        return "flight.calls=" + leaders + " flight.coalesced=" + joined + " flight.inflight=" + inFlight.size()
+                + " flight.ratio=" + (total == 0 ? "0.00" : String.format(java.util.Locale.ROOT, "%.2f", (double) joined / total));
+    }
+}
@@ -0,0 +1,174 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * Cache of LLM translations (natural language → Prolog), used by LLMService.translateToLogic.
+ * - Keyed by normalized input, request type, version of the predicate list and model: a translation is
+ *   reused only while the prompt it was produced from would be the same
+ * - The version is a hash of the list itself, so it is the same on every ParserAgent and across
+ *   restarts, and adding clauses to existing predicates does not change it
+ * - LRU with a size bound and a TTL
+ * - Optional file (one JSON object per line, appended on every store, rewritten when it grows)
+ *   so the cache survives restarts
+ */
+public class TranslationCache {
+
+    private static class Cached {
+        final String value;
+        final long storedAt;
+        Cached(String value, long storedAt) {
+            this.value = value;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private final int capacity;
+    private final long ttlMs;
+    private final File file;
+    private final LinkedHashMap<String, Cached> entries;
+    private int linesInFile = 0;
+    private long hits = 0, misses = 0, expired = 0;
+
+    public TranslationCache(int capacity, long ttlMs, File file) {
+        this.capacity = Math.max(0, capacity);
+        this.ttlMs = ttlMs;
+        this.file = file;
+        this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > TranslationCache.this.capacity;
+            }
+        };
+        if (file != null && this.capacity > 0) load();
+    }
+
+    /** From LLM_CACHE_SIZE (0 disables), LLM_CACHE_TTL_S and LLM_CACHE_FILE (empty: memory only). */
+    public static TranslationCache fromEnv() {
+        int size;
+        long ttl;
+        try { size = Integer.parseInt(System.getenv().getOrDefault("LLM_CACHE_SIZE", "256")); } catch (NumberFormatException e) { size = 256; }
+        try { ttl = Long.parseLong(System.getenv().getOrDefault("LLM_CACHE_TTL_S", "86400")); } catch (NumberFormatException e) { ttl = 86400; }
+        String path = System.getenv().getOrDefault("LLM_CACHE_FILE", "").trim();
+        return new TranslationCache(size, ttl * 1000L, path.isEmpty() ? null : new File(path));
+    }
+
+    /** Lower case, single spaces, no trailing punctuation: "Who is a Doctor ?" and "who is a doctor" share an entry. */
+    public static String key(String input, String type, String predicateList, String model) {
+        String s = input == null ? "" : input.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        int end = s.length();
+        while (end > 0 && ".?!".indexOf(s.charAt(end - 1)) >= 0) end--;
+        s = s.substring(0, end).trim();
+        return type.toLowerCase(Locale.ROOT) + "|" + versionOf(predicateList) + "|" + model + "|" + s;
+    }
+
+    // FNV-1a, 64 bit
+    private static String versionOf(String predicateList) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < predicateList.length(); i++) {
+            h ^= predicateList.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return Long.toHexString(h);
+    }
+
+    public synchronized String get(String key) {
+        if (capacity == 0) return null;
+        Cached c = entries.get(key);
+        if (c == null) {
+            misses++;
+            return null;
+        }
+        if (System.currentTimeMillis() - c.storedAt > ttlMs) {
+            entries.remove(key);
+            expired++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return c.value;
+    }
+
+    public synchronized void put(String key, String value) {
+        if (capacity == 0 || value == null) return;
+        Cached c = new Cached(value, System.currentTimeMillis());
+        entries.put(key, c);
+        if (file != null) persist(key, c);
+    }
+
+    private void persist(String key, Cached c) {
+        if (linesInFile >= 2 * capacity) {
+            rewrite();
+            return;
+        }
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(file, true))) {
+            w.write(line(key, c));
+            w.newLine();
+            linesInFile++;
+        } catch (IOException e) {
+            System.err.println("[!] Unable to write the translation cache: " + e.getMessage());
+        }
+    }
+
+    // Keeps only the live entries, replacing the file atomically
+    private void rewrite() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(tmp))) {
+            for (Map.Entry<String, Cached> e : entries.entrySet()) {
+                w.write(line(e.getKey(), e.getValue()));
+                w.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("[!] Unable to write the translation cache: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            linesInFile = entries.size();
+        } catch (IOException e) {
+            System.err.println("[!] Unable to replace the translation cache file: " + e.getMessage());
+        }
+    }
+
+    private static String line(String key, Cached c) {
+        return new JSONObject().put("k", key).put("v", c.value).put("t", c.storedAt).toString();
+    }
+
+    private void load() {
+        if (!file.isFile()) return;
+        long now = System.currentTimeMillis();
+        try (BufferedReader r = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                linesInFile++;
+                try {
+                    JSONObject o = new JSONObject(line);
+                    long at = o.getLong("t");
+                    if (now - at <= ttlMs) entries.put(o.getString("k"), new Cached(o.getString("v"), at));
+                } catch (Exception e) {
+                    // torn or foreign line: skip it
+                }
+            }
+            System.out.println("🗂 Translation cache: " + entries.size() + " entries loaded from " + file.getPath());
+        } catch (IOException e) {
+            System.err.println("[!] Unable to read the translation cache: " + e.getMessage());
+        }
+    }
+
+    public synchronized String describe() {
+        return "llmcache.size=" + entries.size() + "/" + capacity + " llmcache.hits=" + hits
+                + " llmcache.misses=" + misses + " llmcache.expired=" + expired;
+    }
+}